@@ -0,0 +1,208 @@
+/*
+ * Copyright (c) 2017 Lucko (Luck) <luck@lucko.me>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+
+package me.lucko.conditionalperms;
+
+import com.sk89q.worldedit.BlockVector;
+import com.sk89q.worldguard.protection.regions.ProtectedCuboidRegion;
+import com.sk89q.worldguard.protection.regions.ProtectedRegion;
+
+import me.lucko.conditionalperms.hooks.impl.FactionsHook;
+import me.lucko.conditionalperms.hooks.impl.TownyHook;
+import me.lucko.conditionalperms.hooks.impl.WorldGuardHook;
+import me.lucko.conditionalperms.metrics.Timer;
+import me.lucko.conditionalperms.utils.FactionsRegion;
+import me.lucko.conditionalperms.utils.SafeRadius;
+import me.lucko.conditionalperms.utils.TownyRegion;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of a move to the WorldGuard, Towny and Factions hooks. The real plugin runs on a
+ * {@link StubServer}, with the hook being measured reading a stub backend instead of its plugin, and a player with a
+ * node which needs the hook. Each move fires a move event, which goes through the {@link MovementTracker} to the
+ * hooks move handler.
+ *
+ * <ul>
+ *     <li>{@link #sameBlock()} - moves inside a block, which are dropped by the tracker</li>
+ *     <li>{@link #insideSafeRadius()} - moves between blocks, which the hook skips without a lookup. For Towny and
+ *     WorldGuard these stay inside the {@link SafeRadius}, and for Factions inside the chunk</li>
+ *     <li>{@link #outsideSafeRadius()} - moves far enough that the hook looks the region up again</li>
+ * </ul>
+ *
+ * <p>The player never changes region, so no refreshes are scheduled, and the backends answer immediately, so the
+ * results are the cost of the hooks themselves.</p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MoveBenchmark {
+    private static final int PATH_LENGTH = 1024;
+
+    // the same size as a chunk, so the outside path crosses a chunk and a town block on each move
+    private static final int TOWN_BLOCK_SIZE = 16;
+
+    // to one side of the path, near enough that the safe radius is smaller than the outside path's moves
+    private static final ProtectedRegion REGION = new ProtectedCuboidRegion("benchmark",
+            new BlockVector(-64, 0, 12), new BlockVector(64, 255, 40));
+
+    @Param({"worldguard", "towny", "factions"})
+    public String hook;
+
+    private StubServer server;
+    private Stubs.MutablePlayer player;
+
+    private Location[] sameBlock;
+    private Location[] insideSafeRadius;
+    private Location[] outsideSafeRadius;
+    private int step = 0;
+
+    @Setup
+    public void setup() {
+        server = new StubServer();
+        final ConditionalPerms plugin = server.getPlugin();
+        final String node;
+        switch (hook) {
+            case "worldguard":
+                plugin.getHookManager().register(WorldGuardHook.class, p -> new WorldGuardHook(p, new SingleRegion()));
+                node = "cperms.in_region=" + REGION.getId() + ".benchmark";
+                break;
+            case "towny":
+                plugin.getHookManager().register(TownyHook.class, p -> new TownyHook(p, new UnclaimedLand()));
+                node = "cperms.towny_land_town_owner.benchmark";
+                break;
+            case "factions":
+                plugin.getHookManager().register(FactionsHook.class, p -> new FactionsHook(p, target -> FactionsRegion.NONE));
+                node = "cperms.facs_land_own.benchmark";
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown hook: " + hook);
+        }
+
+        server.enable();
+
+        final World world = server.world("world");
+        player = new Stubs.MutablePlayer("benchmark", new Location(world, 8.5, 64, 8.5));
+        player.getPermissions().put(node, true);
+        server.join(player);
+
+        sameBlock = new Location[PATH_LENGTH];
+        insideSafeRadius = new Location[PATH_LENGTH];
+        outsideSafeRadius = new Location[PATH_LENGTH];
+        for (int i = 0; i < PATH_LENGTH; i++) {
+            sameBlock[i] = new Location(world, 8.25 + (i % 2) * 0.5, 64, 8.5);
+            insideSafeRadius[i] = new Location(world, 8.5 + (i % 2), 64, 8.5);
+            outsideSafeRadius[i] = new Location(world, 8.5 + (i % 2) * TOWN_BLOCK_SIZE, 64, 8.5);
+        }
+
+        // make sure the moves reach the hook, otherwise the benchmark measures nothing
+        final Timer lookups = plugin.getMetrics().timer("hook." + hook + ".move");
+        server.move(player, outsideSafeRadius[1]);
+        server.move(player, outsideSafeRadius[0]);
+        if (lookups.getTotalCount() != 2) {
+            throw new IllegalStateException("The " + hook + " hook didn't handle the moves");
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        server.disable();
+    }
+
+    private Location next(Location[] path) {
+        return path[step++ & (PATH_LENGTH - 1)];
+    }
+
+    @Benchmark
+    public void sameBlock() {
+        server.move(player, next(sameBlock));
+    }
+
+    @Benchmark
+    public void insideSafeRadius() {
+        server.move(player, next(insideSafeRadius));
+    }
+
+    @Benchmark
+    public void outsideSafeRadius() {
+        server.move(player, next(outsideSafeRadius));
+    }
+
+    private static boolean contains(ProtectedRegion region, int x, int y, int z) {
+        return x >= region.getMinimumPoint().getBlockX() && x <= region.getMaximumPoint().getBlockX() &&
+                y >= region.getMinimumPoint().getBlockY() && y <= region.getMaximumPoint().getBlockY() &&
+                z >= region.getMinimumPoint().getBlockZ() && z <= region.getMaximumPoint().getBlockZ();
+    }
+
+    private static final class SingleRegion implements WorldGuardHook.RegionSource {
+
+        @Override
+        public Collection<ProtectedRegion> getApplicableRegions(Location location) {
+            return contains(REGION, location.getBlockX(), location.getBlockY(), location.getBlockZ()) ?
+                    Collections.singleton(REGION) : Collections.emptySet();
+        }
+
+        @Override
+        public Collection<ProtectedRegion> getApplicableRegions(World world, ProtectedRegion area) {
+            final boolean overlaps = area.getMinimumPoint().getBlockX() <= REGION.getMaximumPoint().getBlockX() &&
+                    area.getMaximumPoint().getBlockX() >= REGION.getMinimumPoint().getBlockX() &&
+                    area.getMinimumPoint().getBlockZ() <= REGION.getMaximumPoint().getBlockZ() &&
+                    area.getMaximumPoint().getBlockZ() >= REGION.getMinimumPoint().getBlockZ();
+            return overlaps ? Collections.singleton(REGION) : Collections.emptySet();
+        }
+    }
+
+    private static final class UnclaimedLand implements TownyHook.StatusSource {
+
+        @Override
+        public TownyRegion getStatus(Player player, Location location) {
+            return TownyRegion.UNCLAIMED;
+        }
+
+        @Override
+        public int getTownBlockSize() {
+            return TOWN_BLOCK_SIZE;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2017 Lucko (Luck) <luck@lucko.me>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.conditionalperms;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import org.bukkit.GameMode;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Generates sets of conditional nodes for the benchmarks.
+ */
+final class NodeGenerator {
+    private NodeGenerator() {}
+
+    /**
+     * The sets of conditions nodes can be generated from, by name.
+     *
+     * <ul>
+     *     <li>bukkit - conditions which only read the player</li>
+     *     <li>time - conditions which read the clock or the time in the players world</li>
+     *     <li>mixed - both of the above</li>
+     * </ul>
+     */
+    static final Map<String, List<Condition>> MIXES = ImmutableMap.of(
+            "bukkit", ImmutableList.of(Condition.IN_WORLD, Condition.IN_GAMEMODE, Condition.IS_FLYING),
+            "time", ImmutableList.of(Condition.IN_TIME, Condition.ON_DAY, Condition.IN_WORLD_TIME),
+            "mixed", ImmutableList.of(Condition.IN_WORLD, Condition.IN_GAMEMODE, Condition.IS_FLYING, Condition.IN_TIME, Condition.ON_DAY, Condition.IN_WORLD_TIME)
+    );
+
+    /**
+     * Generates a set of nodes. The same seed is used each time, so the nodes only depend on the arguments.
+     *
+     * @param compiler the compiler to compile the nodes with
+     * @param mix the conditions to pick from
+     * @param worldName the world which half of the in_world conditions name
+     * @param count the number of nodes to generate
+     * @param depth the number of conditions chained together in each node
+     * @param negationPercent the percentage of conditions which are negated
+     * @return the nodes
+     */
+    static List<ConditionalNode> generate(NodeCompiler compiler, List<Condition> mix, String worldName, int count, int depth, int negationPercent) {
+        final Random random = new Random(0);
+        final GameMode[] gameModes = GameMode.values();
+
+        final List<ConditionalNode> nodes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final StringBuilder sb = new StringBuilder();
+            for (int j = 0; j < depth; j++) {
+                final Condition condition = mix.get(random.nextInt(mix.size()));
+                sb.append("cperms.");
+                if (random.nextInt(100) < negationPercent) {
+                    sb.append('!');
+                }
+                sb.append(condition.name().toLowerCase());
+
+                switch (condition) {
+                    case IN_WORLD:
+                        sb.append('=').append(random.nextBoolean() ? worldName : "benchmark");
+                        break;
+                    case IN_GAMEMODE:
+                        sb.append('=').append(gameModes[random.nextInt(gameModes.length)].name().toLowerCase());
+                        break;
+                    case IN_REGION:
+                        sb.append("=benchmark");
+                        break;
+                    case IN_TIME:
+                        final int hour = random.nextInt(24);
+                        sb.append('=').append(hour).append(":00-").append((hour + 1 + random.nextInt(12)) % 24).append(":00");
+                        break;
+                    case ON_DAY:
+                        sb.append(random.nextBoolean() ? "=sat-sun" : "=mon-fri");
+                        break;
+                    case IN_WORLD_TIME:
+                        final int start = random.nextInt(24) * 1000;
+                        sb.append('=').append(start).append('-').append((start + 1000 + random.nextInt(12) * 1000) % 24000);
+                        break;
+                    default:
+                        break;
+                }
+                sb.append('.');
+            }
+            sb.append("conditionalperms.benchmark.").append(i);
+
+            final ConditionalNode node = compiler.compile(sb.toString());
+            if (node != null) {
+                nodes.add(node);
+            }
+        }
+        return nodes;
+    }
+}
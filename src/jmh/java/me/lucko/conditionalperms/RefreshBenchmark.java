@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2017 Lucko (Luck) <luck@lucko.me>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+
+package me.lucko.conditionalperms;
+
+import me.lucko.conditionalperms.trace.Tracer;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Measures refreshing a player against a stubbed player, with nodes made by the {@link NodeGenerator}. Only the
+ * conditions which don't need a hook are used, picked from one of the {@link NodeGenerator#MIXES}.
+ *
+ * <p>{@link #refresh()} is the main thread path, and {@link #refreshSnapshot()} the async path, which takes a
+ * {@link PlayerSnapshot} first. Neither applies the result to a permission attachment.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RefreshBenchmark {
+    @Param({"10", "100", "1000", "10000"})
+    private int nodeCount;
+
+    @Param({"1", "4", "8"})
+    private int depth;
+
+    @Param({"0", "25", "50"})
+    private int negationPercent;
+
+    @Param({"bukkit", "time", "mixed"})
+    private String mix;
+
+    private NodeEvaluator evaluator;
+    private List<ConditionalNode> nodes;
+    private Stubs.MutablePlayer player;
+
+    @Setup
+    public void setup() {
+        final World world = Stubs.world("world");
+        final NodeCompiler compiler = new NodeCompiler(null, false);
+        final Tracer tracer = new Tracer(Logger.getLogger("RefreshBenchmark"), 16);
+
+        evaluator = new NodeEvaluator(compiler, () -> tracer, hook -> false);
+        nodes = NodeGenerator.generate(compiler, NodeGenerator.MIXES.get(mix), world.getName(), nodeCount, depth, negationPercent);
+        player = new Stubs.MutablePlayer("benchmark", new Location(world, 0, 64, 0));
+    }
+
+    @Benchmark
+    public Set<String> refresh() {
+        return evaluator.evaluate(player.getName(), nodes, new NodeUsage(), leaf -> leaf.test(player.getPlayer()));
+    }
+
+    @Benchmark
+    public Set<String> refreshSnapshot() {
+        final PlayerSnapshot snapshot = PlayerSnapshot.of(player.getPlayer());
+        return evaluator.evaluate(player.getName(), nodes, new NodeUsage(), leaf -> leaf.test(snapshot));
+    }
+}
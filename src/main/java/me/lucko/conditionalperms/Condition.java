@@ -35,12 +35,18 @@ import me.lucko.conditionalperms.conditions.factions.InFactionsLand;
 import me.lucko.conditionalperms.conditions.placeholderapi.IsPlaceholder;
 import me.lucko.conditionalperms.conditions.plotsquared.InOwnPlot;
 import me.lucko.conditionalperms.conditions.plotsquared.InPlot;
+import me.lucko.conditionalperms.conditions.time.InTime;
+import me.lucko.conditionalperms.conditions.time.InWorldTime;
+import me.lucko.conditionalperms.conditions.time.OnDay;
 import me.lucko.conditionalperms.conditions.towny.InTownyRegion;
 import me.lucko.conditionalperms.conditions.vanishnopacket.IsVanished;
 import me.lucko.conditionalperms.conditions.worldguard.InRegion;
 import me.lucko.conditionalperms.utils.FactionsRegion;
 import me.lucko.conditionalperms.utils.TownyRegion;
 
+import java.util.HashMap;
+import java.util.Map;
+
 @Getter
 @AllArgsConstructor
 enum Condition {
@@ -49,6 +55,10 @@ enum Condition {
     IN_GAMEMODE(new InGamemode()),
     IS_FLYING(new IsFlying()),
 
+    IN_TIME(new InTime()),
+    ON_DAY(new OnDay()),
+    IN_WORLD_TIME(new InWorldTime()),
+
     IS_PLACEHOLDER(new IsPlaceholder()),
 
     IS_VANISHED(new IsVanished()),
@@ -86,6 +96,17 @@ enum Condition {
     TOWNY_LAND_UNCLAIMED(new InTownyRegion(TownyRegion.UNCLAIMED)),
     TOWNY_LAND_WARZONE(new InTownyRegion(TownyRegion.WARZONE));
 
-    private final AbstractCondition condition;
+    private static final Map<String, Condition> BY_NAME = new HashMap<>();
+    static {
+        for (Condition condition : values()) {
+            BY_NAME.put(condition.name().toLowerCase(), condition);
+        }
+    }
+
+    public static Condition getByName(String name) {
+        return BY_NAME.get(name.toLowerCase());
+    }
+
+    private final AbstractCondition<?> condition;
 
 }
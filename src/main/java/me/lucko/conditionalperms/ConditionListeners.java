@@ -0,0 +1,198 @@
+/*
+ * Copyright (c) 2017 Lucko (Luck) <luck@lucko.me>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+
+package me.lucko.conditionalperms;
+
+import me.lucko.conditionalperms.conditions.AbstractCondition;
+import me.lucko.helper.terminable.Terminable;
+import me.lucko.helper.terminable.composite.CompositeTerminable;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+
+/**
+ * Sets up each condition (registering its listeners) only while it is used by at least one online player.
+ *
+ * <p>The conditions a player uses are recorded each time they are refreshed, see {@link NodeUsage}. Each
+ * condition keeps a count of the players using it, and is set up when this goes above zero, and closed again
+ * when the last player stops using it. A condition is always checked directly when a player is refreshed, so
+ * its listeners are only needed to notice when the result may have changed.</p>
+ *
+ * <p>The parameters each condition is used with are counted in the same way, see
+ * {@link AbstractCondition#onParameterUsed(Object)}.</p>
+ */
+final class ConditionListeners implements Terminable {
+    private static final Condition[] CONDITIONS = Condition.values();
+
+    private final ConditionalPerms plugin;
+    private final int[] references = new int[CONDITIONS.length];
+    private final CompositeTerminable[] active = new CompositeTerminable[CONDITIONS.length];
+
+    // the number of players using each parameter of each condition
+    private final Map<AbstractCondition<?>, Map<Object, Integer>> parameterReferences = new IdentityHashMap<>();
+
+    // if set, every condition stays set up regardless of references
+    private boolean pinned = false;
+
+    ConditionListeners(ConditionalPerms plugin) {
+        this.plugin = plugin;
+    }
+
+    /**
+     * Sets up every condition, and keeps them set up until closed. Used when the conditions are exposed as
+     * contexts, as these can be queried at any time.
+     */
+    synchronized void pinAll() {
+        pinned = true;
+        for (Condition condition : CONDITIONS) {
+            activate(condition);
+        }
+    }
+
+    /**
+     * Updates the reference counts when the conditions used by a player change.
+     *
+     * @param previous the conditions the player used before
+     * @param now the conditions the player uses now
+     */
+    synchronized void update(Set<Condition> previous, Set<Condition> now) {
+        for (Condition condition : now) {
+            if (!previous.contains(condition) && references[condition.ordinal()]++ == 0) {
+                activate(condition);
+            }
+        }
+        for (Condition condition : previous) {
+            if (!now.contains(condition) && --references[condition.ordinal()] == 0) {
+                deactivate(condition);
+            }
+        }
+    }
+
+    /**
+     * Updates the reference counts when the parameters used by a player change.
+     *
+     * @param previous the parameters the player used before
+     * @param now the parameters the player uses now
+     */
+    synchronized void updateParameters(Map<AbstractCondition<?>, Set<Object>> previous, Map<AbstractCondition<?>, Set<Object>> now) {
+        if (previous.equals(now)) {
+            return;
+        }
+
+        now.forEach((condition, parameters) -> {
+            final Set<Object> before = previous.getOrDefault(condition, Collections.emptySet());
+            for (Object parameter : parameters) {
+                if (!before.contains(parameter)) {
+                    reference(condition, parameter);
+                }
+            }
+        });
+        previous.forEach((condition, parameters) -> {
+            final Set<Object> after = now.getOrDefault(condition, Collections.emptySet());
+            for (Object parameter : parameters) {
+                if (!after.contains(parameter)) {
+                    dereference(condition, parameter);
+                }
+            }
+        });
+    }
+
+    synchronized int getActiveCount() {
+        int count = 0;
+        for (CompositeTerminable terminable : active) {
+            if (terminable != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private void activate(Condition condition) {
+        if (active[condition.ordinal()] != null) {
+            return;
+        }
+
+        final CompositeTerminable terminable = CompositeTerminable.create();
+        try {
+            condition.getCondition().setup(terminable);
+        } catch (Exception e) {
+            plugin.getLogger().log(Level.SEVERE, "Exception thrown whilst setting up condition " + condition.name().toLowerCase(), e);
+            terminable.closeAndReportException();
+            return;
+        }
+        active[condition.ordinal()] = terminable;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void reference(AbstractCondition<?> condition, Object parameter) {
+        final Map<Object, Integer> references = parameterReferences.computeIfAbsent(condition, c -> new HashMap<>());
+        if (references.merge(parameter, 1, Integer::sum) != 1) {
+            return;
+        }
+
+        try {
+            ((AbstractCondition<Object>) condition).onParameterUsed(parameter);
+        } catch (Exception e) {
+            plugin.getLogger().log(Level.SEVERE, "Exception thrown whilst setting up parameter " + parameter, e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void dereference(AbstractCondition<?> condition, Object parameter) {
+        final Map<Object, Integer> references = parameterReferences.get(condition);
+        if (references == null || references.merge(parameter, -1, Integer::sum) != 0) {
+            return;
+        }
+
+        references.remove(parameter);
+        try {
+            ((AbstractCondition<Object>) condition).onParameterUnused(parameter);
+        } catch (Exception e) {
+            plugin.getLogger().log(Level.SEVERE, "Exception thrown whilst removing parameter " + parameter, e);
+        }
+    }
+
+    private void deactivate(Condition condition) {
+        final CompositeTerminable terminable = active[condition.ordinal()];
+        if (terminable == null || pinned) {
+            return;
+        }
+
+        active[condition.ordinal()] = null;
+        terminable.closeAndReportException();
+    }
+
+    @Override
+    public synchronized void close() {
+        for (int i = 0; i < active.length; i++) {
+            if (active[i] != null) {
+                active[i].closeAndReportException();
+                active[i] = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2017 Lucko (Luck) <luck@lucko.me>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+
+package me.lucko.conditionalperms;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+
+import me.lucko.conditionalperms.hooks.AbstractHook;
+
+import org.bukkit.entity.Player;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * A conditional permission node, parsed and validated by the {@link NodeCompiler}.
+ */
+@Getter
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+final class ConditionalNode {
+
+    static ConditionalNode create(String permission, Expression expression, String toApply) {
+        final List<Class<? extends AbstractHook>> hooks = new ArrayList<>();
+        final Set<Condition> conditions = EnumSet.noneOf(Condition.class);
+        expression.forEachLeaf(leaf -> {
+            conditions.add(leaf.getType());
+            if (leaf.getCondition().isHookNeeded() && !hooks.contains(leaf.getCondition().getNeededHook())) {
+                hooks.add(leaf.getCondition().getNeededHook());
+            }
+        });
+
+        final ImmutableSet.Builder<String> conditionNames = ImmutableSet.builder();
+        for (Condition condition : conditions) {
+            conditionNames.add(condition.name());
+        }
+        return new ConditionalNode(permission, expression, ImmutableList.copyOf(hooks), Sets.immutableEnumSet(conditions), conditionNames.build(), toApply);
+    }
+
+    /**
+     * The full node, e.g. cperms.!in_world=world_nether.essentials.fly
+     */
+    private final String permission;
+
+    /**
+     * The conditions which have to be met for the node to be applied.
+     */
+    private final Expression expression;
+
+    /**
+     * The hooks needed by any of the conditions in the node.
+     */
+    private final List<Class<? extends AbstractHook>> neededHooks;
+
+    /**
+     * The conditions used in the node.
+     */
+    private final Set<Condition> conditions;
+
+    /**
+     * The names of the conditions used in the node, kept so trace events can be filtered without allocating.
+     */
+    private final Set<String> conditionNames;
+
+    /**
+     * The node to apply if the condition is met, e.g. essentials.fly
+     */
+    private final String toApply;
+
+    /**
+     * Checks if the node should be applied to the player.
+     *
+     * @param player the player
+     * @return true if the conditions are met
+     */
+    boolean test(Player player) {
+        return expression.evaluate(leaf -> leaf.test(player));
+    }
+
+    /**
+     * Checks if the node should be applied, using the given test for each condition.
+     *
+     * @param test the test
+     * @return true if the conditions are met
+     */
+    boolean test(Predicate<Expression.Leaf<?>> test) {
+        return expression.evaluate(test);
+    }
+
+}
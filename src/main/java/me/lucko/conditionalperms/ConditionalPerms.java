@@ -23,198 +23,651 @@
 package me.lucko.conditionalperms;
 
 import lombok.Getter;
-import lombok.Setter;
 
-import com.google.common.base.Splitter;
-import com.google.common.collect.HashMultimap;
-import com.google.common.collect.Multimap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import me.lucko.conditionalperms.conditions.AbstractCondition;
-import me.lucko.conditionalperms.hooks.AbstractHook;
 import me.lucko.conditionalperms.hooks.HookManager;
+import me.lucko.conditionalperms.hooks.impl.LuckPermsHook;
+import me.lucko.conditionalperms.metrics.Counter;
+import me.lucko.conditionalperms.metrics.Gauge;
+import me.lucko.conditionalperms.metrics.Histogram;
+import me.lucko.conditionalperms.metrics.Metrics;
+import me.lucko.conditionalperms.metrics.MetricsExporter;
+import me.lucko.conditionalperms.metrics.Profiler;
+import me.lucko.conditionalperms.metrics.RefreshCause;
+import me.lucko.conditionalperms.metrics.Timer;
+import me.lucko.conditionalperms.recording.EventRecorder;
+import me.lucko.conditionalperms.scheduler.TaskScheduler;
+import me.lucko.conditionalperms.trace.TraceType;
+import me.lucko.conditionalperms.trace.Tracer;
+import me.lucko.conditionalperms.utils.TimerWheel;
 import me.lucko.helper.Events;
-import me.lucko.helper.Schedulers;
-import me.lucko.helper.plugin.ExtendedJavaPlugin;
+import me.lucko.helper.terminable.TerminableConsumer;
+import me.lucko.helper.terminable.composite.CompositeTerminable;
 
 import org.bukkit.ChatColor;
+import org.bukkit.Server;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandSender;
+import org.bukkit.configuration.file.FileConfiguration;
 import org.bukkit.entity.Player;
+import org.bukkit.event.EventPriority;
 import org.bukkit.event.player.PlayerJoinEvent;
 import org.bukkit.event.player.PlayerLoginEvent;
 import org.bukkit.event.player.PlayerQuitEvent;
 import org.bukkit.permissions.PermissionAttachment;
 import org.bukkit.permissions.PermissionAttachmentInfo;
+import org.bukkit.plugin.Plugin;
 
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.UUID;
-import java.util.stream.Collectors;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The plugin.
+ *
+ * <p>This is started by {@link ConditionalPermsBootstrap} when Bukkit enables the plugin, and only uses the
+ * bootstrap for what it needs from the server, so it can also be started without one.</p>
+ */
+public class ConditionalPerms implements TerminableConsumer {
+    private static final int PERMISSION_CHECK_INTERVAL = 100;
+
+    /**
+     * The plugin loaded by Bukkit. Used wherever the server needs a plugin, e.g. for permission attachments.
+     */
+    @Getter
+    private final Plugin bootstrap;
+
+    private final CompositeTerminable terminables = CompositeTerminable.create();
 
-public class ConditionalPerms extends ExtendedJavaPlugin {
-    private static final Splitter DOT_SPLIT = Splitter.on('.').omitEmptyStrings().trimResults();
-    private static final Splitter EQUALS_SPLIT = Splitter.on('=').omitEmptyStrings().trimResults().limit(2);
+    private final NodeCompiler nodeCompiler = new NodeCompiler(this, true);
+    private final NodeEvaluator nodeEvaluator = new NodeEvaluator(nodeCompiler, this::getTracer, hook -> getHookManager().isHooked(hook));
 
-    private final Map<UUID, PermissionAttachment> attachments = new HashMap<>();
+    @Getter
+    private final Metrics metrics = new Metrics();
+    private final Map<RefreshCause, Counter> refreshCounters = new EnumMap<>(RefreshCause.class);
+    private final Histogram refreshLatency = metrics.histogram("refresh.latency");
+    private final Counter attachmentRecalculations = metrics.counter("attachment.recalculations");
+    private final Gauge pendingRefreshes = metrics.gauge("refresh.pending");
+    private final Timer[] conditionTimers = new Timer[Condition.values().length];
+    private final Profiler profiler = new Profiler(this);
+    @Getter
+    private final EventRecorder recorder = new EventRecorder(this);
+    private final ConditionListeners conditionListeners = new ConditionListeners(this);
+
+    @Getter
+    private final TaskScheduler scheduler;
+
+    @Getter
+    private final PlayerStates playerStates = new PlayerStates();
 
     /**
-     * Used to stop any listeners in hooks firing for players who do not have any conditional permissions assigned.
+     * The pool used to evaluate thread safe conditions off the main thread, or null if evaluation is done on the
+     * main thread. See {@link #refreshAsync(Player, PlayerState)}.
      */
+    private ExecutorService evaluationPool = null;
+
+    private long permissionCheckTick = 0;
+
     @Getter
-    private final Multimap<UUID, Class<? extends AbstractHook>> neededHooks = HashMultimap.create();
+    private final HookManager hookManager = new HookManager(this);
 
     @Getter
-    private HookManager hookManager;
+    private MovementTracker movementTracker;
 
+    /**
+     * Holds the wake-ups of the time conditions, one for each distinct window in use. Advanced every tick.
+     */
+    @Getter
+    private TimerWheel timerWheel;
+
+    /**
+     * If conditions are exposed as LuckPerms contexts. Contexts can be checked for any player, so when this is
+     * enabled, hooks have to keep track of all online players.
+     */
     @Getter
-    @Setter
-    private boolean debug = false;
+    private boolean contextsEnabled = false;
 
-    public void debug(String s) {
-        if (debug) getLogger().info("[DEBUG] " + s);
+    @Getter
+    private Tracer tracer;
+
+    public ConditionalPerms(Plugin bootstrap, TaskScheduler scheduler) {
+        this.bootstrap = bootstrap;
+        this.scheduler = scheduler;
     }
 
-    @Override
     public void enable() {
+        bootstrap.saveDefaultConfig();
+        tracer = new Tracer(getLogger(), Math.max(1, getConfig().getInt("trace-buffer-size", 4096)));
+
+        for (RefreshCause cause : RefreshCause.values()) {
+            refreshCounters.put(cause, metrics.counter("refreshes." + cause.name().toLowerCase()));
+        }
+        for (Condition condition : Condition.values()) {
+            conditionTimers[condition.ordinal()] = metrics.timer("condition." + condition.name().toLowerCase());
+        }
 
         for (Condition condition : Condition.values()) {
             condition.getCondition().init(this);
         }
 
-        hookManager = new HookManager(this);
+        timerWheel = new TimerWheel(50L, 1024, () -> TimeUnit.NANOSECONDS.toMillis(System.nanoTime()));
+        scheduler.runRepeating(timerWheel::advance, 1L, 1L).bindWith(this);
+        metrics.gauge("timers.pending", timerWheel::size);
+
+        movementTracker = createMovementTracker();
+        bindModule(movementTracker);
+
         hookManager.init();
 
-        Events.subscribe(PlayerLoginEvent.class)
-                .handler(e -> attachments.put(e.getPlayer().getUniqueId(), e.getPlayer().addAttachment(this)))
+        // conditions are set up once a players nodes use them
+        bind(conditionListeners);
+        metrics.gauge("conditions.active", conditionListeners::getActiveCount);
+
+        bindModule(new MetricsExporter(this));
+
+        if (getConfig().getBoolean("async-evaluation", false)) {
+            evaluationPool = createEvaluationPool();
+            bind(() -> evaluationPool.shutdown());
+        }
+
+        final LuckPermsHook luckPermsHook = hookManager.get(LuckPermsHook.class);
+        if (luckPermsHook != null && getConfig().getBoolean("luckperms-contexts", false)) {
+            contextsEnabled = true;
+            for (Condition condition : Condition.values()) {
+                final AbstractCondition<?> c = condition.getCondition();
+                // contexts can be queried at any time, so their hooks are loaded up front
+                if (!c.isContextSupported() || (c.isHookNeeded() && hookManager.load(c.getNeededHook()) == null)) {
+                    continue;
+                }
+
+                luckPermsHook.registerContext(condition.name().toLowerCase(), c);
+            }
+            conditionListeners.pinAll();
+            getLogger().info("Registered conditions as LuckPerms contexts.");
+        }
+
+        // the state is created first, so hooks can fill it in as the player logs in
+        Events.subscribe(PlayerLoginEvent.class, EventPriority.LOWEST)
+                .handler(e -> playerStates.create(e.getPlayer()))
+                .bindWith(this);
+
+        Events.subscribe(PlayerLoginEvent.class, EventPriority.MONITOR)
+                .handler(e -> {
+                    if (e.getResult() != PlayerLoginEvent.Result.ALLOWED) {
+                        playerStates.remove(e.getPlayer().getUniqueId());
+                        return;
+                    }
+
+                    final PlayerState state = playerStates.create(e.getPlayer());
+                    state.attachment = e.getPlayer().addAttachment(bootstrap);
+                    reindex(e.getPlayer(), state);
+                })
                 .bindWith(this);
 
         Events.subscribe(PlayerJoinEvent.class)
                 .handler(e -> {
-                    refreshPlayer(e.getPlayer());
-                    refreshPlayer(e.getPlayer(), 20L);
+                    refreshPlayer(e.getPlayer(), RefreshCause.JOIN);
+
+                    // fallback for permission plugins which don't tell us when they've finished loading the player.
+                    // this only refreshes them again if their conditional nodes have changed since they logged in.
+                    if (!isPermissionDataSignalled()) {
+                        scheduler.runLater(e.getPlayer(), () -> handlePermissionDataReady(e.getPlayer()), 20L);
+                    }
                 })
                 .bindWith(this);
 
-        Events.subscribe(PlayerQuitEvent.class)
-                .handler(e -> e.getPlayer().removeAttachment(attachments.remove(e.getPlayer().getUniqueId())))
+        Events.subscribe(PlayerQuitEvent.class, EventPriority.MONITOR)
+                .handler(e -> {
+                    final PlayerState state = playerStates.remove(e.getPlayer().getUniqueId());
+                    if (state == null) {
+                        return;
+                    }
+
+                    conditionListeners.update(state.conditions, Collections.emptySet());
+                    conditionListeners.updateParameters(state.parameters, Collections.emptyMap());
+                    if (state.attachment != null) {
+                        e.getPlayer().removeAttachment(state.attachment);
+                    }
+                })
                 .bindWith(this);
+
+        scheduler.runRepeating(this::checkPermissionChanges, 1L, 1L).bindWith(this);
     }
 
-    public void refreshPlayer(final Player player, long delay) {
-        Schedulers.sync().runLater(() -> refreshPlayer(player), delay);
+    private MovementTracker createMovementTracker() {
+        final String mode = getConfig().getString("movement-tracking.mode", "event");
+        final int interval = getConfig().getInt("movement-tracking.interval", 5);
+        if (mode.equalsIgnoreCase("interval")) {
+            getLogger().info("Sampling player positions every " + interval + " ticks.");
+            return new MovementTracker(playerStates, scheduler, MovementTracker.Mode.INTERVAL, interval);
+        }
+        if (!mode.equalsIgnoreCase("event")) {
+            getLogger().warning("Unknown movement tracking mode '" + mode + "', using 'event'.");
+        }
+        return new MovementTracker(playerStates, scheduler, MovementTracker.Mode.EVENT, interval);
+    }
+
+    public void disable() {
+        if (recorder.isRecording()) {
+            recorder.stop(null);
+        }
+        terminables.closeAndReportException();
+    }
+
+    @Override
+    public <T extends AutoCloseable> T bind(T terminable) {
+        return terminables.bind(terminable);
+    }
+
+    public Server getServer() {
+        return bootstrap.getServer();
+    }
+
+    public Logger getLogger() {
+        return bootstrap.getLogger();
+    }
+
+    public File getDataFolder() {
+        return bootstrap.getDataFolder();
     }
 
-    public void refreshPlayer(Player player) {
-        debug("Processing permissions for player " + player.getName() + ".");
-        final PermissionAttachment attachment = attachments.get(player.getUniqueId());
-        if (attachment == null) {
-            debug("Aborting, permission attachment is null.");
+    public FileConfiguration getConfig() {
+        return bootstrap.getConfig();
+    }
+
+    /**
+     * Picks up changes to the conditional nodes given to players by permission plugins.
+     *
+     * <p>Each player is checked once every {@link #PERMISSION_CHECK_INTERVAL} ticks. Players are spread over the
+     * interval by their slot, so only a small slice of the online players are checked on each tick.</p>
+     */
+    private void checkPermissionChanges() {
+        if (isPermissionDataSignalled()) {
             return;
         }
 
-        // Clear existing applied permissions
-        for (String p : attachment.getPermissions().keySet()) {
-            attachment.unsetPermission(p);
+        final int phase = (int) (permissionCheckTick++ % PERMISSION_CHECK_INTERVAL);
+        playerStates.forEach(state -> {
+            if (state.getSlot() % PERMISSION_CHECK_INTERVAL == phase && state.fingerprint != null) {
+                scheduler.execute(state.getPlayer(), () -> handlePermissionDataReady(state.getPlayer()));
+            }
+        });
+    }
+
+    /**
+     * Gets if the permission plugin calls {@link #handlePermissionDataReady(Player)} itself whenever a players
+     * data changes, in which case we don't need to poll for changes.
+     *
+     * @return true if changes to permission data are signalled
+     */
+    private boolean isPermissionDataSignalled() {
+        return hookManager.isHooked(LuckPermsHook.class);
+    }
+
+    /**
+     * Called when a permission plugin has (re)loaded the permission data of a player.
+     *
+     * <p>The player is only refreshed if the conditional nodes they have been given have changed.</p>
+     *
+     * @param player the player
+     */
+    public void handlePermissionDataReady(Player player) {
+        final PlayerState state = playerStates.get(player);
+        if (state == null) {
+            return;
         }
-        neededHooks.removeAll(player.getUniqueId());
 
-        // process recursively so you can chain permissions together
-        boolean work = true;
-        final List<String> applied = new ArrayList<>();
-        while (work) {
-            work = false;
+        final Long previous = state.fingerprint;
+        if (previous != null && previous == fingerprint(player, state.attachment)) {
+            tracer.trace(TraceType.NODES_UNCHANGED, player.getName());
+            return;
+        }
 
-            for (PermissionAttachmentInfo pa : player.getEffectivePermissions()) {
-                // Don't apply negative permissions
-                if (!pa.getValue()) continue;
+        tracer.trace(TraceType.NODES_CHANGED, player.getName());
+        reindex(player, state);
+        refreshPlayer(player, RefreshCause.PERMISSIONS);
+    }
 
-                // check we're handling a cperms node
-                if (!pa.getPermission().startsWith("cperms.")) continue;
+    /**
+     * Calculates a hash of the conditional nodes given to a player by other plugins.
+     *
+     * <p>The hash is independent of the order of the nodes, and ignores any nodes we have applied ourselves. It
+     * is the sum of a 64 bit hash of each node (see {@link #hashNode(String)}), so unlike a sum of
+     * {@link String#hashCode()}s, nodes which are similar or swap characters don't cancel each other out.</p>
+     *
+     * <p>This isn't free: Bukkit copies the effective permissions into a new set on every call, so the time and
+     * garbage are proportional to the total number of permissions the player has, not just the conditional ones
+     * (roughly 40 bytes per permission). Each player is only fingerprinted once every
+     * {@link #PERMISSION_CHECK_INTERVAL} ticks, and not at all when the permission plugin signals changes.</p>
+     *
+     * @param player the player
+     * @param attachment our attachment on the player
+     * @return the fingerprint
+     */
+    private long fingerprint(Player player, PermissionAttachment attachment) {
+        long hash = 0;
+        int count = 0;
+        for (PermissionAttachmentInfo pa : player.getEffectivePermissions()) {
+            if (isSourceNode(pa, attachment)) {
+                hash += hashNode(pa.getPermission());
+                count++;
+            }
+        }
+        return 31 * hash + count;
+    }
 
-                // don't re-apply permissions
-                if (applied.contains(pa.getPermission())) continue;
+    /**
+     * Hashes a node for {@link #fingerprint(Player, PermissionAttachment)}, without allocating.
+     *
+     * <p>This is 64 bit FNV-1a, with the bits spread by the MurmurHash3 finalizer so that the sum of the hashes of
+     * several nodes doesn't collide as easily as the hashes themselves.</p>
+     *
+     * @param node the node
+     * @return the hash
+     */
+    private static long hashNode(String node) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < node.length(); i++) {
+            hash ^= node.charAt(i);
+            hash *= 0x100000001b3L;
+        }
 
-                debug("Processing conditional permission: " + pa.getPermission());
-                final List<String> parts = DOT_SPLIT.splitToList(pa.getPermission());
-                if (parts.size() <= 2) {
-                    debug("Aborting, permission does not contain a node to apply.");
-                    continue;
-                }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
 
-                String conditionPart = parts.get(1);
+    /**
+     * Rebuilds the index of conditional nodes given to a player by other plugins.
+     *
+     * <p>This should be called whenever their base permissions change. Refreshes only look at the index, so
+     * apart from this and the periodic {@link #fingerprint(Player, PermissionAttachment)} check, the players full
+     * set of effective permissions is never scanned.</p>
+     *
+     * @param player the player
+     * @param state the players state
+     */
+    private void reindex(Player player, PlayerState state) {
+        final PermissionAttachment attachment = state.attachment;
 
-                boolean negated = conditionPart.startsWith("!");
-                if (negated) {
-                    debug("Condition is negated.");
-                    conditionPart = conditionPart.substring(1);
-                }
+        final List<ConditionalNode> nodes = new ArrayList<>();
+        long hash = 0;
+        int count = 0;
+        for (PermissionAttachmentInfo pa : player.getEffectivePermissions()) {
+            if (!isSourceNode(pa, attachment)) continue;
 
-                String parameter = null;
-                if (conditionPart.contains("=")) {
-                    final List<String> parameterSplit = EQUALS_SPLIT.splitToList(conditionPart);
-                    conditionPart = parameterSplit.get(0);
-                    parameter = parameterSplit.get(1);
-                    debug("Found parameter: " + parameter);
-                }
+            hash += hashNode(pa.getPermission());
+            count++;
 
-                Condition condition = null;
-                for (Condition i : Condition.values()) {
-                    if (i.name().equalsIgnoreCase(conditionPart)) {
-                        condition = i;
-                        debug("Found condition " + condition.name() + ".");
-                        break;
-                    }
-                }
+            final ConditionalNode node = nodeCompiler.compile(pa.getPermission());
+            if (node != null) {
+                nodes.add(node);
+            }
+        }
 
-                if (condition == null) {
-                    debug("Aborting, could not find a condition that matches " + conditionPart + ".");
-                    continue;
-                }
+        state.sourceNodes = nodes;
+        state.fingerprint = 31 * hash + count;
+        tracer.trace(TraceType.INDEXED, player.getName(), nodes.size());
+    }
 
-                final AbstractCondition c = condition.getCondition();
-                if (c.isHookNeeded() && !hookManager.isHooked(c.getNeededHook())) {
-                    debug("Aborting, condition " + condition.name() + " requires hook " + c.getNeededHook().getSimpleName() + " to function.");
-                    continue;
-                }
+    /**
+     * Rebuilds a players index and refreshes them, on the thread which owns them. Used when the compiled nodes
+     * have been thrown away, or the player is refreshed by hand.
+     *
+     * @param player the player
+     */
+    private void reindexAndRefresh(Player player) {
+        scheduler.execute(player, () -> {
+            final PlayerState state = playerStates.get(player);
+            if (state == null || state.attachment == null) {
+                return;
+            }
 
-                if (c.isParameterNeeded() && parameter == null) {
-                    debug("Aborting, condition " + condition.name() + " requires a parameter, but one was not given.");
-                    continue;
-                }
+            reindex(player, state);
+            refresh(player, RefreshCause.COMMAND);
+        });
+    }
+
+    /**
+     * Gets the conditional nodes given to a player by other plugins. Must be called on the thread which owns the
+     * player.
+     *
+     * @param player the player
+     * @return the nodes, or an empty list if the player isn't set up yet
+     */
+    public List<String> getSourceNodes(Player player) {
+        final PlayerState state = playerStates.get(player);
+        if (state == null || state.attachment == null) {
+            return Collections.emptyList();
+        }
+
+        if (state.sourceNodes == null) {
+            reindex(player, state);
+        }
+        final List<String> ret = new ArrayList<>(state.sourceNodes.size());
+        for (ConditionalNode node : state.sourceNodes) {
+            ret.add(node.getPermission());
+        }
+        return ret;
+    }
+
+    private static boolean isSourceNode(PermissionAttachmentInfo pa, PermissionAttachment ours) {
+        // Don't apply negative permissions, or nodes which were applied by us as part of a chain
+        return pa.getValue() && pa.getAttachment() != ours && pa.getPermission().startsWith("cperms.");
+    }
+
+    public void refreshPlayer(final Player player, long delay, RefreshCause cause) {
+        pendingRefreshes.increment();
+        scheduler.runLater(player, () -> {
+            pendingRefreshes.decrement();
+            refresh(player, cause);
+        }, pendingRefreshes::decrement, delay);
+    }
+
+    public void refreshPlayer(Player player, RefreshCause cause) {
+        scheduler.execute(player, () -> refresh(player, cause));
+    }
+
+    /**
+     * Refreshes a player. Must be called on the thread which owns the player.
+     *
+     * @param player the player
+     * @param cause the cause of the refresh
+     */
+    private void refresh(Player player, RefreshCause cause) {
+        refreshCounters.get(cause).increment();
+        final long start = System.nanoTime();
+        try {
+            evaluate(player, cause);
+        } finally {
+            final long time = System.nanoTime() - start;
+            refreshLatency.record(time);
+            profiler.recordRefresh(player, cause, time);
+        }
+    }
+
+    private void evaluate(Player player, RefreshCause cause) {
+        if (contextsEnabled) {
+            hookManager.get(LuckPermsHook.class).updateContexts(player);
+        }
+
+        tracer.trace(TraceType.REFRESH, player.getName(), cause);
+        final PlayerState state = playerStates.get(player);
+        if (state == null || state.attachment == null) {
+            tracer.trace(TraceType.NO_ATTACHMENT, player.getName());
+            return;
+        }
+
+        if (state.sourceNodes == null) {
+            reindex(player, state);
+        }
+        recorder.recordRefresh(player, cause);
+
+        if (evaluationPool != null) {
+            refreshAsync(player, state);
+            return;
+        }
+
+        final NodeUsage usage = new NodeUsage();
+        apply(state.attachment, nodeEvaluator.evaluate(player.getName(), state.sourceNodes, usage, leaf -> test(player, leaf)));
+        updateUsage(state, usage);
+    }
 
-                // register that the hook is needed before checking if the condition is met. they might meet the condition at a later time.
-                if (c.isHookNeeded()) {
-                    neededHooks.put(player.getUniqueId(), c.getNeededHook());
+    /**
+     * Evaluates a players nodes on the {@link #evaluationPool}.
+     *
+     * <p>Conditions which aren't thread safe are checked up front on the main thread, along with any chained
+     * nodes, which need the (main thread only) compiler. The rest of the evaluation happens on the pool, against a
+     * {@link PlayerSnapshot} taken on the main thread, and the result is applied back on the main thread, unless the
+     * player has been refreshed again in the meantime.</p>
+     *
+     * <p>Only the main thread checks are included in the condition metrics.</p>
+     *
+     * @param player the player
+     * @param state the players state
+     */
+    private void refreshAsync(Player player, PlayerState state) {
+        final String name = player.getName();
+        final List<ConditionalNode> nodes = state.sourceNodes;
+        final int version = ++state.refreshVersion;
+        final PlayerSnapshot snapshot = PlayerSnapshot.of(player);
+
+        final Map<String, ConditionalNode> chained = nodeEvaluator.resolveChains(nodes);
+        final Map<Expression.Leaf<?>, Boolean> mainThreadResults = new IdentityHashMap<>();
+        final List<ConditionalNode> reachable = new ArrayList<>(nodes);
+        for (ConditionalNode node : chained.values()) {
+            if (node != null) {
+                reachable.add(node);
+            }
+        }
+        for (ConditionalNode node : reachable) {
+            if (nodeEvaluator.getMissingHook(node) != null) continue;
+
+            node.getExpression().forEachLeaf(leaf -> {
+                if (!leaf.getCondition().isThreadSafe() && !mainThreadResults.containsKey(leaf)) {
+                    mainThreadResults.put(leaf, test(player, leaf));
                 }
+            });
+        }
 
-                final boolean shouldApply = c.shouldApply(player, parameter);
-                if (negated == shouldApply) {
-                    debug("Player did not meet the conditions required for this permission to be applied.");
-                    continue;
+        evaluationPool.execute(() -> {
+            final NodeUsage usage = new NodeUsage();
+            final Set<String> result;
+            try {
+                result = nodeEvaluator.evaluate(name, nodes, usage, leaf -> {
+                    final Boolean r = mainThreadResults.get(leaf);
+                    return r != null ? r : leaf.test(snapshot);
+                }, chained::get);
+            } catch (Exception e) {
+                getLogger().log(Level.SEVERE, "Exception thrown whilst evaluating permissions for " + name, e);
+                return;
+            }
+
+            scheduler.execute(player, () -> {
+                if (!player.isOnline() || state.refreshVersion != version || playerStates.get(player) != state) {
+                    return;
                 }
 
-                final String toApply = parts.subList(2, parts.size()).stream().collect(Collectors.joining("."));
-                attachment.setPermission(toApply, true);
-                debug("Applying permission " + pa.getPermission() + " --> " + toApply + " for player " + player.getName() + ".");
+                updateUsage(state, usage);
+                apply(state.attachment, result);
+            });
+        });
+    }
+
+    private void updateUsage(PlayerState state, NodeUsage usage) {
+        state.neededHooks = usage.hooks;
+        conditionListeners.updateParameters(state.parameters, usage.parameters);
+        state.parameters = usage.parameters;
+        if (!usage.conditions.equals(state.conditions)) {
+            conditionListeners.update(state.conditions, usage.conditions);
+            state.conditions = usage.conditions;
+        }
+    }
+
+    /**
+     * Updates an attachment to contain exactly the given permissions, only changing those which differ.
+     *
+     * @param attachment the attachment
+     * @param permissions the permissions which should be set
+     */
+    private void apply(PermissionAttachment attachment, Set<String> permissions) {
+        final Map<String, Boolean> current = attachment.getPermissions();
+        for (String p : current.keySet()) {
+            if (!permissions.contains(p)) {
+                attachment.unsetPermission(p);
+                attachmentRecalculations.increment();
+            }
+        }
+        for (String p : permissions) {
+            if (!current.containsKey(p)) {
+                attachment.setPermission(p, true);
+                attachmentRecalculations.increment();
+            }
+        }
+    }
+
+    private static ExecutorService createEvaluationPool() {
+        try {
+            // use virtual threads when running on Java 21+
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            final int threads = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+            return Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder().setNameFormat("cperms-evaluation-%d").setDaemon(true).build());
+        }
+    }
 
-                work = true;
-                applied.add(pa.getPermission());
+    private boolean test(Player player, Expression.Leaf<?> leaf) {
+        final long start = System.nanoTime();
+        try {
+            return leaf.test(player);
+        } finally {
+            final long time = System.nanoTime() - start;
+            conditionTimers[leaf.getType().ordinal()].record(time);
+            if (profiler.isProfiling()) {
+                profiler.recordCondition(leaf.getType().name().toLowerCase(), leaf.getParameter(), time);
             }
         }
     }
 
-    @Override
     public boolean onCommand(CommandSender sender, Command command, String label, String[] args) {
         if (args.length == 0) {
-            msg(sender, "Running version &bv" + getDescription().getVersion() + "&7.");
+            msg(sender, "Running version &bv" + bootstrap.getDescription().getVersion() + "&7.");
             if (sender.hasPermission("conditionalperms.reload")) {
                 msg(sender, "--> &b/cperms reload&7 to refresh all online users.");
                 msg(sender, "--> &b/cperms reload <username>&7 to refresh a specific user.");
             }
             if (sender.hasPermission("conditionalperms.debug")) {
-                msg(sender, "--> &b/cperms debug&7 to toggle debug mode.");
+                msg(sender, "--> &b/cperms debug&7 to toggle printing trace events to the console.");
+                msg(sender, "--> &b/cperms trace <on|off|clear>&7 to toggle recording trace events.");
+                msg(sender, "--> &b/cperms trace filter <player|condition> <name>&7 to toggle a trace filter.");
+                msg(sender, "--> &b/cperms trace player <username> [count]&7 to view recent trace events for a user.");
+            }
+            if (sender.hasPermission("conditionalperms.stats")) {
+                msg(sender, "--> &b/cperms stats&7 to view refresh and evaluation metrics.");
+            }
+            if (sender.hasPermission("conditionalperms.profile")) {
+                msg(sender, "--> &b/cperms profile <seconds>&7 to find the most expensive players and conditions.");
+            }
+            if (sender.hasPermission("conditionalperms.record")) {
+                msg(sender, "--> &b/cperms record <start|stop>&7 to record events to a file.");
             }
             return true;
         }
@@ -225,12 +678,13 @@ public class ConditionalPerms extends ExtendedJavaPlugin {
                 if (p == null) {
                     msg(sender, "&7Player '" + args[1] + "' is not online.");
                 } else {
-                    refreshPlayer(p);
+                    reindexAndRefresh(p);
                     msg(sender, "&7Player &b" + p.getName() + " &7had their permissions refreshed.");
                 }
             } else {
+                nodeCompiler.invalidate();
                 for (Player p : getServer().getOnlinePlayers()) {
-                    refreshPlayer(p);
+                    reindexAndRefresh(p);
                 }
                 msg(sender, "&7All online users were refreshed.");
             }
@@ -238,8 +692,128 @@ public class ConditionalPerms extends ExtendedJavaPlugin {
         }
 
         if (args[0].equalsIgnoreCase("debug") && sender.hasPermission("conditionalperms.debug")) {
-            debug = !debug;
-            msg(sender, "&7Set debug to &b" + debug + "&7.");
+            tracer.setEcho(!tracer.isEcho());
+            msg(sender, "&7Set debug to &b" + tracer.isEcho() + "&7.");
+            return true;
+        }
+
+        if (args[0].equalsIgnoreCase("trace") && sender.hasPermission("conditionalperms.debug")) {
+            if (args.length < 2) {
+                msg(sender, "&7Tracing is &b" + (tracer.isEnabled() ? "on" : "off") + "&7. Player filter: &b" + tracer.getPlayerFilter() + "&7, condition filter: &b" + tracer.getConditionFilter() + "&7.");
+                return true;
+            }
+
+            if (args[1].equalsIgnoreCase("on") || args[1].equalsIgnoreCase("off")) {
+                tracer.setEnabled(args[1].equalsIgnoreCase("on"));
+                msg(sender, "&7Set tracing to &b" + tracer.isEnabled() + "&7.");
+                return true;
+            }
+
+            if (args[1].equalsIgnoreCase("clear")) {
+                tracer.clear();
+                tracer.getPlayerFilter().clear();
+                tracer.getConditionFilter().clear();
+                msg(sender, "&7Cleared recorded trace events and filters.");
+                return true;
+            }
+
+            // sub-commands and player names are kept in separate positions, so any name can be traced or filtered
+            if (args[1].equalsIgnoreCase("filter")) {
+                if (args.length < 4 || !(args[2].equalsIgnoreCase("player") || args[2].equalsIgnoreCase("condition"))) {
+                    msg(sender, "&7Usage: /cperms trace filter <player|condition> <name>");
+                    return true;
+                }
+                final Set<String> filter = args[2].equalsIgnoreCase("player") ? tracer.getPlayerFilter() : tracer.getConditionFilter();
+                if (filter.remove(args[3])) {
+                    msg(sender, "&7Removed &b" + args[3] + "&7 from the " + args[2].toLowerCase() + " filter.");
+                } else {
+                    filter.add(args[3]);
+                    msg(sender, "&7Added &b" + args[3] + "&7 to the " + args[2].toLowerCase() + " filter.");
+                }
+                return true;
+            }
+
+            if (!args[1].equalsIgnoreCase("player") || args.length < 3) {
+                msg(sender, "&7Usage: /cperms trace <on|off|clear>, /cperms trace filter <player|condition> <name> or /cperms trace player <username> [count]");
+                return true;
+            }
+
+            int count;
+            try {
+                count = args.length > 3 ? Integer.parseInt(args[3]) : 20;
+            } catch (NumberFormatException e) {
+                count = -1;
+            }
+            if (count <= 0) {
+                msg(sender, "&7Invalid number given.");
+                return true;
+            }
+
+            final List<String> events = tracer.dump(args[2], count);
+            if (events.isEmpty()) {
+                msg(sender, "&7No trace events recorded for &b" + args[2] + "&7." + (tracer.isEnabled() ? "" : " Tracing is off, use &b/cperms trace on&7."));
+                return true;
+            }
+            for (String event : events) {
+                msg(sender, "&f" + event);
+            }
+            return true;
+        }
+
+        if (args[0].equalsIgnoreCase("stats") && sender.hasPermission("conditionalperms.stats")) {
+            metrics.report(sender);
+            return true;
+        }
+
+        if (args[0].equalsIgnoreCase("profile") && sender.hasPermission("conditionalperms.profile")) {
+            if (profiler.isProfiling()) {
+                msg(sender, "&7A profile is already being taken.");
+                return true;
+            }
+
+            int seconds;
+            try {
+                seconds = args.length > 1 ? Integer.parseInt(args[1]) : 60;
+            } catch (NumberFormatException e) {
+                seconds = -1;
+            }
+            if (seconds <= 0) {
+                msg(sender, "&7Invalid number given.");
+                return true;
+            }
+
+            profiler.start(sender, seconds * 20);
+            msg(sender, "&7Profiling the next &b" + seconds + "&7 seconds...");
+            return true;
+        }
+
+        if (args[0].equalsIgnoreCase("record") && sender.hasPermission("conditionalperms.record")) {
+            if (args.length > 1 && args[1].equalsIgnoreCase("start")) {
+                if (recorder.isRecording()) {
+                    msg(sender, "&7Already recording to &b" + recorder.getFile().getName() + "&7.");
+                    return true;
+                }
+
+                final File file = new File(new File(getDataFolder(), "recordings"), new SimpleDateFormat("yyyy-MM-dd_HH-mm-ss").format(new Date()) + ".cpr");
+                try {
+                    recorder.start(file);
+                } catch (IOException e) {
+                    getLogger().log(Level.SEVERE, "Exception thrown whilst starting recording", e);
+                    msg(sender, "&7Unable to start recording, see the console for details.");
+                    return true;
+                }
+                msg(sender, "&7Recording to &b" + file.getName() + "&7.");
+            } else if (args.length > 1 && args[1].equalsIgnoreCase("stop")) {
+                if (!recorder.isRecording()) {
+                    msg(sender, "&7Not currently recording.");
+                    return true;
+                }
+
+                msg(sender, "&7Stopped recording, finishing &b" + recorder.getFile().getName() + "&7...");
+                recorder.stop(sender);
+            } else {
+                msg(sender, "&7Usage: /cperms record <start|stop>");
+            }
             return true;
         }
 
@@ -247,7 +821,7 @@ public class ConditionalPerms extends ExtendedJavaPlugin {
         return true;
     }
 
-    private static void msg(CommandSender sender, String message) {
+    public static void msg(CommandSender sender, String message) {
         sender.sendMessage(ChatColor.translateAlternateColorCodes('&', "&8&l[&fConditionalPerms&8&l] &7" + message));
     }
 
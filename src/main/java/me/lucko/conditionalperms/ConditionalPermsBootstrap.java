@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2017 Lucko (Luck) <luck@lucko.me>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.conditionalperms;
+
+import me.lucko.conditionalperms.scheduler.TaskScheduler;
+import me.lucko.helper.plugin.ExtendedJavaPlugin;
+
+import org.bukkit.command.Command;
+import org.bukkit.command.CommandSender;
+
+/**
+ * The class loaded by Bukkit, which starts {@link ConditionalPerms} when the plugin is enabled.
+ */
+public class ConditionalPermsBootstrap extends ExtendedJavaPlugin {
+    private ConditionalPerms plugin = null;
+
+    @Override
+    public void enable() {
+        plugin = new ConditionalPerms(this, TaskScheduler.create());
+        plugin.enable();
+    }
+
+    @Override
+    public void disable() {
+        if (plugin != null) {
+            plugin.disable();
+            plugin = null;
+        }
+    }
+
+    @Override
+    public boolean onCommand(CommandSender sender, Command command, String label, String[] args) {
+        return plugin != null && plugin.onCommand(sender, command, label, args);
+    }
+}
@@ -0,0 +1,244 @@
+/*
+ * Copyright (c) 2017 Lucko (Luck) <luck@lucko.me>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+
+package me.lucko.conditionalperms;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import me.lucko.conditionalperms.conditions.AbstractCondition;
+
+import org.bukkit.entity.Player;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * The compiled condition part of a {@link ConditionalNode}, e.g. in_world=pvp&!in_combat.
+ *
+ * <p>Negations are pushed down to the conditions when the expression is built, so an expression is a tree of
+ * {@link And} and {@link Or} groups over (possibly negated) {@link Leaf} conditions. The children of each group are
+ * ordered cheapest first, and evaluation stops as soon as the result is known.</p>
+ */
+abstract class Expression {
+
+    /**
+     * Evaluates the expression.
+     *
+     * @param test the test used to check each condition
+     * @return the result
+     */
+    abstract boolean evaluate(Predicate<Leaf<?>> test);
+
+    /**
+     * Gets the estimated cost of evaluating the whole expression, see {@link AbstractCondition#getCost()}.
+     *
+     * @return the cost
+     */
+    abstract int getCost();
+
+    /**
+     * Gets the inverse of this expression.
+     *
+     * @return the inverse
+     */
+    abstract Expression negate();
+
+    /**
+     * Calls the action for each condition in this expression.
+     *
+     * @param action the action
+     */
+    abstract void forEachLeaf(Consumer<Leaf<?>> action);
+
+    static Expression and(List<Expression> children) {
+        return group(children, true);
+    }
+
+    static Expression or(List<Expression> children) {
+        return group(children, false);
+    }
+
+    private static Expression group(List<Expression> children, boolean and) {
+        // flatten nested groups of the same type, e.g. a&(b&c) -> a&b&c
+        final List<Expression> flat = new ArrayList<>();
+        for (Expression child : children) {
+            if (and ? child instanceof And : child instanceof Or) {
+                for (Expression c : ((Group) child).children) {
+                    flat.add(c);
+                }
+            } else {
+                flat.add(child);
+            }
+        }
+
+        if (flat.size() == 1) {
+            return flat.get(0);
+        }
+
+        flat.sort(Comparator.comparingInt(Expression::getCost));
+        final Expression[] array = flat.toArray(new Expression[0]);
+        return and ? new And(array) : new Or(array);
+    }
+
+    /**
+     * A single condition.
+     *
+     * @param <T> the type of the condition's parameter
+     */
+    @Getter
+    @AllArgsConstructor(access = AccessLevel.PRIVATE)
+    static final class Leaf<T> extends Expression {
+
+        static <T> Leaf<T> create(Condition type, AbstractCondition<T> condition, boolean negated, String parameter) {
+            return new Leaf<>(type, condition, negated, condition.parseParameter(parameter));
+        }
+
+        private final Condition type;
+        private final AbstractCondition<T> condition;
+        private final boolean negated;
+        private final T parameter;
+
+        /**
+         * Checks the condition against the player.
+         *
+         * @param player the player
+         * @return true if the condition is met (or not met, if it is negated)
+         */
+        boolean test(Player player) {
+            return condition.shouldApply(player, parameter) != negated;
+        }
+
+        /**
+         * Checks the condition against a snapshot of the player, see {@link AbstractCondition#isThreadSafe()}.
+         *
+         * @param snapshot the snapshot of the player
+         * @return true if the condition is met (or not met, if it is negated)
+         */
+        boolean test(PlayerSnapshot snapshot) {
+            return condition.shouldApply(snapshot, parameter) != negated;
+        }
+
+        @Override
+        boolean evaluate(Predicate<Leaf<?>> test) {
+            return test.test(this);
+        }
+
+        @Override
+        int getCost() {
+            return condition.getCost();
+        }
+
+        @Override
+        Expression negate() {
+            return new Leaf<>(type, condition, !negated, parameter);
+        }
+
+        @Override
+        void forEachLeaf(Consumer<Leaf<?>> action) {
+            action.accept(this);
+        }
+    }
+
+    private abstract static class Group extends Expression {
+        final Expression[] children;
+        private final int cost;
+
+        Group(Expression[] children) {
+            this.children = children;
+            int cost = 0;
+            for (Expression child : children) {
+                cost += child.getCost();
+            }
+            this.cost = cost;
+        }
+
+        @Override
+        int getCost() {
+            return cost;
+        }
+
+        Expression[] negateChildren() {
+            final Expression[] ret = new Expression[children.length];
+            for (int i = 0; i < children.length; i++) {
+                ret[i] = children[i].negate();
+            }
+            return ret;
+        }
+
+        @Override
+        void forEachLeaf(Consumer<Leaf<?>> action) {
+            for (Expression child : children) {
+                child.forEachLeaf(action);
+            }
+        }
+    }
+
+    private static final class And extends Group {
+        And(Expression[] children) {
+            super(children);
+        }
+
+        @Override
+        boolean evaluate(Predicate<Leaf<?>> test) {
+            for (Expression child : children) {
+                if (!child.evaluate(test)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        Expression negate() {
+            // !(a&b) -> !a|!b
+            return new Or(negateChildren());
+        }
+    }
+
+    private static final class Or extends Group {
+        Or(Expression[] children) {
+            super(children);
+        }
+
+        @Override
+        boolean evaluate(Predicate<Leaf<?>> test) {
+            for (Expression child : children) {
+                if (child.evaluate(test)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        Expression negate() {
+            // !(a|b) -> !a&!b
+            return new And(negateChildren());
+        }
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) 2017 Lucko (Luck) <luck@lucko.me>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+
+package me.lucko.conditionalperms;
+
+import lombok.Getter;
+
+import me.lucko.conditionalperms.scheduler.TaskScheduler;
+import me.lucko.helper.Events;
+import me.lucko.helper.terminable.Terminable;
+import me.lucko.helper.terminable.TerminableConsumer;
+import me.lucko.helper.terminable.module.TerminableModule;
+
+import org.bukkit.Location;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.player.PlayerChangedWorldEvent;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerMoveEvent;
+import org.bukkit.event.player.PlayerTeleportEvent;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Tells the WorldGuard, Towny and Factions hooks when players move to another block.
+ *
+ * <p>In {@link Mode#EVENT} mode, every move event is passed on. In {@link Mode#INTERVAL} mode, the position of
+ * each player is instead sampled once every {@link #getInterval()} ticks, with players spread over the interval by
+ * their slot, so only a slice of the online players are sampled on each tick. Teleports and world changes are
+ * passed on straight away in both modes.</p>
+ */
+public final class MovementTracker implements TerminableModule {
+
+    public enum Mode {
+        EVENT, INTERVAL
+    }
+
+    @FunctionalInterface
+    public interface Handler {
+
+        /**
+         * Called on the thread which owns the player when they move to another block, or another world.
+         *
+         * @param player the player
+         * @param state the players state
+         * @param from where the player was when they last moved
+         * @param to where the player is now
+         */
+        void onMove(Player player, PlayerState state, Location from, Location to);
+    }
+
+    private final PlayerStates playerStates;
+    private final TaskScheduler scheduler;
+
+    @Getter
+    private final Mode mode;
+
+    @Getter
+    private final int interval;
+
+    private final List<Handler> handlers = new CopyOnWriteArrayList<>();
+
+    private long tick = 0;
+
+    MovementTracker(PlayerStates playerStates, TaskScheduler scheduler, Mode mode, int interval) {
+        this.playerStates = playerStates;
+        this.scheduler = scheduler;
+        this.mode = mode;
+        this.interval = Math.max(1, interval);
+    }
+
+    /**
+     * Registers a handler to be told about moves.
+     *
+     * @param handler the handler
+     * @return a terminable which unregisters the handler
+     */
+    public Terminable subscribe(Handler handler) {
+        handlers.add(handler);
+        return () -> handlers.remove(handler);
+    }
+
+    @Override
+    public void setup(TerminableConsumer consumer) {
+        Events.subscribe(PlayerJoinEvent.class, EventPriority.MONITOR)
+                .handler(e -> {
+                    final PlayerState state = playerStates.get(e.getPlayer());
+                    if (state != null) {
+                        state.lastLocation = e.getPlayer().getLocation();
+                    }
+                })
+                .bindWith(consumer);
+
+        if (mode == Mode.EVENT) {
+            Events.subscribe(PlayerMoveEvent.class, EventPriority.MONITOR)
+                    .filter(e -> !e.isCancelled() && !handlers.isEmpty())
+                    .handler(e -> update(e.getPlayer(), e.getTo()))
+                    .bindWith(consumer);
+        } else {
+            scheduler.runRepeating(this::sampleSlice, 1L, 1L).bindWith(consumer);
+        }
+
+        // teleports don't fire move events, and aren't worth waiting for the next sample.
+        // the player is only moved once the event has been handled, so check on the next tick
+        Events.subscribe(PlayerTeleportEvent.class, EventPriority.MONITOR)
+                .filter(e -> !e.isCancelled() && !handlers.isEmpty())
+                .handler(e -> {
+                    final Player player = e.getPlayer();
+                    scheduler.runLater(player, () -> update(player, player.getLocation()), 1L);
+                })
+                .bindWith(consumer);
+
+        // respawning in another world isn't a teleport
+        Events.subscribe(PlayerChangedWorldEvent.class, EventPriority.MONITOR)
+                .filter(e -> !handlers.isEmpty())
+                .handler(e -> update(e.getPlayer(), e.getPlayer().getLocation()))
+                .bindWith(consumer);
+    }
+
+    /**
+     * Samples the players in this ticks slice of the interval.
+     */
+    void sampleSlice() {
+        final int phase = (int) (tick++ % interval);
+        if (handlers.isEmpty()) {
+            return;
+        }
+
+        for (int slot = phase; slot < playerStates.getSlotCount(); slot += interval) {
+            final PlayerState state = playerStates.get(slot);
+            if (state == null) {
+                continue;
+            }
+
+            final Player player = state.getPlayer();
+            scheduler.execute(player, () -> update(player, player.getLocation()));
+        }
+    }
+
+    /**
+     * Passes a move on to the handlers, if the player is now in another block.
+     *
+     * @param player the player
+     * @param to where the player is now
+     */
+    void update(Player player, Location to) {
+        final PlayerState state = playerStates.get(player);
+        if (state == null) {
+            return;
+        }
+
+        final Location from = state.lastLocation;
+        if (from != null &&
+                from.getBlockX() == to.getBlockX() &&
+                from.getBlockY() == to.getBlockY() &&
+                from.getBlockZ() == to.getBlockZ() &&
+                from.getWorld().equals(to.getWorld())) {
+            return;
+        }
+
+        state.lastLocation = to;
+        if (from == null) {
+            return;
+        }
+
+        for (Handler handler : handlers) {
+            handler.onMove(player, state, from, to);
+        }
+    }
+}
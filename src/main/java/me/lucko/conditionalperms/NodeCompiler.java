@@ -0,0 +1,231 @@
+/*
+ * Copyright (c) 2017 Lucko (Luck) <luck@lucko.me>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+
+package me.lucko.conditionalperms;
+
+import lombok.RequiredArgsConstructor;
+
+import com.google.common.base.CharMatcher;
+import com.google.common.base.Splitter;
+
+import me.lucko.conditionalperms.hooks.AbstractHook;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Parses conditional permission nodes into {@link ConditionalNode}s.
+ *
+ * <p>Results are cached, so each distinct node is only parsed once, and invalid nodes are only reported once.</p>
+ */
+@RequiredArgsConstructor
+class NodeCompiler {
+    private static final Splitter DOT_SPLIT = Splitter.on('.').omitEmptyStrings().trimResults();
+
+    /**
+     * Characters which only appear in expressions, never in a single condition or its parameter.
+     */
+    private static final CharMatcher EXPRESSION_CHARS = CharMatcher.anyOf("()&|");
+    private static final Splitter EQUALS_SPLIT = Splitter.on('=').omitEmptyStrings().trimResults().limit(2);
+
+    private final ConditionalPerms plugin;
+
+    /**
+     * If the compiler is used for the nodes players have been given. Invalid nodes are logged, and the hooks
+     * needed by each node are loaded. Disabled for nodes we generate ourselves, so they have no side effects.
+     */
+    private final boolean live;
+
+    private final Map<String, ConditionalNode> nodes = new ConcurrentHashMap<>();
+    private final Set<String> invalid = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Gets the compiled form of a conditional permission node.
+     *
+     * @param permission the node, starting with "cperms."
+     * @return the compiled node, or null if the node is invalid
+     */
+    public ConditionalNode compile(String permission) {
+        ConditionalNode node = nodes.get(permission);
+        if (node != null || invalid.contains(permission)) {
+            return node;
+        }
+
+        try {
+            node = parse(permission);
+        } catch (IllegalArgumentException e) {
+            if (live) {
+                plugin.getLogger().warning("Invalid conditional permission '" + permission + "': " + e.getMessage());
+            }
+            invalid.add(permission);
+            return null;
+        }
+
+        // hooks are only created once a node needs them
+        if (live) {
+            for (Class<? extends AbstractHook> hook : node.getNeededHooks()) {
+                plugin.getHookManager().load(hook);
+            }
+        }
+
+        nodes.put(permission, node);
+        return node;
+    }
+
+    /**
+     * Clears the cache, so that all nodes are parsed (and reported) again.
+     */
+    public void invalidate() {
+        nodes.clear();
+        invalid.clear();
+    }
+
+    /**
+     * Parses a node, without using the cache.
+     *
+     * @param permission the node
+     * @return the parsed node
+     * @throws IllegalArgumentException if the node is invalid
+     */
+    static ConditionalNode parse(String permission) throws IllegalArgumentException {
+        final List<String> parts = DOT_SPLIT.splitToList(permission);
+        if (parts.size() <= 2) {
+            throw new IllegalArgumentException("node does not contain a permission to apply");
+        }
+
+        // anything with brackets or operators is an expression, including ones like !!(a|b) or a|b
+        final String conditionPart = parts.get(1);
+        final Expression expression = EXPRESSION_CHARS.matchesAnyOf(conditionPart)
+                ? new ExpressionParser(conditionPart).parse()
+                : parseCondition(conditionPart);
+
+        final String toApply = String.join(".", parts.subList(2, parts.size()));
+        return ConditionalNode.create(permission, expression, toApply);
+    }
+
+    /**
+     * Parses a single condition, e.g. !in_world=world_nether
+     *
+     * @param conditionPart the condition
+     * @return the parsed condition
+     * @throws IllegalArgumentException if the condition is invalid
+     */
+    private static Expression.Leaf<?> parseCondition(String conditionPart) throws IllegalArgumentException {
+        boolean negated = conditionPart.startsWith("!");
+        if (negated) {
+            conditionPart = conditionPart.substring(1);
+        }
+
+        String parameter = null;
+        if (conditionPart.contains("=")) {
+            final List<String> parameterSplit = EQUALS_SPLIT.splitToList(conditionPart);
+            conditionPart = parameterSplit.get(0);
+            parameter = parameterSplit.size() > 1 ? parameterSplit.get(1) : null;
+        }
+
+        final Condition condition = Condition.getByName(conditionPart);
+        if (condition == null) {
+            throw new IllegalArgumentException("could not find a condition that matches " + conditionPart);
+        }
+
+        if (condition.getCondition().isParameterNeeded() && parameter == null) {
+            throw new IllegalArgumentException("condition " + condition.name() + " requires a parameter, but one was not given");
+        }
+
+        return Expression.Leaf.create(condition, condition.getCondition(), negated, parameter);
+    }
+
+    /**
+     * Parses a boolean expression over conditions, e.g. (in_world=pvp&!(in_combat|is_flying))
+     *
+     * <p>&amp; binds tighter than |, and ! applies to the condition or bracketed group which follows it.</p>
+     */
+    private static final class ExpressionParser {
+        private final String input;
+        private int pos = 0;
+
+        private ExpressionParser(String input) {
+            this.input = input;
+        }
+
+        Expression parse() {
+            final Expression expression = parseOr();
+            if (pos != input.length()) {
+                throw new IllegalArgumentException("unexpected '" + input.charAt(pos) + "' at position " + pos + " of expression " + input);
+            }
+            return expression;
+        }
+
+        private Expression parseOr() {
+            final List<Expression> children = new ArrayList<>();
+            children.add(parseAnd());
+            while (accept('|')) {
+                children.add(parseAnd());
+            }
+            return Expression.or(children);
+        }
+
+        private Expression parseAnd() {
+            final List<Expression> children = new ArrayList<>();
+            children.add(parseUnary());
+            while (accept('&')) {
+                children.add(parseUnary());
+            }
+            return Expression.and(children);
+        }
+
+        private Expression parseUnary() {
+            if (accept('!')) {
+                return parseUnary().negate();
+            }
+
+            if (accept('(')) {
+                final Expression expression = parseOr();
+                if (!accept(')')) {
+                    throw new IllegalArgumentException("missing ')' at position " + pos + " of expression " + input);
+                }
+                return expression;
+            }
+
+            final int start = pos;
+            while (pos < input.length() && "()&|".indexOf(input.charAt(pos)) == -1) {
+                pos++;
+            }
+            if (start == pos) {
+                throw new IllegalArgumentException("expected a condition at position " + pos + " of expression " + input);
+            }
+            return parseCondition(input.substring(start, pos));
+        }
+
+        private boolean accept(char c) {
+            if (pos < input.length() && input.charAt(pos) == c) {
+                pos++;
+                return true;
+            }
+            return false;
+        }
+    }
+}
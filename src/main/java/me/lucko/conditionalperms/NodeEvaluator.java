@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) 2017 Lucko (Luck) <luck@lucko.me>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+
+package me.lucko.conditionalperms;
+
+import lombok.RequiredArgsConstructor;
+
+import me.lucko.conditionalperms.hooks.AbstractHook;
+import me.lucko.conditionalperms.trace.TraceType;
+import me.lucko.conditionalperms.trace.Tracer;
+
+import org.bukkit.entity.Player;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Works out which permissions should be applied to a player, given their conditional nodes.
+ *
+ * <p>This doesn't touch the players permission attachment, so it can also be used to test and benchmark
+ * evaluation in isolation.</p>
+ */
+@RequiredArgsConstructor
+class NodeEvaluator {
+    private final NodeCompiler compiler;
+    private final Supplier<Tracer> tracer;
+
+    /**
+     * Gets if a hook is present, so the conditions which need it can be checked.
+     */
+    private final Predicate<Class<? extends AbstractHook>> hooked;
+
+    /**
+     * Evaluates a players conditional nodes.
+     *
+     * <p>Nodes applied by another node are queued up and evaluated in turn, so you can chain permissions together.</p>
+     *
+     * @param player the player
+     * @param nodes the conditional nodes given to the player
+     * @param usage records the hooks and conditions used by the nodes, or null
+     * @return the permissions which should be applied
+     */
+    public Set<String> evaluate(Player player, List<ConditionalNode> nodes, NodeUsage usage) {
+        return evaluate(player.getName(), nodes, usage, leaf -> leaf.test(player));
+    }
+
+    /**
+     * Evaluates a set of conditional nodes, using the given test to check each condition.
+     *
+     * @param name the name of the player, for tracing
+     * @param nodes the conditional nodes given to the player
+     * @param usage records the hooks and conditions used by the nodes, or null
+     * @param test the test
+     * @return the permissions which should be applied
+     * @see #evaluate(Player, List, NodeUsage)
+     */
+    public Set<String> evaluate(String name, List<ConditionalNode> nodes, NodeUsage usage, Predicate<Expression.Leaf<?>> test) {
+        return evaluate(name, nodes, usage, test, compiler::compile);
+    }
+
+    /**
+     * Evaluates a set of conditional nodes, using the given function to look up chained nodes.
+     *
+     * <p>The {@link NodeCompiler} can only be used on the main thread, so evaluation off the main thread has to
+     * look up chained nodes from the result of {@link #resolveChains(List)}.</p>
+     *
+     * @param name the name of the player, for tracing
+     * @param nodes the conditional nodes given to the player
+     * @param usage records the hooks and conditions used by the nodes, or null
+     * @param test the test
+     * @param resolver the function used to look up chained nodes, returning null if a node is invalid
+     * @return the permissions which should be applied
+     */
+    public Set<String> evaluate(String name, List<ConditionalNode> nodes, NodeUsage usage, Predicate<Expression.Leaf<?>> test, Function<String, ConditionalNode> resolver) {
+        final Tracer tracer = this.tracer.get();
+        final Set<String> toApply = new LinkedHashSet<>();
+
+        final Deque<ConditionalNode> queue = new ArrayDeque<>(nodes);
+        final Set<String> processed = new HashSet<>();
+        while (!queue.isEmpty()) {
+            final ConditionalNode node = queue.poll();
+
+            // don't re-apply permissions
+            if (!processed.add(node.getPermission())) continue;
+
+            tracer.trace(TraceType.PROCESS, name, node.getConditionNames(), node.getPermission(), null);
+
+            final Class<? extends AbstractHook> missingHook = getMissingHook(node);
+            if (missingHook != null) {
+                tracer.trace(TraceType.MISSING_HOOK, name, node.getConditionNames(), node.getPermission(), missingHook);
+                continue;
+            }
+
+            // register that the hooks are needed before checking if the condition is met. they might meet the condition at a later time.
+            if (usage != null) {
+                usage.add(node);
+            }
+
+            if (!node.test(test)) {
+                tracer.trace(TraceType.NOT_MET, name, node.getConditionNames(), node.getPermission(), null);
+                continue;
+            }
+
+            toApply.add(node.getToApply());
+            tracer.trace(TraceType.APPLY, name, node.getConditionNames(), node.getPermission(), node.getToApply());
+
+            if (node.getToApply().startsWith("cperms.")) {
+                final ConditionalNode chained = resolver.apply(node.getToApply());
+                if (chained != null) {
+                    queue.add(chained);
+                }
+            }
+        }
+
+        return toApply;
+    }
+
+    /**
+     * Compiles every node which could be reached by chaining from the given nodes.
+     *
+     * @param nodes the nodes
+     * @return the chained nodes, by permission
+     */
+    public Map<String, ConditionalNode> resolveChains(List<ConditionalNode> nodes) {
+        final Map<String, ConditionalNode> ret = new HashMap<>();
+        final Deque<ConditionalNode> queue = new ArrayDeque<>(nodes);
+        while (!queue.isEmpty()) {
+            final String toApply = queue.poll().getToApply();
+            if (!toApply.startsWith("cperms.") || ret.containsKey(toApply)) continue;
+
+            final ConditionalNode chained = compiler.compile(toApply);
+            ret.put(toApply, chained);
+            if (chained != null) {
+                queue.add(chained);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Gets the first hook needed by a node which isn't hooked.
+     *
+     * @param node the node
+     * @return the hook, or null if all of the hooks needed are present
+     */
+    Class<? extends AbstractHook> getMissingHook(ConditionalNode node) {
+        for (Class<? extends AbstractHook> hook : node.getNeededHooks()) {
+            if (!hooked.test(hook)) {
+                return hook;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) 2017 Lucko (Luck) <luck@lucko.me>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+
+package me.lucko.conditionalperms;
+
+import me.lucko.conditionalperms.conditions.AbstractCondition;
+import me.lucko.conditionalperms.hooks.AbstractHook;
+
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The hooks and conditions used by the nodes visited while evaluating a player, see {@link NodeEvaluator}.
+ *
+ * <p>These are recorded whether or not the nodes were applied, as the player might meet their conditions
+ * later on.</p>
+ */
+final class NodeUsage {
+    final Set<Class<? extends AbstractHook>> hooks = new HashSet<>();
+    final Set<Condition> conditions = EnumSet.noneOf(Condition.class);
+
+    // the parameters each condition is used with. conditions without a parameter map to a set containing null.
+    final Map<AbstractCondition<?>, Set<Object>> parameters = new IdentityHashMap<>();
+
+    void add(ConditionalNode node) {
+        hooks.addAll(node.getNeededHooks());
+        conditions.addAll(node.getConditions());
+        node.getExpression().forEachLeaf(leaf -> parameters.computeIfAbsent(leaf.getCondition(), c -> new HashSet<>()).add(leaf.getParameter()));
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2017 Lucko (Luck) <luck@lucko.me>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+
+package me.lucko.conditionalperms;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import org.bukkit.GameMode;
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+
+/**
+ * The parts of a player which thread safe conditions read, copied on the thread which owns the player.
+ *
+ * <p>CraftBukkit players and worlds aren't safe to read from other threads, so evaluations on the evaluation pool
+ * check conditions against one of these instead. See {@link me.lucko.conditionalperms.conditions.AbstractCondition#shouldApply(PlayerSnapshot, Object)}.</p>
+ */
+@Getter
+@RequiredArgsConstructor(access = AccessLevel.PACKAGE)
+public final class PlayerSnapshot {
+
+    /**
+     * Takes a snapshot of a player. Must be called on the thread which owns the player.
+     *
+     * @param player the player
+     * @return the snapshot
+     */
+    public static PlayerSnapshot of(Player player) {
+        final World world = player.getWorld();
+        return new PlayerSnapshot(player, world.getName(), world.getTime(), player.getGameMode(), player.isFlying());
+    }
+
+    /**
+     * The player. Only the unique id should be read from this, e.g. to look up the players {@link PlayerState}.
+     */
+    private final Player player;
+
+    private final String worldName;
+
+    /**
+     * The time of day in the players world, in ticks.
+     */
+    private final long worldTime;
+
+    private final GameMode gameMode;
+
+    private final boolean flying;
+}
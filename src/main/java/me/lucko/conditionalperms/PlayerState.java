@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) 2017 Lucko (Luck) <luck@lucko.me>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+
+package me.lucko.conditionalperms;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.Setter;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSetMultimap;
+
+import me.lucko.conditionalperms.conditions.AbstractCondition;
+import me.lucko.conditionalperms.hooks.AbstractHook;
+import me.lucko.conditionalperms.hooks.impl.WorldGuardHook;
+import me.lucko.conditionalperms.utils.FactionsRegion;
+import me.lucko.conditionalperms.utils.SafeRadius;
+import me.lucko.conditionalperms.utils.TownyRegion;
+
+import org.bukkit.Location;
+import org.bukkit.entity.Player;
+import org.bukkit.permissions.PermissionAttachment;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Everything we keep about an online player, in one place. Created when the player logs in, and thrown away as
+ * a whole when they quit. See {@link PlayerStates}.
+ *
+ * <p>State is written on the thread which owns the player. Fields which are also read from other threads (the
+ * evaluation pool, or metrics sampling) are volatile, and are replaced rather than modified.</p>
+ */
+@Getter
+@RequiredArgsConstructor(access = AccessLevel.PACKAGE)
+public final class PlayerState {
+
+    /**
+     * A small index, unique amongst the online players. Slots are reused once a player quits.
+     */
+    private final int slot;
+
+    private final Player player;
+
+    @Getter(AccessLevel.NONE)
+    volatile PermissionAttachment attachment = null;
+
+    /**
+     * A hash of the conditional nodes the player had when they were last loaded by their permission plugin, or
+     * null if they haven't been indexed yet.
+     */
+    @Getter(AccessLevel.NONE)
+    volatile Long fingerprint = null;
+
+    /**
+     * The conditional nodes given to the player by other plugins. Rebuilt by
+     * {@link ConditionalPerms#handlePermissionDataReady(Player)} whenever they change.
+     */
+    @Getter(AccessLevel.NONE)
+    volatile List<ConditionalNode> sourceNodes = null;
+
+    /**
+     * Incremented whenever the player is refreshed, so results from older refreshes can be discarded.
+     */
+    @Getter(AccessLevel.NONE)
+    volatile int refreshVersion = 0;
+
+    /**
+     * The hooks needed by the players nodes, as of their last refresh.
+     */
+    @Getter(AccessLevel.NONE)
+    volatile Set<Class<? extends AbstractHook>> neededHooks = ImmutableSet.of();
+
+    /**
+     * The conditions used by the players nodes, as of their last refresh. See {@link ConditionListeners}.
+     */
+    @Getter(AccessLevel.NONE)
+    Set<Condition> conditions = ImmutableSet.of();
+
+    /**
+     * The parameters each condition is used with by the players nodes, as of their last refresh.
+     */
+    @Getter(AccessLevel.NONE)
+    volatile Map<AbstractCondition<?>, Set<Object>> parameters = Collections.emptyMap();
+
+    /**
+     * The block the player was last seen in by the {@link MovementTracker}.
+     */
+    @Getter(AccessLevel.NONE)
+    Location lastLocation = null;
+
+    /**
+     * The WorldGuard regions the player is in, or null if they aren't being tracked.
+     */
+    @Setter
+    private volatile ImmutableSet<String> worldGuardRegions = null;
+
+    /**
+     * Where the WorldGuard regions can be reused without querying again.
+     */
+    private final SafeRadius worldGuardSafeRadius = new SafeRadius();
+
+    /**
+     * The regions found by the last search for nearby region boundaries, or null if there hasn't been one.
+     */
+    @Setter
+    private WorldGuardHook.NearbyRegions worldGuardNearbyRegions = null;
+
+    @Setter
+    private volatile TownyRegion townyRegion = null;
+
+    /**
+     * Where the Towny status can be reused without reading it again.
+     */
+    private final SafeRadius townySafeRadius = new SafeRadius();
+
+    @Setter
+    private volatile FactionsRegion factionsRegion = null;
+
+    @Setter
+    private volatile boolean combatTagged = false;
+
+    @Setter
+    private volatile boolean vanished = false;
+
+    /**
+     * The LuckPerms context values of the player, by key, as of their last refresh. Read by LuckPerms on its own
+     * threads, see {@link me.lucko.conditionalperms.hooks.impl.LuckPermsHook#updateContexts(Player)}.
+     */
+    @Setter
+    private volatile ImmutableSetMultimap<String, String> contexts = ImmutableSetMultimap.of();
+
+    /**
+     * Gets if any of the players nodes need the given hook.
+     *
+     * @param hook the hook
+     * @return true if the hook is needed
+     */
+    public boolean isHookNeeded(Class<? extends AbstractHook> hook) {
+        return neededHooks.contains(hook);
+    }
+
+    /**
+     * Gets if any of the players nodes use the given condition.
+     *
+     * @param condition the condition
+     * @return true if the condition is used
+     */
+    public boolean isInterested(AbstractCondition<?> condition) {
+        return parameters.containsKey(condition);
+    }
+
+    /**
+     * Gets if any of the players nodes use the given condition with the given parameter.
+     *
+     * @param condition the condition
+     * @param parameter the parsed parameter
+     * @return true if the condition is used with the parameter
+     */
+    public boolean isInterested(AbstractCondition<?> condition, Object parameter) {
+        final Set<Object> used = parameters.get(condition);
+        return used != null && used.contains(parameter);
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2017 Lucko (Luck) <luck@lucko.me>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+
+package me.lucko.conditionalperms;
+
+import org.bukkit.entity.Player;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Holds the {@link PlayerState} of each online player.
+ *
+ * <p>States are kept in an array indexed by their slot, which is always the lowest free one, so the array stays
+ * about as long as the number of online players. Logins and quits copy the array, which means sweeps over every
+ * player can read it without locking.</p>
+ */
+public final class PlayerStates {
+    private static final PlayerState[] EMPTY = new PlayerState[0];
+
+    private final Map<UUID, PlayerState> byUniqueId = new ConcurrentHashMap<>();
+    private final BitSet used = new BitSet();
+    private volatile PlayerState[] states = EMPTY;
+
+    synchronized PlayerState create(Player player) {
+        final PlayerState existing = byUniqueId.get(player.getUniqueId());
+        if (existing != null) {
+            return existing;
+        }
+
+        final int slot = used.nextClearBit(0);
+        used.set(slot);
+
+        final PlayerState state = new PlayerState(slot, player);
+        final PlayerState[] states = Arrays.copyOf(this.states, Math.max(this.states.length, slot + 1));
+        states[slot] = state;
+        this.states = states;
+        byUniqueId.put(player.getUniqueId(), state);
+        return state;
+    }
+
+    synchronized PlayerState remove(UUID uuid) {
+        final PlayerState state = byUniqueId.remove(uuid);
+        if (state == null) {
+            return null;
+        }
+
+        used.clear(state.getSlot());
+        final PlayerState[] states = Arrays.copyOf(this.states, used.length());
+        if (state.getSlot() < states.length) {
+            states[state.getSlot()] = null;
+        }
+        this.states = states;
+        return state;
+    }
+
+    /**
+     * Gets the state of a player.
+     *
+     * @param player the player
+     * @return the state, or null if the player isn't online
+     */
+    public PlayerState get(Player player) {
+        return byUniqueId.get(player.getUniqueId());
+    }
+
+    /**
+     * Gets the state of a player by their unique id. Safe to call from any thread.
+     *
+     * @param uniqueId the unique id of the player
+     * @return the state, or null if the player isn't online
+     */
+    public PlayerState get(UUID uniqueId) {
+        return byUniqueId.get(uniqueId);
+    }
+
+    /**
+     * Gets the state in a slot.
+     *
+     * @param slot the slot
+     * @return the state, or null if the slot is free
+     */
+    public PlayerState get(int slot) {
+        final PlayerState[] states = this.states;
+        return slot < states.length ? states[slot] : null;
+    }
+
+    /**
+     * Gets one more than the highest slot in use.
+     *
+     * @return the slot count
+     */
+    public int getSlotCount() {
+        return states.length;
+    }
+
+    public void forEach(Consumer<PlayerState> action) {
+        for (PlayerState state : states) {
+            if (state != null) {
+                action.accept(state);
+            }
+        }
+    }
+
+    public int count(Predicate<PlayerState> predicate) {
+        int count = 0;
+        for (PlayerState state : states) {
+            if (state != null && predicate.test(state)) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -27,13 +27,23 @@ import lombok.Getter;
 import lombok.RequiredArgsConstructor;
 
 import me.lucko.conditionalperms.ConditionalPerms;
+import me.lucko.conditionalperms.PlayerSnapshot;
+import me.lucko.conditionalperms.PlayerState;
 import me.lucko.conditionalperms.hooks.AbstractHook;
 
 import me.lucko.helper.terminable.module.TerminableModule;
 import org.bukkit.entity.Player;
 
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * A condition which can be used in a conditional permission node.
+ *
+ * @param <T> the type of the parsed parameter
+ */
 @RequiredArgsConstructor
-public abstract class AbstractCondition implements TerminableModule {
+public abstract class AbstractCondition<T> implements TerminableModule {
 
     @Getter(AccessLevel.PROTECTED)
     private ConditionalPerms plugin = null;
@@ -53,10 +63,147 @@ public abstract class AbstractCondition implements TerminableModule {
         this.plugin = plugin;
     }
 
-    public abstract boolean shouldApply(Player player, String parameter);
+    /**
+     * Parses the raw parameter from a node into the form passed to {@link #shouldApply(Player, Object)}.
+     *
+     * <p>This is only called once for each distinct node, so any validation or normalisation of the parameter
+     * should be done here, and not when the condition is checked.</p>
+     *
+     * @param parameter the raw parameter, or null if one was not given
+     * @return the parsed parameter
+     * @throws IllegalArgumentException if the parameter is invalid
+     */
+    public T parseParameter(String parameter) throws IllegalArgumentException {
+        return null;
+    }
+
+    public abstract boolean shouldApply(Player player, T parameter);
+
+    /**
+     * Checks the condition against a snapshot of the player. This is used instead of
+     * {@link #shouldApply(Player, Object)} when evaluating off the main thread, and is only called for
+     * {@link #isThreadSafe() thread safe} conditions.
+     *
+     * <p>By default this checks the live player, so conditions which read anything from the player other than
+     * their unique id must override it.</p>
+     *
+     * @param snapshot the snapshot of the player
+     * @param parameter the parameter
+     * @return true if the condition applies
+     */
+    public boolean shouldApply(PlayerSnapshot snapshot, T parameter) {
+        return shouldApply(snapshot.getPlayer(), parameter);
+    }
+
+    /**
+     * Called when a parameter starts being used by the nodes of at least one online player.
+     *
+     * <p>Conditions which keep something for each parameter, such as a scheduled wake-up, should create it here
+     * rather than in {@link #parseParameter(String)}, which is only called once for each node, and doesn't know
+     * when the node stops being used.</p>
+     *
+     * @param parameter the parsed parameter
+     */
+    public void onParameterUsed(T parameter) {
+
+    }
+
+    /**
+     * Called when a parameter is no longer used by the nodes of any online player.
+     *
+     * @param parameter the parsed parameter
+     */
+    public void onParameterUnused(T parameter) {
+
+    }
+
+    /**
+     * Gets if this condition can be exposed as a context, see {@link #getContextValues(Player)}.
+     *
+     * <p>Conditions without a parameter are supported by default. Conditions which take a parameter need to
+     * override this and {@link #getContextValues(Player)} to list the parameters which currently apply.</p>
+     *
+     * @return true if contexts are supported
+     */
+    public boolean isContextSupported() {
+        return !parameterNeeded;
+    }
+
+    /**
+     * Gets the values of this condition for the player, when exposed as a context.
+     *
+     * <p>For conditions without a parameter, this is either "true" or "false".</p>
+     *
+     * @param player the player
+     * @return the context values
+     */
+    public Set<String> getContextValues(Player player) {
+        return Collections.singleton(Boolean.toString(shouldApply(player, parseParameter(null))));
+    }
 
     public boolean isHookNeeded() {
         return neededHook != null;
     }
 
+    /**
+     * Gets if {@link #shouldApply(Player, Object)} can safely be called off the main thread.
+     *
+     * <p>This should only return true if the condition reads state which the condition or its hook keeps in a
+     * concurrent collection, or fields of the player which are copied into a {@link PlayerSnapshot}. Thread safe
+     * conditions are checked with {@link #shouldApply(PlayerSnapshot, Object)} off the main thread. Conditions which
+     * call into other plugins should always be checked on the main thread.</p>
+     *
+     * @return true if the condition is thread safe
+     */
+    public boolean isThreadSafe() {
+        return false;
+    }
+
+    /**
+     * Gets a rough estimate of how expensive this condition is to check, relative to other conditions.
+     *
+     * <p>Conditions in an expression node are checked cheapest first, so the expensive ones can often be skipped.
+     * Conditions which only read a field of the player have a cost of 1, and those which read state cached by a
+     * hook have a cost of 10.</p>
+     *
+     * @return the cost
+     */
+    public int getCost() {
+        return isHookNeeded() ? 10 : 1;
+    }
+
+    /**
+     * Gets if a change to this condition could affect the player, i.e. if any of their nodes use it.
+     *
+     * <p>Listeners should check this before refreshing a player. Every player is interested when conditions are
+     * exposed as contexts.</p>
+     *
+     * @param player the player
+     * @return true if the player should be refreshed
+     */
+    protected boolean isInterested(Player player) {
+        if (plugin.isContextsEnabled()) {
+            return true;
+        }
+        final PlayerState state = plugin.getPlayerStates().get(player);
+        return state != null && state.isInterested(this);
+    }
+
+    /**
+     * Gets if a change from one parameter value to another could affect the player, i.e. if any of their nodes
+     * use this condition with either value.
+     *
+     * @param player the player
+     * @param from the parsed parameter which applied before the change, may be null
+     * @param to the parsed parameter which applies after the change, may be null
+     * @return true if the player should be refreshed
+     */
+    protected boolean isInterested(Player player, T from, T to) {
+        if (plugin.isContextsEnabled()) {
+            return true;
+        }
+        final PlayerState state = plugin.getPlayerStates().get(player);
+        return state != null && ((from != null && state.isInterested(this, from)) || (to != null && state.isInterested(this, to)));
+    }
+
 }
@@ -22,22 +22,42 @@
 
 package me.lucko.conditionalperms.conditions.betonquest;
 
+import lombok.Value;
+
 import me.lucko.conditionalperms.conditions.AbstractCondition;
 import me.lucko.conditionalperms.hooks.impl.BetonQuestHook;
 import me.lucko.helper.terminable.TerminableConsumer;
 import org.bukkit.entity.Player;
 
-public class HasCondition extends AbstractCondition {
+public class HasCondition extends AbstractCondition<HasCondition.QuestCondition> {
     public HasCondition() {
-        super(false, BetonQuestHook.class);
+        super(true, BetonQuestHook.class);
     }
 
     @Override
-    public boolean shouldApply(Player player, String parameter) {
-        String[] split = parameter.split(":");
-        String packageName = split[0];
-        String condition = split[1];
-        return getPlugin().getHookManager().get(BetonQuestHook.class).hasCondition(player, packageName, condition);
+    public QuestCondition parseParameter(String parameter) {
+        String[] split = parameter.split(":", 2);
+        if (split.length != 2 || split[0].isEmpty() || split[1].isEmpty()) {
+            throw new IllegalArgumentException("Expected a parameter in the format 'package:condition', got '" + parameter + "'");
+        }
+        return new QuestCondition(split[0], split[1]);
+    }
+
+    @Override
+    public int getCost() {
+        // evaluated by another plugin each time
+        return 100;
+    }
+
+    @Override
+    public boolean shouldApply(Player player, QuestCondition parameter) {
+        return getPlugin().getHookManager().get(BetonQuestHook.class).hasCondition(player, parameter.getPackageName(), parameter.getCondition());
+    }
+
+    @Value
+    public static class QuestCondition {
+        String packageName;
+        String condition;
     }
 
     @Override
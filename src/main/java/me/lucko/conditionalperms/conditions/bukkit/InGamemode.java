@@ -22,7 +22,9 @@
 
 package me.lucko.conditionalperms.conditions.bukkit;
 
+import me.lucko.conditionalperms.PlayerSnapshot;
 import me.lucko.conditionalperms.conditions.AbstractCondition;
+import me.lucko.conditionalperms.metrics.RefreshCause;
 import me.lucko.helper.Events;
 import me.lucko.helper.terminable.TerminableConsumer;
 
@@ -30,25 +32,54 @@ import org.bukkit.GameMode;
 import org.bukkit.entity.Player;
 import org.bukkit.event.player.PlayerGameModeChangeEvent;
 
-public class InGamemode extends AbstractCondition {
+import java.util.Collections;
+import java.util.Set;
+
+public class InGamemode extends AbstractCondition<GameMode> {
     public InGamemode() {
         super(true);
     }
 
     @Override
-    public boolean shouldApply(Player player, String parameter) {
+    public GameMode parseParameter(String parameter) {
         try {
-            GameMode g = GameMode.valueOf(parameter.toUpperCase());
-            return player.getGameMode() == g;
+            return GameMode.valueOf(parameter.toUpperCase());
         } catch (IllegalArgumentException e) {
-            return false;
+            throw new IllegalArgumentException("Unknown gamemode '" + parameter + "'");
         }
     }
 
+    @Override
+    public boolean isThreadSafe() {
+        return true;
+    }
+
+    @Override
+    public boolean shouldApply(Player player, GameMode parameter) {
+        return player.getGameMode() == parameter;
+    }
+
+    @Override
+    public boolean shouldApply(PlayerSnapshot snapshot, GameMode parameter) {
+        return snapshot.getGameMode() == parameter;
+    }
+
+    @Override
+    public boolean isContextSupported() {
+        return true;
+    }
+
+    @Override
+    public Set<String> getContextValues(Player player) {
+        return Collections.singleton(player.getGameMode().name().toLowerCase());
+    }
+
     @Override
     public void setup(TerminableConsumer consumer) {
+        // the event is called before the gamemode changes
         Events.subscribe(PlayerGameModeChangeEvent.class)
-                .handler(e -> getPlugin().refreshPlayer(e.getPlayer(), 1L))
+                .filter(e -> isInterested(e.getPlayer(), e.getPlayer().getGameMode(), e.getNewGameMode()))
+                .handler(e -> getPlugin().refreshPlayer(e.getPlayer(), 1L, RefreshCause.GAMEMODE))
                 .bindWith(consumer);
     }
 }
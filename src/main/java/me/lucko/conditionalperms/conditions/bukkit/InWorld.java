@@ -22,27 +22,59 @@
 
 package me.lucko.conditionalperms.conditions.bukkit;
 
+import me.lucko.conditionalperms.PlayerSnapshot;
 import me.lucko.conditionalperms.conditions.AbstractCondition;
+import me.lucko.conditionalperms.metrics.RefreshCause;
 import me.lucko.helper.Events;
 import me.lucko.helper.terminable.TerminableConsumer;
 
 import org.bukkit.entity.Player;
 import org.bukkit.event.player.PlayerChangedWorldEvent;
 
-public class InWorld extends AbstractCondition {
+import java.util.Collections;
+import java.util.Set;
+
+public class InWorld extends AbstractCondition<String> {
     public InWorld() {
         super(true);
     }
 
+    @Override
+    public String parseParameter(String parameter) {
+        return parameter.toLowerCase();
+    }
+
+    @Override
+    public boolean isThreadSafe() {
+        return true;
+    }
+
     @Override
     public boolean shouldApply(Player player, String parameter) {
         return player.getWorld().getName().equalsIgnoreCase(parameter);
     }
 
+    @Override
+    public boolean shouldApply(PlayerSnapshot snapshot, String parameter) {
+        return snapshot.getWorldName().equalsIgnoreCase(parameter);
+    }
+
+    @Override
+    public boolean isContextSupported() {
+        return true;
+    }
+
+    @Override
+    public Set<String> getContextValues(Player player) {
+        return Collections.singleton(player.getWorld().getName().toLowerCase());
+    }
+
     @Override
     public void setup(TerminableConsumer consumer) {
+        // only refresh if the player has a node for the world they left or the world they're now in
         Events.subscribe(PlayerChangedWorldEvent.class)
-                .handler(e -> getPlugin().refreshPlayer(e.getPlayer(), 1L))
+                .filter(e -> isInterested(e.getPlayer(), e.getFrom().getName().toLowerCase(), e.getPlayer().getWorld().getName().toLowerCase()))
+                .handler(e -> getPlugin().refreshPlayer(e.getPlayer(), 1L, RefreshCause.WORLD))
                 .bindWith(consumer);
     }
 }
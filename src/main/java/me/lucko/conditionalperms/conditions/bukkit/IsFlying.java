@@ -22,27 +22,40 @@
 
 package me.lucko.conditionalperms.conditions.bukkit;
 
+import me.lucko.conditionalperms.PlayerSnapshot;
 import me.lucko.conditionalperms.conditions.AbstractCondition;
+import me.lucko.conditionalperms.metrics.RefreshCause;
 import me.lucko.helper.Events;
 import me.lucko.helper.terminable.TerminableConsumer;
 
 import org.bukkit.entity.Player;
 import org.bukkit.event.player.PlayerToggleFlightEvent;
 
-public class IsFlying extends AbstractCondition {
+public class IsFlying extends AbstractCondition<Void> {
     public IsFlying() {
         super(false);
     }
 
     @Override
-    public boolean shouldApply(Player player, String parameter) {
+    public boolean isThreadSafe() {
+        return true;
+    }
+
+    @Override
+    public boolean shouldApply(Player player, Void parameter) {
         return player.isFlying();
     }
 
+    @Override
+    public boolean shouldApply(PlayerSnapshot snapshot, Void parameter) {
+        return snapshot.isFlying();
+    }
+
     @Override
     public void setup(TerminableConsumer consumer) {
         Events.subscribe(PlayerToggleFlightEvent.class)
-                .handler(e -> getPlugin().refreshPlayer(e.getPlayer(), 1L))
+                .filter(e -> isInterested(e.getPlayer()))
+                .handler(e -> getPlugin().refreshPlayer(e.getPlayer(), 1L, RefreshCause.FLIGHT))
                 .bindWith(consumer);
     }
 }
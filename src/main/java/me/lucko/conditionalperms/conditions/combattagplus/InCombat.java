@@ -26,18 +26,19 @@ import me.lucko.conditionalperms.conditions.AbstractCondition;
 import me.lucko.conditionalperms.events.PlayerEnterCombatEvent;
 import me.lucko.conditionalperms.events.PlayerLeaveCombatEvent;
 import me.lucko.conditionalperms.hooks.impl.CombatTagPlusHook;
+import me.lucko.conditionalperms.metrics.RefreshCause;
 import me.lucko.helper.Events;
 import me.lucko.helper.terminable.TerminableConsumer;
 
 import org.bukkit.entity.Player;
 
-public class InCombat extends AbstractCondition {
+public class InCombat extends AbstractCondition<Void> {
     public InCombat() {
         super(false, CombatTagPlusHook.class);
     }
 
     @Override
-    public boolean shouldApply(Player player, String parameter) {
+    public boolean shouldApply(Player player, Void parameter) {
         return getPlugin().getHookManager().get(CombatTagPlusHook.class).isTagged(player);
     }
 
@@ -45,17 +46,18 @@ public class InCombat extends AbstractCondition {
     public void setup(TerminableConsumer consumer) {
         Events.subscribe(PlayerEnterCombatEvent.class)
                 .handler(e -> {
-                    if (e.getVictim() != null) {
-                        getPlugin().refreshPlayer(e.getVictim(), 1L);
+                    if (e.getVictim() != null && isInterested(e.getVictim())) {
+                        getPlugin().refreshPlayer(e.getVictim(), 1L, RefreshCause.COMBAT);
                     }
-                    if (e.getAttacker() != null) {
-                        getPlugin().refreshPlayer(e.getAttacker(), 1L);
+                    if (e.getAttacker() != null && isInterested(e.getAttacker())) {
+                        getPlugin().refreshPlayer(e.getAttacker(), 1L, RefreshCause.COMBAT);
                     }
                 })
                 .bindWith(consumer);
 
         Events.subscribe(PlayerLeaveCombatEvent.class)
-                .handler(e -> getPlugin().refreshPlayer(e.getPlayer(), 1L))
+                .filter(e -> isInterested(e.getPlayer()))
+                .handler(e -> getPlugin().refreshPlayer(e.getPlayer(), 1L, RefreshCause.COMBAT))
                 .bindWith(consumer);
     }
 }
@@ -25,13 +25,14 @@ package me.lucko.conditionalperms.conditions.factions;
 import me.lucko.conditionalperms.conditions.AbstractCondition;
 import me.lucko.conditionalperms.events.PlayerFactionsRegionChangeEvent;
 import me.lucko.conditionalperms.hooks.impl.FactionsHook;
+import me.lucko.conditionalperms.metrics.RefreshCause;
 import me.lucko.conditionalperms.utils.FactionsRegion;
 import me.lucko.helper.Events;
 import me.lucko.helper.terminable.TerminableConsumer;
 
 import org.bukkit.entity.Player;
 
-public class InFactionsLand extends AbstractCondition {
+public class InFactionsLand extends AbstractCondition<Void> {
     private final FactionsRegion r;
 
     public InFactionsLand(FactionsRegion r) {
@@ -40,14 +41,16 @@ public class InFactionsLand extends AbstractCondition {
     }
 
     @Override
-    public boolean shouldApply(Player player, String parameter) {
+    public boolean shouldApply(Player player, Void parameter) {
         return getPlugin().getHookManager().get(FactionsHook.class).getRegion(player).equals(r);
     }
 
     @Override
     public void setup(TerminableConsumer consumer) {
+        // each region is a separate condition, so only refresh if this one was entered or left
         Events.subscribe(PlayerFactionsRegionChangeEvent.class)
-                .handler(e -> getPlugin().refreshPlayer(e.getPlayer(), 5L))
+                .filter(e -> (e.getFrom() == r || e.getTo() == r) && isInterested(e.getPlayer()))
+                .handler(e -> getPlugin().refreshPlayer(e.getPlayer(), 5L, RefreshCause.FACTIONS))
                 .bindWith(consumer);
     }
 }
\ No newline at end of file
@@ -24,25 +24,41 @@ package me.lucko.conditionalperms.conditions.placeholderapi;
 
 import me.lucko.conditionalperms.conditions.AbstractCondition;
 import me.lucko.conditionalperms.hooks.impl.PlaceholderAPIHook;
+import me.lucko.conditionalperms.trace.TraceType;
 import me.lucko.helper.terminable.TerminableConsumer;
 
 import org.bukkit.entity.Player;
 
-public class IsPlaceholder extends AbstractCondition {
+import java.util.Collections;
+import java.util.Set;
+
+public class IsPlaceholder extends AbstractCondition<String> {
+    private static final Set<String> TRACE_CONDITIONS = Collections.singleton("IS_PLACEHOLDER");
+
     public IsPlaceholder() {
         super(true, PlaceholderAPIHook.class);
     }
 
     @Override
-    public boolean shouldApply(Player player, String parameter) {
+    public String parseParameter(String parameter) {
         if (!parameter.startsWith("%") && !parameter.endsWith("%")) {
             parameter = "%" + parameter + "%";
         }
+        return parameter;
+    }
 
+    @Override
+    public int getCost() {
+        // evaluated by another plugin each time
+        return 100;
+    }
+
+    @Override
+    public boolean shouldApply(Player player, String parameter) {
         try {
             return getPlugin().getHookManager().get(PlaceholderAPIHook.class).getResult(parameter, player);
         } catch (IllegalArgumentException e) {
-            getPlugin().debug("Could not parse a result from placeholder " + parameter + ", with error '" + e.getMessage() + "'.");
+            getPlugin().getTracer().trace(TraceType.PLACEHOLDER_ERROR, player.getName(), TRACE_CONDITIONS, parameter, e.getMessage());
             return false;
         }
     }
@@ -26,26 +26,28 @@ import me.lucko.conditionalperms.conditions.AbstractCondition;
 import me.lucko.conditionalperms.events.PlayerEnterPlotEvent;
 import me.lucko.conditionalperms.events.PlayerLeavePlotEvent;
 import me.lucko.conditionalperms.hooks.impl.PlotSquaredHook;
+import me.lucko.conditionalperms.metrics.RefreshCause;
 import me.lucko.helper.Events;
 import me.lucko.helper.terminable.TerminableConsumer;
 
 import org.bukkit.entity.Player;
 import org.bukkit.event.player.PlayerEvent;
 
-public class InOwnPlot extends AbstractCondition {
+public class InOwnPlot extends AbstractCondition<Void> {
     public InOwnPlot() {
         super(false, PlotSquaredHook.class);
     }
 
     @Override
-    public boolean shouldApply(Player player, String parameter) {
+    public boolean shouldApply(Player player, Void parameter) {
         return getPlugin().getHookManager().get(PlotSquaredHook.class).isInOwnPlot(player);
     }
 
     @Override
     public void setup(TerminableConsumer consumer) {
         Events.merge(PlayerEvent.class, PlayerEnterPlotEvent.class, PlayerLeavePlotEvent.class)
-                .handler(e -> getPlugin().refreshPlayer(e.getPlayer(), 5L))
+                .filter(e -> isInterested(e.getPlayer()))
+                .handler(e -> getPlugin().refreshPlayer(e.getPlayer(), 5L, RefreshCause.PLOT))
                 .bindWith(consumer);
     }
 }
@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2017 Lucko (Luck) <luck@lucko.me>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+
+package me.lucko.conditionalperms.conditions.time;
+
+import lombok.Value;
+
+import java.time.Instant;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+/**
+ * If the server's clock is within a time of day, e.g. in_time=18:00-23:00. Windows which end before they start
+ * wrap over midnight.
+ */
+public class InTime extends TimeCondition<InTime.Window> {
+    private static final DateTimeFormatter FORMAT = DateTimeFormatter.ofPattern("H:mm");
+
+    @Override
+    public Window parseParameter(String parameter) {
+        final String[] split = parameter.split("-", 2);
+        if (split.length != 2) {
+            throw new IllegalArgumentException("Expected a parameter in the format 'HH:mm-HH:mm', got '" + parameter + "'");
+        }
+
+        final Window window = new Window(parseTime(split[0]), parseTime(split[1]));
+        if (window.getStart().equals(window.getEnd())) {
+            throw new IllegalArgumentException("Window '" + parameter + "' is empty");
+        }
+        return window;
+    }
+
+    private static LocalTime parseTime(String time) {
+        if (time.equals("24:00")) {
+            return LocalTime.MIDNIGHT;
+        }
+        try {
+            return LocalTime.parse(time, FORMAT);
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Invalid time '" + time + "', expected HH:mm");
+        }
+    }
+
+    @Override
+    protected boolean isOpen(Window window, long worldTime, long now) {
+        final LocalTime time = Instant.ofEpochMilli(now).atZone(ZoneId.systemDefault()).toLocalTime();
+        final boolean afterStart = !time.isBefore(window.getStart());
+        final boolean beforeEnd = time.isBefore(window.getEnd());
+        return window.getStart().isBefore(window.getEnd()) ? afterStart && beforeEnd : afterStart || beforeEnd;
+    }
+
+    @Override
+    protected long getNextCheck(Window window, long now) {
+        final ZonedDateTime time = Instant.ofEpochMilli(now).atZone(ZoneId.systemDefault());
+        return Math.min(next(time, window.getStart()), next(time, window.getEnd()));
+    }
+
+    /**
+     * Gets the next time the clock reads the given time of day.
+     */
+    private static long next(ZonedDateTime now, LocalTime time) {
+        ZonedDateTime next = ZonedDateTime.of(now.toLocalDate(), time, now.getZone());
+        if (!next.isAfter(now)) {
+            next = ZonedDateTime.of(now.toLocalDate().plusDays(1), time, now.getZone());
+        }
+        return next.toInstant().toEpochMilli();
+    }
+
+    @Value
+    public static class Window {
+        LocalTime start;
+        LocalTime end;
+    }
+}
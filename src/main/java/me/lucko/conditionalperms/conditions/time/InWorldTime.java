@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2017 Lucko (Luck) <luck@lucko.me>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+
+package me.lucko.conditionalperms.conditions.time;
+
+import lombok.Value;
+
+import me.lucko.conditionalperms.metrics.RefreshCause;
+import me.lucko.helper.Events;
+import me.lucko.helper.terminable.TerminableConsumer;
+
+import org.bukkit.World;
+import org.bukkit.event.player.PlayerChangedWorldEvent;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * If the time in the player's world is within a range of ticks, e.g. in_world_time=13000-23000. Ranges which end
+ * before they start wrap over the end of the day, and an end of 24000 is the end of the day, so 0-24000 is always
+ * open.
+ */
+public class InWorldTime extends TimeCondition<InWorldTime.Window> {
+    private static final int DAY_LENGTH = 24000;
+
+    /**
+     * World time can be changed with /time or the daylight cycle game rule, so windows are checked at least this
+     * often. Only players in a world where the window opened or closed are refreshed.
+     */
+    private static final long RECHECK_INTERVAL = TimeUnit.SECONDS.toMillis(30);
+
+    @Override
+    public Window parseParameter(String parameter) {
+        final String[] split = parameter.split("-", 2);
+        if (split.length != 2) {
+            throw new IllegalArgumentException("Expected a parameter in the format 'start-end' in ticks, got '" + parameter + "'");
+        }
+
+        // a start of 24000 is the start of the next day, but an end of 24000 is kept so that 0-24000 isn't empty
+        final Window window = new Window(parseTicks(split[0]) % DAY_LENGTH, parseTicks(split[1]));
+        if (window.getStart() == window.getEnd()) {
+            throw new IllegalArgumentException("Window '" + parameter + "' is empty");
+        }
+        return window;
+    }
+
+    private static int parseTicks(String ticks) {
+        final int ret;
+        try {
+            ret = Integer.parseInt(ticks);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid time '" + ticks + "', expected a number of ticks");
+        }
+        if (ret < 0 || ret > DAY_LENGTH) {
+            throw new IllegalArgumentException("Invalid time '" + ticks + "', expected between 0 and " + DAY_LENGTH);
+        }
+        return ret;
+    }
+
+    @Override
+    protected boolean isOpen(Window window, long worldTime, long now) {
+        final boolean afterStart = worldTime >= window.getStart();
+        final boolean beforeEnd = worldTime < window.getEnd();
+        return window.getStart() < window.getEnd() ? afterStart && beforeEnd : afterStart || beforeEnd;
+    }
+
+    @Override
+    protected long getNextCheck(Window window, long now) {
+        long ticks = Long.MAX_VALUE;
+        for (World world : getPlugin().getServer().getWorlds()) {
+            if (!"true".equals(world.getGameRuleValue("doDaylightCycle"))) {
+                continue;
+            }
+
+            final long time = world.getTime();
+            ticks = Math.min(ticks, ticksUntil(time, window.getStart()));
+            ticks = Math.min(ticks, ticksUntil(time, window.getEnd()));
+        }
+
+        // world time only advances as fast as the server ticks, so when the server is behind this is early, and
+        // the window is checked again
+        return now + Math.min(RECHECK_INTERVAL, ticks == Long.MAX_VALUE ? Long.MAX_VALUE : ticks * 50);
+    }
+
+    private static long ticksUntil(long time, int target) {
+        final long ticks = Math.floorMod(target - time, (long) DAY_LENGTH);
+        return ticks == 0 ? DAY_LENGTH : ticks;
+    }
+
+    @Override
+    public void setup(TerminableConsumer consumer) {
+        super.setup(consumer);
+
+        // the time depends on the world the player is in
+        Events.subscribe(PlayerChangedWorldEvent.class)
+                .filter(e -> isInterested(e.getPlayer()))
+                .handler(e -> getPlugin().refreshPlayer(e.getPlayer(), RefreshCause.WORLD))
+                .bindWith(consumer);
+    }
+
+    @Value
+    public static class Window {
+        int start;
+        int end;
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2017 Lucko (Luck) <luck@lucko.me>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+
+package me.lucko.conditionalperms.conditions.time;
+
+import com.google.common.collect.Sets;
+
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * If the server's clock is on one of the given days of the week, e.g. on_day=mon-fri or on_day=sat,sun.
+ */
+public class OnDay extends TimeCondition<Set<DayOfWeek>> {
+
+    @Override
+    public Set<DayOfWeek> parseParameter(String parameter) {
+        final EnumSet<DayOfWeek> days = EnumSet.noneOf(DayOfWeek.class);
+        for (String part : parameter.split(",")) {
+            final String[] range = part.split("-", 2);
+            final DayOfWeek from = parseDay(range[0]);
+            final DayOfWeek to = range.length > 1 ? parseDay(range[1]) : from;
+
+            // ranges can wrap over the end of the week, e.g. fri-mon
+            DayOfWeek day = from;
+            days.add(day);
+            while (day != to) {
+                day = day.plus(1);
+                days.add(day);
+            }
+        }
+        return Sets.immutableEnumSet(days);
+    }
+
+    private static DayOfWeek parseDay(String day) {
+        final String name = day.trim().toUpperCase();
+        if (name.length() >= 3) {
+            for (DayOfWeek d : DayOfWeek.values()) {
+                if (d.name().startsWith(name)) {
+                    return d;
+                }
+            }
+        }
+        throw new IllegalArgumentException("Invalid day '" + day + "', expected e.g. 'mon' or 'monday'");
+    }
+
+    @Override
+    protected boolean isOpen(Set<DayOfWeek> days, long worldTime, long now) {
+        return days.contains(today(now).getDayOfWeek());
+    }
+
+    @Override
+    protected long getNextCheck(Set<DayOfWeek> days, long now) {
+        // skip straight to the next midnight where the result changes
+        final LocalDate today = today(now);
+        final boolean open = days.contains(today.getDayOfWeek());
+        LocalDate next = today.plusDays(1);
+        while (days.contains(next.getDayOfWeek()) == open && next.isBefore(today.plusDays(7))) {
+            next = next.plusDays(1);
+        }
+        return next.atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    private static LocalDate today(long now) {
+        return Instant.ofEpochMilli(now).atZone(ZoneId.systemDefault()).toLocalDate();
+    }
+}
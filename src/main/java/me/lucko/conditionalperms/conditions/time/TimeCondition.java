@@ -0,0 +1,198 @@
+/*
+ * Copyright (c) 2017 Lucko (Luck) <luck@lucko.me>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+
+package me.lucko.conditionalperms.conditions.time;
+
+import me.lucko.conditionalperms.PlayerSnapshot;
+import me.lucko.conditionalperms.conditions.AbstractCondition;
+import me.lucko.conditionalperms.metrics.RefreshCause;
+import me.lucko.conditionalperms.utils.TimerWheel;
+import me.lucko.helper.terminable.TerminableConsumer;
+
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A condition which applies during a window of time.
+ *
+ * <p>Nothing is polled. While the condition is in use, each window used by an online player gets a single wake-up
+ * on the plugin's {@link TimerWheel}, at the next time it could open or close. When it fires, only the players whose
+ * nodes use that window, and who are in a world where it actually opened or closed, are refreshed. Windows no longer
+ * used by anyone online are dropped.</p>
+ *
+ * @param <T> the type of the parsed window
+ */
+public abstract class TimeCondition<T> extends AbstractCondition<T> {
+
+    /**
+     * The longest time between wake-ups. Wake-ups are scheduled as a delay, so if the system clock is changed,
+     * windows are checked against the new time within this long.
+     */
+    private static final long MAX_WAIT = TimeUnit.HOURS.toMillis(1);
+
+    private final Map<T, Schedule> schedules = new HashMap<>();
+    private boolean active = false;
+
+    public TimeCondition() {
+        super(true);
+    }
+
+    /**
+     * Gets if a window is open in a world.
+     *
+     * @param window the window
+     * @param worldTime the time of day in the world, in ticks
+     * @param now the current time, in milliseconds
+     * @return true if the window is open
+     */
+    protected abstract boolean isOpen(T window, long worldTime, long now);
+
+    /**
+     * Gets the next time a window could open or close in any world. This can be earlier than the actual change, as
+     * the window is checked again when it's reached.
+     *
+     * @param window the window
+     * @param now the current time, in milliseconds
+     * @return the time of the next check, in milliseconds
+     */
+    protected abstract long getNextCheck(T window, long now);
+
+    @Override
+    public synchronized void onParameterUsed(T window) {
+        final Schedule schedule = new Schedule(window);
+        schedules.put(window, schedule);
+        if (active) {
+            schedule.start();
+        }
+    }
+
+    @Override
+    public synchronized void onParameterUnused(T window) {
+        final Schedule schedule = schedules.remove(window);
+        if (schedule != null) {
+            schedule.stop();
+        }
+    }
+
+    @Override
+    public boolean isThreadSafe() {
+        return true;
+    }
+
+    @Override
+    public boolean shouldApply(Player player, T parameter) {
+        return isOpen(parameter, player.getWorld().getTime(), System.currentTimeMillis());
+    }
+
+    @Override
+    public boolean shouldApply(PlayerSnapshot snapshot, T parameter) {
+        return isOpen(parameter, snapshot.getWorldTime(), System.currentTimeMillis());
+    }
+
+    @Override
+    public void setup(TerminableConsumer consumer) {
+        synchronized (this) {
+            active = true;
+            schedules.values().forEach(Schedule::start);
+        }
+
+        consumer.bind(() -> {
+            synchronized (this) {
+                active = false;
+                schedules.values().forEach(Schedule::stop);
+            }
+        });
+    }
+
+    private final class Schedule {
+        private final T window;
+
+        /**
+         * If the window was open in each world, as of the last wake-up.
+         */
+        private final Map<UUID, Boolean> open = new HashMap<>();
+
+        private TimerWheel.Timeout timeout = null;
+
+        private Schedule(T window) {
+            this.window = window;
+        }
+
+        private void start() {
+            final long now = System.currentTimeMillis();
+            for (World world : getPlugin().getServer().getWorlds()) {
+                open.put(world.getUID(), isOpen(window, world.getTime(), now));
+            }
+            schedule(now);
+        }
+
+        private void stop() {
+            if (timeout != null) {
+                timeout.cancel();
+                timeout = null;
+            }
+        }
+
+        private void schedule(long now) {
+            final long delay = Math.max(1, Math.min(MAX_WAIT, getNextCheck(window, now) - now));
+            timeout = getPlugin().getTimerWheel().schedule(delay, this::wake);
+        }
+
+        private void wake() {
+            final Set<UUID> changed = new HashSet<>();
+            synchronized (TimeCondition.this) {
+                if (!active || schedules.get(window) != this) {
+                    return;
+                }
+
+                final long now = System.currentTimeMillis();
+                for (World world : getPlugin().getServer().getWorlds()) {
+                    final boolean nowOpen = isOpen(window, world.getTime(), now);
+                    final Boolean wasOpen = open.put(world.getUID(), nowOpen);
+                    if (wasOpen == null || wasOpen != nowOpen) {
+                        changed.add(world.getUID());
+                    }
+                }
+                schedule(now);
+            }
+
+            if (changed.isEmpty()) {
+                return;
+            }
+
+            getPlugin().getPlayerStates().forEach(state -> {
+                final Player player = state.getPlayer();
+                if (changed.contains(player.getWorld().getUID()) && isInterested(player, window, null)) {
+                    getPlugin().refreshPlayer(player, RefreshCause.TIME);
+                }
+            });
+        }
+    }
+}
@@ -25,13 +25,14 @@ package me.lucko.conditionalperms.conditions.towny;
 import me.lucko.conditionalperms.conditions.AbstractCondition;
 import me.lucko.conditionalperms.events.PlayerTownyRegionChangeEvent;
 import me.lucko.conditionalperms.hooks.impl.TownyHook;
+import me.lucko.conditionalperms.metrics.RefreshCause;
 import me.lucko.conditionalperms.utils.TownyRegion;
 import me.lucko.helper.Events;
 import me.lucko.helper.terminable.TerminableConsumer;
 
 import org.bukkit.entity.Player;
 
-public class InTownyRegion extends AbstractCondition {
+public class InTownyRegion extends AbstractCondition<Void> {
     private final TownyRegion r;
 
     public InTownyRegion(TownyRegion r) {
@@ -40,15 +41,17 @@ public class InTownyRegion extends AbstractCondition {
     }
 
     @Override
-    public boolean shouldApply(Player player, String parameter) {
+    public boolean shouldApply(Player player, Void parameter) {
         TownyRegion region = getPlugin().getHookManager().get(TownyHook.class).getRegion(player);
         return region != null && region.equals(r);
     }
 
     @Override
     public void setup(TerminableConsumer consumer) {
+        // each region is a separate condition, so only refresh if this one was entered or left
         Events.subscribe(PlayerTownyRegionChangeEvent.class)
-                .handler(e -> getPlugin().refreshPlayer(e.getPlayer(), 5L))
+                .filter(e -> (e.getFrom() == r || e.getTo() == r) && isInterested(e.getPlayer()))
+                .handler(e -> getPlugin().refreshPlayer(e.getPlayer(), 5L, RefreshCause.TOWNY))
                 .bindWith(consumer);
     }
 }
@@ -22,24 +22,120 @@
 
 package me.lucko.conditionalperms.conditions.vanishnopacket;
 
+import me.lucko.conditionalperms.PlayerState;
 import me.lucko.conditionalperms.conditions.AbstractCondition;
+import me.lucko.conditionalperms.metrics.RefreshCause;
+import me.lucko.conditionalperms.trace.TraceType;
+import me.lucko.helper.Events;
 import me.lucko.helper.terminable.TerminableConsumer;
+
 import org.bukkit.entity.Player;
+import org.bukkit.event.Event;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.player.PlayerJoinEvent;
 import org.bukkit.metadata.MetadataValue;
 
-public class IsVanished extends AbstractCondition {
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class IsVanished extends AbstractCondition<Void> {
+
+    /**
+     * Toggle events fired by the vanish plugins we know about. All of them also set the "vanished" metadata
+     * value, so we only use these as a signal to re-read it, and don't need to compile against their APIs.
+     */
+    private static final String[] TOGGLE_EVENTS = {
+            "org.kitteh.vanish.event.VanishStatusChangeEvent", // VanishNoPacket
+            "de.myzelyam.api.vanish.PlayerHideEvent", // SuperVanish / PremiumVanish
+            "de.myzelyam.api.vanish.PlayerShowEvent", // SuperVanish / PremiumVanish
+            "net.ess3.api.events.VanishStatusChangeEvent" // Essentials
+    };
+
+    private final AtomicBoolean checkPending = new AtomicBoolean(false);
+
     public IsVanished() {
         super(false);
     }
 
     @Override
-    public boolean shouldApply(Player player, String parameter) {
-        return player.getMetadata("vanished").stream()
-                .filter(metaData -> metaData.value() instanceof Boolean).anyMatch(MetadataValue::asBoolean);
+    public boolean isThreadSafe() {
+        return true;
+    }
+
+    @Override
+    public boolean shouldApply(Player player, Void parameter) {
+        final PlayerState state = getPlugin().getPlayerStates().get(player);
+        return state != null && state.isVanished();
     }
 
     @Override
     public void setup(TerminableConsumer consumer) {
+        Events.subscribe(PlayerJoinEvent.class, EventPriority.MONITOR)
+                .handler(e -> check(e.getPlayer()))
+                .bindWith(consumer);
+
+        boolean hooked = false;
+        for (String eventClass : TOGGLE_EVENTS) {
+            Class<? extends Event> clazz;
+            try {
+                clazz = Class.forName(eventClass).asSubclass(Event.class);
+            } catch (ClassNotFoundException | ClassCastException e) {
+                continue;
+            }
+
+            // the metadata is only updated once the event has been handled, so check on the next tick
+            Events.subscribe(clazz, EventPriority.MONITOR)
+                    .handler(e -> scheduleCheck())
+                    .bindWith(consumer);
+            hooked = true;
+        }
+
+        // fallback for vanish plugins which only set metadata. we can poll less often if we have events to listen to.
+        // the first check is on the next tick, as players may have vanished before the condition was set up.
+        getPlugin().getScheduler().runRepeating(this::checkAll, 1L, hooked ? 100L : 20L).bindWith(consumer);
     }
-}
 
+    private void scheduleCheck() {
+        if (!checkPending.compareAndSet(false, true)) {
+            return;
+        }
+
+        getPlugin().getScheduler().runLater(() -> {
+            checkPending.set(false);
+            checkAll();
+        }, 1L);
+    }
+
+    private void checkAll() {
+        for (Player p : getPlugin().getServer().getOnlinePlayers()) {
+            getPlugin().getScheduler().execute(p, () -> check(p));
+        }
+    }
+
+    /**
+     * Re-reads the vanish state of a player, and refreshes them if it has changed.
+     *
+     * @param player the player
+     */
+    private void check(Player player) {
+        final PlayerState state = getPlugin().getPlayerStates().get(player);
+        if (state == null) {
+            return;
+        }
+
+        boolean now = false;
+        for (MetadataValue value : player.getMetadata("vanished")) {
+            if (value.value() instanceof Boolean && value.asBoolean()) {
+                now = true;
+                break;
+            }
+        }
+
+        if (state.isVanished() != now) {
+            state.setVanished(now);
+            getPlugin().getTracer().trace(TraceType.VANISH, player.getName(), now);
+            if (isInterested(player)) {
+                getPlugin().refreshPlayer(player, RefreshCause.VANISH);
+            }
+        }
+    }
+}
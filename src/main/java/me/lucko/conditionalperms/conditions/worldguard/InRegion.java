@@ -26,26 +26,54 @@ import me.lucko.conditionalperms.conditions.AbstractCondition;
 import me.lucko.conditionalperms.events.PlayerEnterRegionEvent;
 import me.lucko.conditionalperms.events.PlayerLeaveRegionEvent;
 import me.lucko.conditionalperms.hooks.impl.WorldGuardHook;
+import me.lucko.conditionalperms.metrics.RefreshCause;
 import me.lucko.helper.Events;
 import me.lucko.helper.terminable.TerminableConsumer;
 
 import org.bukkit.entity.Player;
-import org.bukkit.event.player.PlayerEvent;
 
-public class InRegion extends AbstractCondition {
+import java.util.Set;
+
+public class InRegion extends AbstractCondition<String> {
     public InRegion() {
         super(true, WorldGuardHook.class);
     }
 
+    @Override
+    public String parseParameter(String parameter) {
+        return parameter.toLowerCase();
+    }
+
+    @Override
+    public boolean isThreadSafe() {
+        return true;
+    }
+
     @Override
     public boolean shouldApply(Player player, String parameter) {
-        return getPlugin().getHookManager().get(WorldGuardHook.class).getRegions(player).contains(parameter.toLowerCase());
+        return getPlugin().getHookManager().get(WorldGuardHook.class).getRegions(player).contains(parameter);
+    }
+
+    @Override
+    public boolean isContextSupported() {
+        return true;
+    }
+
+    @Override
+    public Set<String> getContextValues(Player player) {
+        return getPlugin().getHookManager().get(WorldGuardHook.class).getRegions(player);
     }
 
     @Override
     public void setup(TerminableConsumer consumer) {
-        Events.merge(PlayerEvent.class, PlayerEnterRegionEvent.class, PlayerLeaveRegionEvent.class)
-                .handler(e -> getPlugin().refreshPlayer(e.getPlayer(), 1L))
+        Events.subscribe(PlayerEnterRegionEvent.class)
+                .filter(e -> isInterested(e.getPlayer(), e.getRegion(), null))
+                .handler(e -> getPlugin().refreshPlayer(e.getPlayer(), 1L, RefreshCause.REGION))
+                .bindWith(consumer);
+
+        Events.subscribe(PlayerLeaveRegionEvent.class)
+                .filter(e -> isInterested(e.getPlayer(), e.getRegion(), null))
+                .handler(e -> getPlugin().refreshPlayer(e.getPlayer(), 1L, RefreshCause.REGION))
                 .bindWith(consumer);
     }
 }
@@ -27,9 +27,10 @@ import lombok.AllArgsConstructor;
 import lombok.Getter;
 
 import me.lucko.conditionalperms.ConditionalPerms;
+import me.lucko.conditionalperms.PlayerState;
 import me.lucko.helper.terminable.module.TerminableModule;
 
-import java.util.UUID;
+import org.bukkit.entity.Player;
 
 @AllArgsConstructor
 public abstract class AbstractHook implements TerminableModule {
@@ -37,8 +38,19 @@ public abstract class AbstractHook implements TerminableModule {
     @Getter(AccessLevel.PROTECTED)
     private final ConditionalPerms plugin;
 
-    protected boolean shouldCheck(Class<? extends AbstractHook> clazz, UUID u) {
-        return plugin.getNeededHooks().containsEntry(u, clazz);
+    /**
+     * Gets if a hook should track a player, i.e. if any of their nodes need the hook.
+     *
+     * @param clazz the hook
+     * @param state the players state, may be null
+     * @return true if the player should be tracked
+     */
+    protected boolean shouldCheck(Class<? extends AbstractHook> clazz, PlayerState state) {
+        return state != null && (plugin.isContextsEnabled() || state.isHookNeeded(clazz));
+    }
+
+    protected boolean shouldCheck(Class<? extends AbstractHook> clazz, Player player) {
+        return shouldCheck(clazz, plugin.getPlayerStates().get(player));
     }
 
 }
@@ -34,6 +34,7 @@ enum Hook {
     BETON_QUEST("BetonQuest", BetonQuestHook.class),
     COMBAT_TAB_PLUS("CombatTagPlus", CombatTagPlusHook.class),
     FACTIONS("Factions", FactionsHook.class),
+    LUCK_PERMS("LuckPerms", LuckPermsHook.class),
     PLACEHOLDER_API("PlaceholderAPI", PlaceholderAPIHook.class),
     PLOT_SQUARED("PlotSquared", PlotSquaredHook.class),
     TOWNY("Towny", TownyHook.class),
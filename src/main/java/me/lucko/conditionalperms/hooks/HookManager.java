@@ -25,34 +25,100 @@ package me.lucko.conditionalperms.hooks;
 import lombok.RequiredArgsConstructor;
 
 import me.lucko.conditionalperms.ConditionalPerms;
+import me.lucko.conditionalperms.hooks.impl.LuckPermsHook;
 
 import org.bukkit.plugin.PluginManager;
 
 import java.lang.reflect.Constructor;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
 import java.util.logging.Level;
 
+/**
+ * Creates hooks with other plugins.
+ *
+ * <p>Hooks are only created the first time a compiled node needs them (see {@link #load(Class)}), so plugins
+ * which are installed but never used in a node cost nothing. The LuckPerms hook is the exception, as it is used
+ * to find out when permission data changes.</p>
+ */
 @RequiredArgsConstructor
 public class HookManager {
     private final ConditionalPerms plugin;
-    private final Map<Class<? extends AbstractHook>, AbstractHook> hooks = new HashMap<>();
+
+    // hooks whose plugin is enabled, but which may not have been loaded yet
+    private final Map<Class<? extends AbstractHook>, Hook> available = new HashMap<>();
+    private final Set<Hook> failed = EnumSet.noneOf(Hook.class);
+    private final Map<Class<? extends AbstractHook>, AbstractHook> hooks = new ConcurrentHashMap<>();
+
+    // hooks which are created by a factory, rather than from their plugin
+    private final Map<Class<? extends AbstractHook>, Function<ConditionalPerms, ? extends AbstractHook>> factories = new HashMap<>();
 
     public void init() {
         PluginManager pm = plugin.getServer().getPluginManager();
 
         for (Hook hook : Hook.values()) {
-            try {
-                if (pm.isPluginEnabled(hook.getPluginName())) {
-                    AbstractHook ah = make(hook.getClazz(), plugin);
-                    hooks.put(hook.getClazz(), ah);
-
-                    plugin.getLogger().info("Hooked with " + hook.getPluginName() + "...");
-                }
-            } catch (Exception e) {
-                plugin.getLogger().log(Level.SEVERE,"Exception thrown whilst hooking with " + hook.getPluginName() + "...", e);
+            if (pm.isPluginEnabled(hook.getPluginName())) {
+                available.put(hook.getClazz(), hook);
+            }
+        }
+
+        load(LuckPermsHook.class);
+    }
+
+    /**
+     * Makes a hook available whether or not its plugin is enabled. The hook is created by the factory when it is
+     * first needed, e.g. with a stub backend in the load simulation.
+     *
+     * @param c the hook
+     * @param factory creates the hook
+     * @param <T> the hook type
+     */
+    public synchronized <T extends AbstractHook> void register(Class<T> c, Function<ConditionalPerms, ? extends T> factory) {
+        for (Hook hook : Hook.values()) {
+            if (hook.getClazz() == c) {
+                available.put(c, hook);
+                factories.put(c, factory);
+                return;
             }
         }
+        throw new IllegalArgumentException("Unknown hook " + c.getName());
+    }
+
+    /**
+     * Loads a hook, if it hasn't been already.
+     *
+     * @param c the hook
+     * @param <T> the hook type
+     * @return the hook, or null if its plugin isn't enabled or the hook couldn't be created
+     */
+    public synchronized <T extends AbstractHook> T load(Class<T> c) {
+        AbstractHook ret = hooks.get(c);
+        if (ret != null) {
+            return c.cast(ret);
+        }
+
+        Hook hook = available.get(c);
+        if (hook == null || failed.contains(hook)) {
+            return null;
+        }
+
+        try {
+            final Function<ConditionalPerms, ? extends AbstractHook> factory = factories.get(c);
+            ret = factory != null ? factory.apply(plugin) : make(c, plugin);
+            plugin.bindModule(ret);
+        } catch (Throwable e) {
+            failed.add(hook);
+            plugin.getLogger().log(Level.SEVERE,"Exception thrown whilst hooking with " + hook.getPluginName() + "...", e);
+            return null;
+        }
+
+        hooks.put(c, ret);
+        plugin.getLogger().info("Hooked with " + hook.getPluginName() + "...");
+        return c.cast(ret);
     }
 
     public <T extends AbstractHook> T get(Class<T> c) {
@@ -23,57 +23,55 @@
 package me.lucko.conditionalperms.hooks.impl;
 
 import me.lucko.conditionalperms.ConditionalPerms;
+import me.lucko.conditionalperms.PlayerState;
 import me.lucko.conditionalperms.events.PlayerEnterCombatEvent;
 import me.lucko.conditionalperms.events.PlayerLeaveCombatEvent;
 import me.lucko.conditionalperms.hooks.AbstractHook;
 import me.lucko.helper.Events;
-import me.lucko.helper.Schedulers;
 import me.lucko.helper.terminable.TerminableConsumer;
 
 import net.minelink.ctplus.CombatTagPlus;
-import net.minelink.ctplus.TagManager;
 import net.minelink.ctplus.event.PlayerCombatTagEvent;
 
 import org.bukkit.entity.Player;
-import org.bukkit.event.player.PlayerQuitEvent;
 
-import java.util.HashSet;
-import java.util.Set;
 import java.util.UUID;
+import java.util.function.Predicate;
 
 public class CombatTagPlusHook extends AbstractHook implements Runnable {
-    private final Set<UUID> taggedPlayers = new HashSet<>();
-    private final TagManager manager;
+    private final Predicate<UUID> tagged;
 
     CombatTagPlusHook(ConditionalPerms plugin) {
+        this(plugin, ((CombatTagPlus) plugin.getServer().getPluginManager().getPlugin("CombatTagPlus")).getTagManager()::isTagged);
+    }
+
+    /**
+     * Creates the hook with a different source of combat tags than CombatTagPlus' tag manager.
+     *
+     * @param plugin the plugin
+     * @param tagged tests if the player with a unique id is tagged
+     */
+    public CombatTagPlusHook(ConditionalPerms plugin, Predicate<UUID> tagged) {
         super(plugin);
-        CombatTagPlus combatTagPlus = (CombatTagPlus) getPlugin().getServer().getPluginManager().getPlugin("CombatTagPlus");
-        manager = combatTagPlus.getTagManager();
+        this.tagged = tagged;
     }
 
     public boolean isTagged(Player player) {
-        return manager.isTagged(player.getUniqueId());
+        return tagged.test(player.getUniqueId());
     }
 
     @Override
     public void setup(TerminableConsumer consumer) {
-        Schedulers.sync().runRepeating(this, 1L, 20L).bindWith(consumer);
-
-        Events.subscribe(PlayerQuitEvent.class)
-                .handler(e -> taggedPlayers.remove(e.getPlayer().getUniqueId()))
-                .bindWith(consumer);
+        getPlugin().getMetrics().gauge("hook.combattagplus.players", () -> getPlugin().getPlayerStates().count(PlayerState::isCombatTagged));
+        getPlugin().getScheduler().runRepeating(this, 1L, 20L).bindWith(consumer);
 
         Events.subscribe(PlayerCombatTagEvent.class)
                 .handler(e -> {
                     if (e.getVictim() != null) {
-                        if (shouldCheck(CombatTagPlusHook.class, e.getVictim().getUniqueId())) {
-                            taggedPlayers.add(e.getVictim().getUniqueId());
-                        }
+                        tag(e.getVictim());
                     }
                     if (e.getAttacker() != null) {
-                        if (shouldCheck(CombatTagPlusHook.class, e.getAttacker().getUniqueId())) {
-                            taggedPlayers.add(e.getVictim().getUniqueId());
-                        }
+                        tag(e.getAttacker());
                     }
 
                     // Pass on CombatTagPlus events if the hook is enabled.
@@ -82,28 +80,32 @@ public class CombatTagPlusHook extends AbstractHook implements Runnable {
                 .bindWith(consumer);
     }
 
+    private void tag(Player player) {
+        final PlayerState state = getPlugin().getPlayerStates().get(player);
+        if (shouldCheck(CombatTagPlusHook.class, state)) {
+            state.setCombatTagged(true);
+        }
+    }
+
     @Override
     public void run() {
         // Ambient tag checking task
         // Not ideal, but there is no event for players leaving combat
 
-        final Set<Player> untag = new HashSet<>();
-        for (UUID u : taggedPlayers) {
-            if (!shouldCheck(CombatTagPlusHook.class, u)) {
-                continue;
+        getPlugin().getPlayerStates().forEach(state -> {
+            if (!state.isCombatTagged() || !shouldCheck(CombatTagPlusHook.class, state)) {
+                return;
             }
 
-            Player player = getPlugin().getServer().getPlayer(u);
-            if (u == null) continue;
-
+            final Player player = state.getPlayer();
             if (!isTagged(player)) {
-                untag.add(player);
-            }
-        }
+                state.setCombatTagged(false);
 
-        for (Player p : untag) {
-            taggedPlayers.remove(p.getUniqueId());
-            getPlugin().getServer().getPluginManager().callEvent(new PlayerLeaveCombatEvent(p));
-        }
+                // call the event on the thread which owns the player
+                getPlugin().getScheduler().execute(player, () ->
+                        getPlugin().getServer().getPluginManager().callEvent(new PlayerLeaveCombatEvent(player))
+                );
+            }
+        });
     }
 }
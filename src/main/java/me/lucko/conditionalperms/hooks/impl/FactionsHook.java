@@ -23,8 +23,10 @@
 package me.lucko.conditionalperms.hooks.impl;
 
 import me.lucko.conditionalperms.ConditionalPerms;
+import me.lucko.conditionalperms.PlayerState;
 import me.lucko.conditionalperms.events.PlayerFactionsRegionChangeEvent;
 import me.lucko.conditionalperms.hooks.AbstractHook;
+import me.lucko.conditionalperms.metrics.Timer;
 import me.lucko.conditionalperms.utils.FactionsRegion;
 import me.lucko.helper.Events;
 import me.lucko.helper.terminable.TerminableConsumer;
@@ -38,59 +40,99 @@ import me.markeh.factionsframework.layer.EventsLayer;
 
 import org.bukkit.entity.Player;
 import org.bukkit.event.HandlerList;
-import org.bukkit.event.player.PlayerLoginEvent;
-import org.bukkit.event.player.PlayerMoveEvent;
-import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.event.player.PlayerJoinEvent;
 
-import java.util.HashMap;
-import java.util.Map;
-import java.util.UUID;
+import java.util.function.Function;
 
 public class FactionsHook extends AbstractHook {
-    private final Map<UUID, FactionsRegion> regions = new HashMap<>();
+    private final Function<Player, FactionsRegion> regions;
 
     FactionsHook(ConditionalPerms plugin) {
+        this(plugin, load(plugin));
+    }
+
+    /**
+     * Creates the hook with a different way of working out the land a player is in than Factions.
+     *
+     * @param plugin the plugin
+     * @param regions gets the land a player is in
+     */
+    public FactionsHook(ConditionalPerms plugin, Function<Player, FactionsRegion> regions) {
         super(plugin);
+        this.regions = regions;
+    }
 
-        FactionsFramework.load(getPlugin());
+    private static Function<Player, FactionsRegion> load(ConditionalPerms plugin) {
+        FactionsFramework.load(plugin.getBootstrap());
         // We don't need events
         HandlerList.unregisterAll(EventsLayer.get());
         FactionsFramework.get();
+        return FactionsHook::getFactionsRegion;
     }
 
     @Override
     public void setup(TerminableConsumer consumer) {
+        final Timer moveTimer = getPlugin().getMetrics().timer("hook.factions.move");
+        getPlugin().getMetrics().gauge("hook.factions.players", () -> getPlugin().getPlayerStates().count(s -> s.getFactionsRegion() != null));
+
         //consumer.bindRunnable(() -> FactionsFramework.get().stop());
 
-        Events.subscribe(PlayerLoginEvent.class)
-                .handler(e -> regions.put(e.getPlayer().getUniqueId(), getRegion(e.getPlayer())))
+        Events.subscribe(PlayerJoinEvent.class)
+                .handler(e -> track(e.getPlayer()))
                 .bindWith(consumer);
 
-        Events.subscribe(PlayerQuitEvent.class)
-                .handler(e -> regions.remove(e.getPlayer().getUniqueId()))
-                .bindWith(consumer);
+        // the hook is loaded when it's first needed, so start tracking anyone already online. players who are
+        // still logging in are picked up when they join
+        getPlugin().getPlayerStates().forEach(state -> getPlugin().getScheduler().execute(state.getPlayer(), () -> {
+            if (state.getPlayer().isOnline()) {
+                track(state.getPlayer());
+            }
+        }));
+
+        getPlugin().getMovementTracker().subscribe((player, state, from, to) -> {
+            // claims are made up of whole chunks
+            if ((from.getBlockX() >> 4) == (to.getBlockX() >> 4) &&
+                    (from.getBlockZ() >> 4) == (to.getBlockZ() >> 4) &&
+                    from.getWorld().equals(to.getWorld())) {
+                return;
+            }
+            if (!shouldCheck(FactionsHook.class, state) || state.getFactionsRegion() == null) {
+                return;
+            }
+
+            final long start = System.nanoTime();
+            try {
+                handleMove(player, state);
+            } finally {
+                moveTimer.record(System.nanoTime() - start);
+            }
+        }).bindWith(consumer);
+    }
 
-        Events.subscribe(PlayerMoveEvent.class)
-                .filter(e ->
-                        (e.getFrom().getBlockX() >> 4) != (e.getTo().getBlockX() >> 4) ||
-                                (e.getFrom().getBlockZ() >> 4) != (e.getTo().getBlockZ() >> 4) ||
-                                !e.getFrom().getWorld().equals(e.getTo().getWorld()))
-                .filter(e -> shouldCheck(FactionsHook.class, e.getPlayer().getUniqueId()))
-                .handler(e -> {
-                    FactionsRegion from = regions.get(e.getPlayer().getUniqueId());
-                    FactionsRegion to = getRegion(e.getPlayer());
-
-                    if (from.equals(to)) {
-                        return;
-                    }
-
-                    getPlugin().getServer().getPluginManager().callEvent(new PlayerFactionsRegionChangeEvent(e.getPlayer(), from, to));
-                    regions.put(e.getPlayer().getUniqueId(), to);
-                })
-                .bindWith(consumer);
+    private void track(Player player) {
+        final PlayerState state = getPlugin().getPlayerStates().get(player);
+        if (state != null) {
+            state.setFactionsRegion(getRegion(player));
+        }
+    }
+
+    private void handleMove(Player player, PlayerState state) {
+        FactionsRegion from = state.getFactionsRegion();
+        FactionsRegion to = getRegion(player);
+
+        if (from.equals(to)) {
+            return;
+        }
+
+        getPlugin().getServer().getPluginManager().callEvent(new PlayerFactionsRegionChangeEvent(player, from, to));
+        state.setFactionsRegion(to);
     }
 
     public FactionsRegion getRegion(Player player) {
+        return regions.apply(player);
+    }
+
+    private static FactionsRegion getFactionsRegion(Player player) {
         final FPlayer p = FPlayers.getBySender(player);
         if (p == null) return FactionsRegion.NONE;
 
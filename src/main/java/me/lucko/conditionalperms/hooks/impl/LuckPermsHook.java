@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 2017 Lucko (Luck) <luck@lucko.me>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+
+package me.lucko.conditionalperms.hooks.impl;
+
+import lombok.RequiredArgsConstructor;
+
+import com.google.common.collect.ImmutableSetMultimap;
+
+import me.lucko.conditionalperms.ConditionalPerms;
+import me.lucko.conditionalperms.PlayerState;
+import me.lucko.conditionalperms.conditions.AbstractCondition;
+import me.lucko.conditionalperms.hooks.AbstractHook;
+import me.lucko.helper.terminable.TerminableConsumer;
+
+import net.luckperms.api.LuckPerms;
+import net.luckperms.api.LuckPermsProvider;
+import net.luckperms.api.context.ContextCalculator;
+import net.luckperms.api.context.ContextConsumer;
+import net.luckperms.api.event.group.GroupDataRecalculateEvent;
+import net.luckperms.api.event.user.UserDataRecalculateEvent;
+import net.luckperms.api.model.group.Group;
+import net.luckperms.api.model.user.User;
+
+import org.bukkit.entity.Player;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class LuckPermsHook extends AbstractHook {
+    private final LuckPerms luckPerms;
+
+    // players waiting to be refreshed
+    private final Set<UUID> pending = ConcurrentHashMap.newKeySet();
+
+    private final List<ConditionCalculator> calculators = new ArrayList<>();
+
+    LuckPermsHook(ConditionalPerms plugin) {
+        super(plugin);
+        luckPerms = LuckPermsProvider.get();
+    }
+
+    /*
+     * LuckPerms tells us when a players data has been (re)calculated, so we can refresh only the affected players.
+     */
+    @Override
+    public void setup(TerminableConsumer consumer) {
+        consumer.bind(luckPerms.getEventBus().subscribe(getPlugin().getBootstrap(), UserDataRecalculateEvent.class, e ->
+                enqueue(e.getUser().getUniqueId())
+        ));
+
+        consumer.bind(luckPerms.getEventBus().subscribe(getPlugin().getBootstrap(), GroupDataRecalculateEvent.class, e -> {
+            final String group = e.getGroup().getName();
+            for (User user : luckPerms.getUserManager().getLoadedUsers()) {
+                for (Group g : user.getInheritedGroups(user.getQueryOptions())) {
+                    if (g.getName().equals(group)) {
+                        enqueue(user.getUniqueId());
+                        break;
+                    }
+                }
+            }
+        }));
+
+        consumer.bind(() -> {
+            for (ContextCalculator<Player> calculator : calculators) {
+                luckPerms.getContextManager().unregisterCalculator(calculator);
+            }
+            calculators.clear();
+        });
+    }
+
+    /**
+     * Registers a condition as a LuckPerms context, with the key "cperms:name".
+     *
+     * @param name the name of the condition
+     * @param condition the condition
+     */
+    public void registerContext(String name, AbstractCondition<?> condition) {
+        ConditionCalculator calculator = new ConditionCalculator("cperms:" + name, condition);
+        luckPerms.getContextManager().registerCalculator(calculator);
+        calculators.add(calculator);
+    }
+
+    /**
+     * Works out the contexts of a player, and tells LuckPerms if they have changed. Must be called on the thread
+     * which owns the player.
+     *
+     * <p>LuckPerms calculates contexts on its own threads, where most conditions can't be checked, so the values
+     * are worked out here and the calculators only read them back from the {@link PlayerState}.</p>
+     *
+     * @param player the player
+     */
+    public void updateContexts(Player player) {
+        final PlayerState state = getPlugin().getPlayerStates().get(player);
+        if (calculators.isEmpty() || state == null) {
+            return;
+        }
+
+        final ImmutableSetMultimap.Builder<String, String> builder = ImmutableSetMultimap.builder();
+        for (ConditionCalculator calculator : calculators) {
+            builder.putAll(calculator.key, calculator.condition.getContextValues(player));
+        }
+
+        final ImmutableSetMultimap<String, String> contexts = builder.build();
+        if (!contexts.equals(state.getContexts())) {
+            state.setContexts(contexts);
+            luckPerms.getContextManager().signalContextUpdate(player);
+        }
+    }
+
+    /**
+     * Queues a player to be checked on the next tick. LuckPerms events are called async, and often several at
+     * once for the same player, so these are collapsed into a single check.
+     *
+     * <p>The player is looked up in the {@link PlayerState}s rather than through the server, as the server's
+     * player list isn't safe to read from LuckPerms threads.</p>
+     *
+     * @param uuid the uuid of the player
+     */
+    private void enqueue(UUID uuid) {
+        final PlayerState state = getPlugin().getPlayerStates().get(uuid);
+        if (state == null || !pending.add(uuid)) {
+            return;
+        }
+
+        final Player player = state.getPlayer();
+        getPlugin().getScheduler().runLater(player, () -> {
+            pending.remove(uuid);
+            getPlugin().handlePermissionDataReady(player);
+        }, () -> pending.remove(uuid), 1L);
+    }
+
+    @RequiredArgsConstructor
+    private final class ConditionCalculator implements ContextCalculator<Player> {
+        private final String key;
+        private final AbstractCondition<?> condition;
+
+        @Override
+        public void calculate(Player target, ContextConsumer consumer) {
+            // called on LuckPerms threads, so only read the values worked out in updateContexts
+            final PlayerState state = getPlugin().getPlayerStates().get(target);
+            if (state == null) {
+                return;
+            }
+            for (String value : state.getContexts().get(key)) {
+                consumer.accept(key, value);
+            }
+        }
+    }
+}
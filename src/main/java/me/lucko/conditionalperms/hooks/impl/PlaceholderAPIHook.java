@@ -26,37 +26,41 @@ import me.clip.placeholderapi.PlaceholderAPI;
 import me.clip.placeholderapi.PlaceholderAPIPlugin;
 import me.lucko.conditionalperms.ConditionalPerms;
 import me.lucko.conditionalperms.hooks.AbstractHook;
-import me.lucko.helper.Schedulers;
+import me.lucko.conditionalperms.metrics.RefreshCause;
+import me.lucko.conditionalperms.trace.TraceType;
 import me.lucko.helper.terminable.TerminableConsumer;
 
 import org.bukkit.entity.Player;
 
+import java.util.Collections;
+import java.util.Set;
+
 public class PlaceholderAPIHook extends AbstractHook implements Runnable {
+    private static final Set<String> TRACE_CONDITIONS = Collections.singleton("IS_PLACEHOLDER");
+
     public PlaceholderAPIHook(ConditionalPerms plugin) {
         super(plugin);
     }
 
     @Override
     public void setup(TerminableConsumer consumer) {
-        Schedulers.sync().runRepeating(this, 1L, 400L).bindWith(consumer);
+        getPlugin().getScheduler().runRepeating(this, 1L, 400L).bindWith(consumer);
     }
 
     @Override
     public void run() {
         for (Player p : getPlugin().getServer().getOnlinePlayers()) {
-            if (!shouldCheck(PlaceholderAPIHook.class, p.getUniqueId())) {
+            if (!shouldCheck(PlaceholderAPIHook.class, p)) {
                 continue;
             }
 
-            getPlugin().refreshPlayer(p);
+            getPlugin().refreshPlayer(p, RefreshCause.PLACEHOLDER);
         }
     }
 
     public boolean getResult(String placeholder, Player player) {
-        getPlugin().debug("p:" + placeholder);
         String result = PlaceholderAPI.setPlaceholders(player, placeholder);
-
-        getPlugin().debug("r:" + result);
+        getPlugin().getTracer().trace(TraceType.PLACEHOLDER_RESULT, player.getName(), TRACE_CONDITIONS, placeholder, result);
 
         if (result.equalsIgnoreCase(placeholder)) {
             throw new IllegalArgumentException("Placeholder does not exist");
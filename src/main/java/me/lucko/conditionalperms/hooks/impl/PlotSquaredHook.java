@@ -57,12 +57,12 @@ public class PlotSquaredHook extends AbstractHook {
     @Override
     public void setup(TerminableConsumer consumer) {
         Events.subscribe(PlayerLeavePlotEvent.class)
-                .filter(e -> shouldCheck(PlotSquaredHook.class, e.getPlayer().getUniqueId()))
+                .filter(e -> shouldCheck(PlotSquaredHook.class, e.getPlayer()))
                 .handler(e -> getPlugin().getServer().getPluginManager().callEvent(new me.lucko.conditionalperms.events.PlayerLeavePlotEvent(e.getPlayer())))
                 .bindWith(consumer);
 
         Events.subscribe(PlayerEnterPlotEvent.class)
-                .filter(e -> shouldCheck(PlotSquaredHook.class, e.getPlayer().getUniqueId()))
+                .filter(e -> shouldCheck(PlotSquaredHook.class, e.getPlayer()))
                 .handler(e -> getPlugin().getServer().getPluginManager().callEvent(new me.lucko.conditionalperms.events.PlayerEnterPlotEvent(e.getPlayer())))
                 .bindWith(consumer);
     }
@@ -22,67 +22,199 @@
 
 package me.lucko.conditionalperms.hooks.impl;
 
-import com.palmergames.bukkit.towny.Towny;
+import com.palmergames.bukkit.towny.TownySettings;
 import com.palmergames.bukkit.towny.object.PlayerCache;
+import com.palmergames.bukkit.towny.object.TownyUniverse;
+import com.palmergames.bukkit.towny.object.WorldCoord;
 
 import me.lucko.conditionalperms.ConditionalPerms;
+import me.lucko.conditionalperms.PlayerState;
 import me.lucko.conditionalperms.events.PlayerTownyRegionChangeEvent;
 import me.lucko.conditionalperms.hooks.AbstractHook;
+import me.lucko.conditionalperms.metrics.Counter;
+import me.lucko.conditionalperms.metrics.Timer;
+import me.lucko.conditionalperms.utils.SafeRadius;
 import me.lucko.conditionalperms.utils.TownyRegion;
 import me.lucko.helper.Events;
 import me.lucko.helper.terminable.TerminableConsumer;
 
+import org.bukkit.Location;
 import org.bukkit.entity.Player;
 import org.bukkit.event.player.PlayerJoinEvent;
-import org.bukkit.event.player.PlayerMoveEvent;
-import org.bukkit.event.player.PlayerQuitEvent;
-
-import java.util.HashMap;
-import java.util.Map;
-import java.util.UUID;
 
 public class TownyHook extends AbstractHook {
 
-    private final Towny towny;
-    private final Map<UUID, TownyRegion> regions = new HashMap<>();
+    /**
+     * Where the hook reads the status of players. Normally Towny, see {@link #TOWNY}.
+     */
+    public interface StatusSource {
+
+        /**
+         * Works out the status of a player at a location.
+         *
+         * @param player the player
+         * @param location the location to check at
+         * @return the status, or null if it couldn't be worked out
+         */
+        TownyRegion getStatus(Player player, Location location);
+
+        /**
+         * Gets the size of a town block.
+         *
+         * @return the size, in blocks
+         */
+        int getTownBlockSize();
+
+        StatusSource TOWNY = new StatusSource() {
+            @Override
+            public TownyRegion getStatus(Player player, Location location) {
+                return TownyHook.getStatus(player, location);
+            }
+
+            @Override
+            public int getTownBlockSize() {
+                return TownySettings.getTownBlockSize();
+            }
+        };
+    }
+
+    private final StatusSource statuses;
 
     public TownyHook(ConditionalPerms plugin) {
+        this(plugin, StatusSource.TOWNY);
+    }
+
+    /**
+     * Creates the hook with a different source of statuses than Towny.
+     *
+     * @param plugin the plugin
+     * @param statuses the source of statuses
+     */
+    public TownyHook(ConditionalPerms plugin, StatusSource statuses) {
         super(plugin);
-        towny = (Towny) getPlugin().getServer().getPluginManager().getPlugin("Towny");
+        this.statuses = statuses;
     }
 
     @Override
     public void setup(TerminableConsumer consumer) {
+        final Timer moveTimer = getPlugin().getMetrics().timer("hook.towny.move");
+        final Counter skipped = getPlugin().getMetrics().counter("hook.towny.skipped");
+        getPlugin().getMetrics().gauge("hook.towny.players", () -> getPlugin().getPlayerStates().count(s -> s.getTownyRegion() != null));
+
         Events.subscribe(PlayerJoinEvent.class)
-                .handler(e -> regions.put(e.getPlayer().getUniqueId(), getRegion(e.getPlayer())))
+                .handler(e -> track(e.getPlayer()))
                 .bindWith(consumer);
 
-        Events.subscribe(PlayerQuitEvent.class)
-                .handler(e -> regions.remove(e.getPlayer().getUniqueId()))
-                .bindWith(consumer);
+        // the hook is loaded when it's first needed, so start tracking anyone already online. players who are
+        // still logging in are picked up when they join
+        getPlugin().getPlayerStates().forEach(state -> getPlugin().getScheduler().execute(state.getPlayer(), () -> {
+            if (state.getPlayer().isOnline()) {
+                track(state.getPlayer());
+            }
+        }));
+
+        getPlugin().getMovementTracker().subscribe((player, state, from, to) -> {
+            // towny status only depends on the column the player is in
+            if (from.getBlockX() == to.getBlockX() &&
+                    from.getBlockZ() == to.getBlockZ() &&
+                    from.getWorld().equals(to.getWorld())) {
+                return;
+            }
+            if (!shouldCheck(TownyHook.class, state)) {
+                return;
+            }
+
+            // still inside the same town block
+            if (state.getTownySafeRadius().contains(to)) {
+                skipped.increment();
+                return;
+            }
 
-        Events.subscribe(PlayerMoveEvent.class)
-                .filter(e ->
-                        e.getFrom().getBlockX() != e.getTo().getBlockX() ||
-                                e.getFrom().getBlockZ() != e.getTo().getBlockZ() ||
-                                !e.getFrom().getWorld().equals(e.getTo().getWorld()))
-                .filter(e -> shouldCheck(TownyHook.class, e.getPlayer().getUniqueId()))
-                .handler(e -> {
-                    TownyRegion from = regions.get(e.getPlayer().getUniqueId());
-                    TownyRegion to = getRegion(e.getPlayer());
-
-                    if (from == null || to == null || from.equals(to)) {
-                        return;
-                    }
-
-                    getPlugin().getServer().getPluginManager().callEvent(new PlayerTownyRegionChangeEvent(e.getPlayer(), from, to));
-                    regions.put(e.getPlayer().getUniqueId(), to);
-                });
+            final long start = System.nanoTime();
+            try {
+                handleMove(player, to, state);
+            } finally {
+                moveTimer.record(System.nanoTime() - start);
+            }
+        }).bindWith(consumer);
+    }
+
+    private void track(Player player) {
+        final PlayerState state = getPlugin().getPlayerStates().get(player);
+        if (state != null) {
+            final Location location = player.getLocation();
+            final TownyRegion region = getRegion(player, location);
+            state.setTownyRegion(region);
+            updateSafeRadius(state.getTownySafeRadius(), location, region);
+        }
+    }
+
+    private void handleMove(Player player, Location location, PlayerState state) {
+        TownyRegion from = state.getTownyRegion();
+        TownyRegion to = getRegion(player, location);
+        updateSafeRadius(state.getTownySafeRadius(), location, to);
+
+        if (from == null || to == null || from.equals(to)) {
+            return;
+        }
+
+        getPlugin().getServer().getPluginManager().callEvent(new PlayerTownyRegionChangeEvent(player, from, to));
+        state.setTownyRegion(to);
+    }
+
+    /**
+     * The status of a player only changes when they move into another town block, or another world if
+     * Towny isn't enabled in the one they're in. Any other status, such as a player who isn't registered
+     * yet, can change without the player moving, so it's checked again on the next move.
+     *
+     * @param radius the radius to update
+     * @param location the location the status was read at
+     * @param region the status
+     */
+    private void updateSafeRadius(SafeRadius radius, Location location, TownyRegion region) {
+        if (region == null) {
+            radius.clear();
+            return;
+        }
+
+        if (region == TownyRegion.NOT_REGISTERED) {
+            radius.clear();
+            return;
+        }
+
+        if (region == TownyRegion.OFF_WORLD) {
+            radius.set(location, Double.MAX_VALUE, true);
+            return;
+        }
+
+        final int size = statuses.getTownBlockSize();
+        final double x = location.getX() - Math.floor(location.getX() / size) * size;
+        final double z = location.getZ() - Math.floor(location.getZ() / size) * size;
+        radius.set(location, Math.min(Math.min(x, size - x), Math.min(z, size - z)), true);
     }
 
     public TownyRegion getRegion(Player player) {
+        return getRegion(player, player.getLocation());
+    }
+
+    /**
+     * Works out the status of a player at a location. Towny's own cache is only updated by its move
+     * listener, which may not have run yet for this move, so the status is computed directly.
+     *
+     * @param player the player
+     * @param location the location to check at
+     * @return the status, or null if it couldn't be worked out
+     */
+    public TownyRegion getRegion(Player player, Location location) {
+        return statuses.getStatus(player, location);
+    }
+
+    private static TownyRegion getStatus(Player player, Location location) {
         try {
-            PlayerCache.TownBlockStatus status = towny.getCache(player).getStatus();
+            PlayerCache.TownBlockStatus status = TownyUniverse.getCachePermissions().getTownBlockStatus(player, WorldCoord.parseWorldCoord(location));
+            if (status == null) {
+                return null;
+            }
 
             switch (status) {
                 case ADMIN:
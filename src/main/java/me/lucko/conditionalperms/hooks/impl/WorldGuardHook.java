@@ -22,106 +22,353 @@
 
 package me.lucko.conditionalperms.hooks.impl;
 
+import lombok.AccessLevel;
+import lombok.RequiredArgsConstructor;
+
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
-import com.sk89q.worldguard.bukkit.RegionContainer;
-import com.sk89q.worldguard.bukkit.RegionQuery;
+import com.sk89q.worldedit.BlockVector;
+import com.sk89q.worldedit.BlockVector2D;
 import com.sk89q.worldguard.bukkit.WorldGuardPlugin;
-import com.sk89q.worldguard.protection.ApplicableRegionSet;
+import com.sk89q.worldguard.protection.managers.RegionManager;
+import com.sk89q.worldguard.protection.regions.ProtectedCuboidRegion;
 import com.sk89q.worldguard.protection.regions.ProtectedRegion;
+import com.sk89q.worldguard.protection.regions.RegionType;
 
 import me.lucko.conditionalperms.ConditionalPerms;
+import me.lucko.conditionalperms.PlayerState;
 import me.lucko.conditionalperms.events.PlayerEnterRegionEvent;
 import me.lucko.conditionalperms.events.PlayerLeaveRegionEvent;
 import me.lucko.conditionalperms.hooks.AbstractHook;
+import me.lucko.conditionalperms.metrics.Counter;
+import me.lucko.conditionalperms.metrics.Timer;
+import me.lucko.conditionalperms.utils.SafeRadius;
 import me.lucko.helper.Events;
 import me.lucko.helper.terminable.TerminableConsumer;
 
 import org.bukkit.Location;
+import org.bukkit.World;
 import org.bukkit.entity.Player;
 import org.bukkit.event.player.PlayerJoinEvent;
-import org.bukkit.event.player.PlayerMoveEvent;
-import org.bukkit.event.player.PlayerQuitEvent;
 
+import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Map;
+import java.util.List;
 import java.util.Set;
 import java.util.UUID;
 
 public class WorldGuardHook extends AbstractHook {
-    private final WorldGuardPlugin worldGuard;
-    private final Map<UUID, Set<String>> regions = new HashMap<>();
+
+    /**
+     * Where the hook looks up regions. Normally WorldGuard's region managers, see {@link #of(WorldGuardPlugin)}.
+     */
+    public interface RegionSource {
+
+        /**
+         * Gets the regions which contain a location.
+         *
+         * @param location the location
+         * @return the regions
+         */
+        Collection<ProtectedRegion> getApplicableRegions(Location location);
+
+        /**
+         * Gets the regions in a world which overlap an area.
+         *
+         * @param world the world
+         * @param area the area
+         * @return the regions, or null if regions aren't enabled in the world
+         */
+        Collection<ProtectedRegion> getApplicableRegions(World world, ProtectedRegion area);
+
+        static RegionSource of(WorldGuardPlugin worldGuard) {
+            return new RegionSource() {
+                @Override
+                public Collection<ProtectedRegion> getApplicableRegions(Location location) {
+                    return worldGuard.getRegionContainer().createQuery().getApplicableRegions(location).getRegions();
+                }
+
+                @Override
+                public Collection<ProtectedRegion> getApplicableRegions(World world, ProtectedRegion area) {
+                    final RegionManager manager = worldGuard.getRegionContainer().get(world);
+                    return manager == null ? null : manager.getApplicableRegions(area).getRegions();
+                }
+            };
+        }
+    }
+
+    /**
+     * How far around a player to look for region boundaries. The regions found are reused to work out the safe
+     * radius until the player is within half this distance of the edge of the search area.
+     */
+    private static final int SEARCH_RADIUS = 32;
+
+    /**
+     * The furthest a block can be from the centre of a world.
+     */
+    private static final int WORLD_BORDER = 30_000_000;
+
+    private final RegionSource regions;
+    private Counter searches;
 
     WorldGuardHook(ConditionalPerms plugin) {
+        this(plugin, RegionSource.of((WorldGuardPlugin) plugin.getServer().getPluginManager().getPlugin("WorldGuard")));
+    }
+
+    /**
+     * Creates the hook with a different source of regions than WorldGuard.
+     *
+     * @param plugin the plugin
+     * @param regions the source of regions
+     */
+    public WorldGuardHook(ConditionalPerms plugin, RegionSource regions) {
         super(plugin);
-        worldGuard = (WorldGuardPlugin) getPlugin().getServer().getPluginManager().getPlugin("WorldGuard");
+        this.regions = regions;
     }
 
+    /**
+     * Gets the regions a player is in. This is safe to call from any thread.
+     *
+     * @param player the player
+     * @return the regions
+     */
     public ImmutableSet<String> getRegions(Player player) {
-        Set<String> ret = regions.get(player.getUniqueId());
-        if (ret == null || ret.isEmpty()) {
-            return ImmutableSet.of();
-        } else {
-            return ImmutableSet.copyOf(ret);
-        }
+        final PlayerState state = getPlugin().getPlayerStates().get(player);
+        final ImmutableSet<String> ret = state == null ? null : state.getWorldGuardRegions();
+        return ret == null ? ImmutableSet.of() : ret;
     }
 
-    private Set<String> queryRegions(Location location) {
-        RegionContainer container = worldGuard.getRegionContainer();
-        RegionQuery query = container.createQuery();
-        ApplicableRegionSet set = query.getApplicableRegions(location);
+    /**
+     * Gets every region in a world.
+     *
+     * @param world the world
+     * @return the regions, which are empty if regions aren't enabled in the world
+     */
+    public Collection<ProtectedRegion> getAllRegions(World world) {
+        final ProtectedRegion everywhere = new ProtectedCuboidRegion("__cperms_everywhere__",
+                new BlockVector(-WORLD_BORDER, 0, -WORLD_BORDER), new BlockVector(WORLD_BORDER, 255, WORLD_BORDER));
+        final Collection<ProtectedRegion> ret = regions.getApplicableRegions(world, everywhere);
+        return ret == null ? Collections.emptySet() : ret;
+    }
+
+    public Set<String> queryRegions(Location location) {
+        Collection<ProtectedRegion> set = regions.getApplicableRegions(location);
 
-        if (set.size() == 0) {
+        if (set.isEmpty()) {
             return Collections.emptySet();
         }
 
-        final Set<String> regions = new HashSet<>();
-        for (ProtectedRegion r : set.getRegions()) {
-            regions.add(r.getId().toLowerCase());
+        final Set<String> ret = new HashSet<>();
+        for (ProtectedRegion r : set) {
+            ret.add(r.getId().toLowerCase());
         }
 
-        return regions;
+        return ret;
     }
 
     @Override
     public void setup(TerminableConsumer consumer) {
+        final Timer moveTimer = getPlugin().getMetrics().timer("hook.worldguard.move");
+        final Counter skipped = getPlugin().getMetrics().counter("hook.worldguard.skipped");
+        searches = getPlugin().getMetrics().counter("hook.worldguard.searches");
+        getPlugin().getMetrics().gauge("hook.worldguard.players", () -> getPlugin().getPlayerStates().count(s -> s.getWorldGuardRegions() != null));
+
         Events.subscribe(PlayerJoinEvent.class)
-                .handler(e -> regions.put(e.getPlayer().getUniqueId(), new HashSet<>(queryRegions(e.getPlayer().getLocation()))))
+                .handler(e -> track(e.getPlayer()))
                 .bindWith(consumer);
 
-        Events.subscribe(PlayerQuitEvent.class)
-                .handler(e -> regions.remove(e.getPlayer().getUniqueId()))
-                .bindWith(consumer);
+        // the hook is loaded when it's first needed, so start tracking anyone already online. players who are
+        // still logging in are picked up when they join
+        getPlugin().getPlayerStates().forEach(state -> getPlugin().getScheduler().execute(state.getPlayer(), () -> {
+            if (state.getPlayer().isOnline()) {
+                track(state.getPlayer());
+            }
+        }));
 
-        Events.subscribe(PlayerMoveEvent.class)
-                .filter( e ->
-                        e.getFrom().getBlockX() != e.getTo().getBlockX() ||
-                                e.getFrom().getBlockZ() != e.getTo().getBlockZ() ||
-                                e.getFrom().getBlockY() != e.getTo().getBlockY() ||
-                                !e.getFrom().getWorld().equals(e.getTo().getWorld()))
-                .filter(e -> shouldCheck(WorldGuardHook.class, e.getPlayer().getUniqueId()))
-                .handler(e -> {
-                    Set<String> previouslyIn = regions.get(e.getPlayer().getUniqueId());
-                    Set<String> now = queryRegions(e.getPlayer().getLocation());
-
-                    for (String s : previouslyIn) {
-                        if (!now.contains(s)) {
-                            // Fire RegionLeaveEvent
-                            worldGuard.getServer().getPluginManager().callEvent(new PlayerLeaveRegionEvent(e.getPlayer(), s));
-                        }
-                    }
-
-                    for (String s : now) {
-                        if (!previouslyIn.contains(s)) {
-                            // Fire RegionEnterEvent
-                            worldGuard.getServer().getPluginManager().callEvent(new PlayerEnterRegionEvent(e.getPlayer(), s));
-                        }
-                    }
-
-                    previouslyIn.clear();
-                    previouslyIn.addAll(now);
-                })
-                .bindWith(consumer);
+        getPlugin().getMovementTracker().subscribe((player, state, from, to) -> {
+            if (!shouldCheck(WorldGuardHook.class, state) || state.getWorldGuardRegions() == null) {
+                return;
+            }
+
+            // no region boundary could have been crossed since the last query
+            if (state.getWorldGuardSafeRadius().contains(to)) {
+                skipped.increment();
+                return;
+            }
+
+            final long start = System.nanoTime();
+            try {
+                handleMove(player, to, state);
+            } finally {
+                moveTimer.record(System.nanoTime() - start);
+            }
+        }).bindWith(consumer);
+    }
+
+    private void track(Player player) {
+        final PlayerState state = getPlugin().getPlayerStates().get(player);
+        if (state != null) {
+            state.setWorldGuardRegions(ImmutableSet.copyOf(queryRegions(player.getLocation())));
+            // the regions may have changed since the hook was last loaded
+            state.setWorldGuardNearbyRegions(null);
+            updateSafeRadius(state, player.getLocation());
+        }
+    }
+
+    private void handleMove(Player player, Location to, PlayerState state) {
+        ImmutableSet<String> previouslyIn = state.getWorldGuardRegions();
+        Set<String> now = queryRegions(to);
+        updateSafeRadius(state, to);
+        if (previouslyIn.equals(now)) {
+            return;
+        }
+
+        for (String s : previouslyIn) {
+            if (!now.contains(s)) {
+                // Fire RegionLeaveEvent
+                getPlugin().getServer().getPluginManager().callEvent(new PlayerLeaveRegionEvent(player, s));
+            }
+        }
+
+        for (String s : now) {
+            if (!previouslyIn.contains(s)) {
+                // Fire RegionEnterEvent
+                getPlugin().getServer().getPluginManager().callEvent(new PlayerEnterRegionEvent(player, s));
+            }
+        }
+
+        // replace the set rather than modifying it, so it can be read safely from other threads
+        state.setWorldGuardRegions(ImmutableSet.copyOf(now));
+    }
+
+    /**
+     * Works out how far a player can move from a location before they could enter or leave any region, by
+     * looking at the boundaries of every region near the location. The regions near the player are only
+     * searched for again once they get close to the edge of the last search area.
+     *
+     * @param state the state of the player
+     * @param location the location the regions were queried at
+     */
+    private void updateSafeRadius(PlayerState state, Location location) {
+        final SafeRadius radius = state.getWorldGuardSafeRadius();
+        final int x = location.getBlockX();
+        final int y = location.getBlockY();
+        final int z = location.getBlockZ();
+
+        NearbyRegions nearby = state.getWorldGuardNearbyRegions();
+        if (nearby == null || nearby.margin(location) < SEARCH_RADIUS / 2) {
+            final ProtectedRegion area = new ProtectedCuboidRegion("__cperms_search__",
+                    new BlockVector(x - SEARCH_RADIUS, y - SEARCH_RADIUS, z - SEARCH_RADIUS),
+                    new BlockVector(x + SEARCH_RADIUS, y + SEARCH_RADIUS, z + SEARCH_RADIUS));
+            final Collection<ProtectedRegion> found = regions.getApplicableRegions(location.getWorld(), area);
+            if (found == null) {
+                state.setWorldGuardNearbyRegions(null);
+                radius.clear();
+                return;
+            }
+
+            nearby = new NearbyRegions(location.getWorld().getUID(), x, y, z, ImmutableList.copyOf(found));
+            state.setWorldGuardNearbyRegions(nearby);
+            searches.increment();
+        }
+
+        // regions which don't overlap the search area are at least this far away
+        double safe = nearby.margin(location) - 1;
+        for (ProtectedRegion region : nearby.regions) {
+            safe = Math.min(safe, distanceToBoundary(region, x, y, z));
+            if (safe <= 0) {
+                break;
+            }
+        }
+        radius.set(location, safe, false);
+    }
+
+    /**
+     * The regions which overlapped a search area around a block.
+     */
+    @RequiredArgsConstructor(access = AccessLevel.PRIVATE)
+    public static final class NearbyRegions {
+        private final UUID world;
+        private final int x;
+        private final int y;
+        private final int z;
+        private final List<ProtectedRegion> regions;
+
+        /**
+         * Gets how many blocks a location is from the edge of the search area, along the closest axis.
+         *
+         * @param location the location
+         * @return the distance, or a negative number if the location is outside the area
+         */
+        private int margin(Location location) {
+            if (location.getWorld() == null || !location.getWorld().getUID().equals(world)) {
+                return -1;
+            }
+            final int dx = Math.abs(location.getBlockX() - x);
+            final int dy = Math.abs(location.getBlockY() - y);
+            final int dz = Math.abs(location.getBlockZ() - z);
+            return SEARCH_RADIUS - Math.max(dx, Math.max(dy, dz));
+        }
+    }
+
+    /**
+     * Gets a lower bound on how far a player at the given block can move before they could cross the boundary of
+     * a region, in either direction.
+     */
+    private static double distanceToBoundary(ProtectedRegion region, int x, int y, int z) {
+        if (region.getType() == RegionType.GLOBAL) {
+            return Double.MAX_VALUE;
+        }
+
+        final BlockVector min = region.getMinimumPoint();
+        final BlockVector max = region.getMaximumPoint();
+
+        // outside the bounding box, the region can't be entered until the box is reached
+        final int dx = Math.max(0, Math.max(min.getBlockX() - x, x - max.getBlockX()));
+        final int dy = Math.max(0, Math.max(min.getBlockY() - y, y - max.getBlockY()));
+        final int dz = Math.max(0, Math.max(min.getBlockZ() - z, z - max.getBlockZ()));
+        if (dx != 0 || dy != 0 || dz != 0) {
+            // moving less than n blocks can change the block position by n, so allow one block of slack per axis
+            final int sx = Math.max(0, dx - 1);
+            final int sy = Math.max(0, dy - 1);
+            final int sz = Math.max(0, dz - 1);
+            return Math.sqrt(sx * sx + sy * sy + sz * sz);
+        }
+
+        // inside the bounding box, the top and bottom are always boundaries
+        final int vertical = Math.min(y - min.getBlockY(), max.getBlockY() - y);
+        if (region.getType() == RegionType.CUBOID) {
+            return Math.min(vertical, Math.min(
+                    Math.min(x - min.getBlockX(), max.getBlockX() - x),
+                    Math.min(z - min.getBlockZ(), max.getBlockZ() - z)
+            ));
+        }
+
+        if (region.getType() == RegionType.POLYGON) {
+            final List<BlockVector2D> points = region.getPoints();
+            double edge = Double.MAX_VALUE;
+            for (int i = 0; i < points.size(); i++) {
+                final BlockVector2D a = points.get(i);
+                final BlockVector2D b = points.get((i + 1) % points.size());
+                edge = Math.min(edge, distanceToSegment(x, z, a.getBlockX(), a.getBlockZ(), b.getBlockX(), b.getBlockZ()));
+            }
+            // polygon edges are on block corners rather than centres, so allow a little more slack
+            return Math.min(vertical, edge - 2);
+        }
+
+        // unknown region shapes are always queried
+        return 0;
+    }
+
+    private static double distanceToSegment(double px, double pz, double ax, double az, double bx, double bz) {
+        final double vx = bx - ax;
+        final double vz = bz - az;
+        final double lengthSquared = vx * vx + vz * vz;
+        double t = lengthSquared == 0 ? 0 : ((px - ax) * vx + (pz - az) * vz) / lengthSquared;
+        t = Math.max(0, Math.min(1, t));
+        final double dx = px - (ax + t * vx);
+        final double dz = pz - (az + t * vz);
+        return Math.sqrt(dx * dx + dz * dz);
     }
 }
@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2017 Lucko (Luck) <luck@lucko.me>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+
+package me.lucko.conditionalperms.metrics;
+
+/**
+ * Counts how many times something has happened.
+ */
+public final class Counter extends RollingMetric {
+    private final long[] counts = new long[Metrics.SLOTS];
+    private long total = 0;
+
+    Counter(String name) {
+        super(name);
+    }
+
+    public synchronized void increment() {
+        add(1);
+    }
+
+    public synchronized void add(long n) {
+        counts[rotate(System.nanoTime())] += n;
+        total += n;
+    }
+
+    /**
+     * Gets the count over a window.
+     *
+     * @param window the window
+     * @return the count
+     */
+    public synchronized long get(Metrics.Window window) {
+        final int current = rotate(System.nanoTime());
+        long sum = 0;
+        for (int i = 0; i < window.getSlots(); i++) {
+            sum += counts[before(current, i)];
+        }
+        return sum;
+    }
+
+    /**
+     * Gets the count since the plugin was enabled.
+     *
+     * @return the count
+     */
+    public synchronized long getTotal() {
+        return total;
+    }
+
+    @Override
+    void clear(int slot) {
+        counts[slot] = 0;
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2017 Lucko (Luck) <luck@lucko.me>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+
+package me.lucko.conditionalperms.metrics;
+
+import java.util.function.LongSupplier;
+
+/**
+ * A value which goes up and down, such as the length of a queue. The peak value is kept for each window.
+ */
+public final class Gauge extends RollingMetric {
+    private final long[] max = new long[Metrics.SLOTS];
+    private long value = 0;
+
+    // if set, the value is read from here whenever the metrics are sampled
+    private final LongSupplier source;
+
+    Gauge(String name) {
+        this(name, null);
+    }
+
+    Gauge(String name, LongSupplier source) {
+        super(name);
+        this.source = source;
+    }
+
+    synchronized void sample() {
+        if (source != null) {
+            set(source.getAsLong());
+        }
+    }
+
+    public synchronized void set(long value) {
+        this.value = value;
+        final int slot = rotate(System.nanoTime());
+        if (value > max[slot]) {
+            max[slot] = value;
+        }
+    }
+
+    public synchronized void increment() {
+        set(value + 1);
+    }
+
+    public synchronized void decrement() {
+        set(value - 1);
+    }
+
+    public synchronized long get() {
+        return value;
+    }
+
+    public synchronized long getMax(Metrics.Window window) {
+        final int current = rotate(System.nanoTime());
+        long ret = value;
+        for (int i = 0; i < window.getSlots(); i++) {
+            ret = Math.max(ret, max[before(current, i)]);
+        }
+        return ret;
+    }
+
+    @Override
+    void clear(int slot) {
+        max[slot] = 0;
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2017 Lucko (Luck) <luck@lucko.me>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+
+package me.lucko.conditionalperms.metrics;
+
+/**
+ * A {@link Timer} which also keeps a histogram of timings, so percentiles can be estimated.
+ *
+ * <p>Buckets are powers of two in microseconds, so percentiles are only accurate to within a factor of two.
+ * This is plenty to tell a slow refresh from a fast one, and keeps the memory used small.</p>
+ */
+public final class Histogram extends Timer {
+    static final int BUCKETS = 32;
+
+    private final long[][] buckets = new long[Metrics.SLOTS][BUCKETS];
+    private final long[] totalBuckets = new long[BUCKETS];
+
+    Histogram(String name) {
+        super(name);
+    }
+
+    @Override
+    void recorded(int slot, long duration) {
+        final int bucket = bucket(duration);
+        buckets[slot][bucket]++;
+        totalBuckets[bucket]++;
+    }
+
+    /**
+     * Gets the number of timings which have fallen into a bucket since the plugin was enabled.
+     *
+     * @param bucket the bucket
+     * @return the count
+     */
+    synchronized long getTotalBucket(int bucket) {
+        return totalBuckets[bucket];
+    }
+
+    /**
+     * Estimates a percentile over a window.
+     *
+     * @param window the window
+     * @param p the percentile, between 0 and 1
+     * @return the upper bound of the bucket containing the percentile, in nanoseconds, or 0 if there are no timings
+     */
+    public synchronized long getPercentile(Metrics.Window window, double p) {
+        final int current = rotate(System.nanoTime());
+        final long[] merged = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < window.getSlots(); i++) {
+            final long[] slot = buckets[before(current, i)];
+            for (int b = 0; b < BUCKETS; b++) {
+                merged[b] += slot[b];
+                count += slot[b];
+            }
+        }
+        if (count == 0) {
+            return 0;
+        }
+
+        final long rank = (long) Math.ceil(p * count);
+        long seen = 0;
+        for (int b = 0; b < BUCKETS; b++) {
+            seen += merged[b];
+            if (seen >= rank) {
+                return upperBound(b);
+            }
+        }
+        return upperBound(BUCKETS - 1);
+    }
+
+    /**
+     * Gets the bucket a timing falls into.
+     *
+     * @param nanos the timing
+     * @return the bucket
+     */
+    static int bucket(long nanos) {
+        final long micros = nanos / 1000;
+        return Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+    }
+
+    /**
+     * Gets the largest timing which falls into a bucket.
+     *
+     * @param bucket the bucket
+     * @return the timing, in nanoseconds
+     */
+    static long upperBound(int bucket) {
+        return (1L << bucket) * 1000;
+    }
+
+    @Override
+    void clear(int slot) {
+        super.clear(slot);
+        final long[] b = buckets[slot];
+        for (int i = 0; i < BUCKETS; i++) {
+            b[i] = 0;
+        }
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2017 Lucko (Luck) <luck@lucko.me>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+
+package me.lucko.conditionalperms.metrics;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import com.google.common.collect.ImmutableList;
+
+import me.lucko.conditionalperms.ConditionalPerms;
+
+import org.bukkit.command.CommandSender;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+/**
+ * A registry of the metrics recorded by the plugin.
+ *
+ * <p>Metrics should be looked up once and kept, so recording a value doesn't need a map lookup.</p>
+ */
+public class Metrics {
+    static final long SLOT_NANOS = TimeUnit.SECONDS.toNanos(5);
+    static final int SLOTS = 180;
+
+    @Getter
+    @AllArgsConstructor
+    public enum Window {
+        ONE_MINUTE("1m", 12),
+        FIVE_MINUTES("5m", 60),
+        FIFTEEN_MINUTES("15m", 180);
+
+        private final String label;
+        private final int slots;
+    }
+
+    // hooks register their metrics when they are first loaded, which can be on any thread
+    private final Map<String, RollingMetric> metrics = new LinkedHashMap<>();
+
+    public Counter counter(String name) {
+        return get(name, Counter.class, Counter::new);
+    }
+
+    public Timer timer(String name) {
+        return get(name, Timer.class, Timer::new);
+    }
+
+    public Histogram histogram(String name) {
+        return get(name, Histogram.class, Histogram::new);
+    }
+
+    public Gauge gauge(String name) {
+        return get(name, Gauge.class, Gauge::new);
+    }
+
+    /**
+     * Registers a gauge which reads its value from a supplier whenever the metrics are sampled, see
+     * {@link #sample()}. The supplier is called on the main thread.
+     *
+     * @param name the name of the gauge
+     * @param source the source of the value
+     * @return the gauge
+     */
+    public Gauge gauge(String name, LongSupplier source) {
+        return get(name, Gauge.class, n -> new Gauge(n, source));
+    }
+
+    /**
+     * Updates all of the gauges which read their value from a supplier.
+     */
+    public void sample() {
+        for (RollingMetric metric : getMetrics()) {
+            if (metric instanceof Gauge) {
+                ((Gauge) metric).sample();
+            }
+        }
+    }
+
+    public synchronized Collection<RollingMetric> getMetrics() {
+        return ImmutableList.copyOf(metrics.values());
+    }
+
+    private synchronized <T extends RollingMetric> T get(String name, Class<T> type, Function<String, T> constructor) {
+        final RollingMetric metric = metrics.computeIfAbsent(name, constructor);
+        if (!type.isInstance(metric)) {
+            throw new IllegalArgumentException("Metric " + name + " is a " + metric.getClass().getSimpleName() + ", not a " + type.getSimpleName());
+        }
+        return type.cast(metric);
+    }
+
+    /**
+     * Reports all of the metrics over each window.
+     *
+     * <p>Only the ten timers with the most total time in the last 15 minutes are shown.</p>
+     *
+     * @param sender the sender to report to
+     */
+    public void report(CommandSender sender) {
+        sample();
+
+        final Window[] windows = Window.values();
+        ConditionalPerms.msg(sender, "Metrics over the last &b1m&7 / &b5m&7 / &b15m&7:");
+
+        final List<Timer> timers = new ArrayList<>();
+        for (RollingMetric metric : getMetrics()) {
+            if (metric instanceof Histogram) {
+                final Histogram h = (Histogram) metric;
+                final StringBuilder sb = new StringBuilder("&f" + h.getName() + "&7:");
+                for (Window w : windows) {
+                    sb.append(String.format(" &b%d&7 (p50 &b%.2fms&7, p99 &b%.2fms&7, max &b%.2fms&7)",
+                            h.getCount(w), millis(h.getPercentile(w, 0.50)), millis(h.getPercentile(w, 0.99)), millis(h.getMax(w))));
+                }
+                ConditionalPerms.msg(sender, sb.toString());
+            } else if (metric instanceof Timer) {
+                if (((Timer) metric).getCount(Window.FIFTEEN_MINUTES) != 0) {
+                    timers.add((Timer) metric);
+                }
+            } else if (metric instanceof Counter) {
+                final Counter c = (Counter) metric;
+                if (c.getTotal() == 0) {
+                    continue;
+                }
+
+                final StringBuilder sb = new StringBuilder("&f" + c.getName() + "&7:");
+                for (int i = 0; i < windows.length; i++) {
+                    sb.append(i == 0 ? " " : " / ").append("&b").append(c.get(windows[i])).append("&7");
+                }
+                ConditionalPerms.msg(sender, sb.toString());
+            } else if (metric instanceof Gauge) {
+                final Gauge g = (Gauge) metric;
+                final StringBuilder sb = new StringBuilder("&f" + g.getName() + "&7: now &b" + g.get() + "&7, peak");
+                for (int i = 0; i < windows.length; i++) {
+                    sb.append(i == 0 ? " " : " / ").append("&b").append(g.getMax(windows[i])).append("&7");
+                }
+                ConditionalPerms.msg(sender, sb.toString());
+            }
+        }
+
+        timers.sort((a, b) -> Long.compare(b.getNanos(Window.FIFTEEN_MINUTES), a.getNanos(Window.FIFTEEN_MINUTES)));
+        for (Timer t : timers.subList(0, Math.min(10, timers.size()))) {
+            final StringBuilder sb = new StringBuilder("&f" + t.getName() + "&7:");
+            for (int i = 0; i < windows.length; i++) {
+                final long count = t.getCount(windows[i]);
+                final long nanos = t.getNanos(windows[i]);
+                sb.append(String.format(i == 0 ? " &b%.2fms&7 (%d calls, avg &b%.1fus&7)" : " / &b%.2fms&7 (%d, &b%.1fus&7)",
+                        millis(nanos), count, count == 0 ? 0.0 : nanos / 1000.0 / count));
+            }
+            ConditionalPerms.msg(sender, sb.toString());
+        }
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1_000_000.0;
+    }
+}
@@ -0,0 +1,329 @@
+/*
+ * Copyright (c) 2017 Lucko (Luck) <luck@lucko.me>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+
+package me.lucko.conditionalperms.metrics;
+
+import com.sun.net.httpserver.HttpServer;
+
+import me.lucko.conditionalperms.ConditionalPerms;
+import me.lucko.helper.terminable.TerminableConsumer;
+import me.lucko.helper.terminable.module.TerminableModule;
+
+import org.bukkit.configuration.ConfigurationSection;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+/**
+ * Exports the plugins {@link Metrics} over JMX, and in the Prometheus text format over HTTP or to a file.
+ *
+ * <p>The metrics are copied into a {@link Snapshot} every few seconds, on the main thread. Exporters only ever
+ * read the latest snapshot, so the cost on the main thread doesn't depend on how often the metrics are scraped,
+ * and nothing is allocated when a value is recorded.</p>
+ */
+public class MetricsExporter implements TerminableModule {
+    private static final long SNAPSHOT_INTERVAL = 100L;
+
+    private final ConditionalPerms plugin;
+    private final boolean jmx;
+    private final String bind;
+    private final int port;
+    private final String file;
+
+    private volatile Snapshot snapshot = null;
+
+    public MetricsExporter(ConditionalPerms plugin) {
+        this.plugin = plugin;
+
+        final ConfigurationSection config = plugin.getConfig().getConfigurationSection("metrics");
+        this.jmx = config != null && config.getBoolean("jmx", false);
+        this.bind = config == null ? "127.0.0.1" : config.getString("prometheus.bind", "127.0.0.1");
+        this.port = config == null ? 0 : config.getInt("prometheus.port", 0);
+        this.file = config == null ? "" : config.getString("prometheus.file", "");
+    }
+
+    public boolean isEnabled() {
+        return jmx || port > 0 || !file.isEmpty();
+    }
+
+    @Override
+    public void setup(TerminableConsumer consumer) {
+        if (!isEnabled()) {
+            return;
+        }
+
+        plugin.getScheduler().runRepeating(this::snapshot, 1L, SNAPSHOT_INTERVAL).bindWith(consumer);
+
+        if (jmx) {
+            try {
+                final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+                final ObjectName name = new ObjectName("me.lucko.conditionalperms:type=Metrics");
+                server.registerMBean(new MetricsBean(), name);
+                consumer.bind(() -> server.unregisterMBean(name));
+            } catch (Exception e) {
+                plugin.getLogger().log(Level.SEVERE, "Unable to register metrics MBean", e);
+            }
+        }
+
+        if (port > 0) {
+            final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+                final Thread thread = new Thread(r, "cperms-metrics");
+                thread.setDaemon(true);
+                return thread;
+            });
+            try {
+                final HttpServer server = HttpServer.create(new InetSocketAddress(bind, port), 0);
+                server.createContext("/metrics", exchange -> {
+                    final byte[] body = prometheus();
+                    exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+                    exchange.sendResponseHeaders(200, body.length);
+                    try (OutputStream out = exchange.getResponseBody()) {
+                        out.write(body);
+                    }
+                });
+                server.setExecutor(executor);
+                server.start();
+                consumer.bind(() -> {
+                    server.stop(0);
+                    executor.shutdown();
+                });
+                plugin.getLogger().info("Serving metrics on http://" + bind + ":" + port + "/metrics");
+            } catch (IOException e) {
+                executor.shutdown();
+                plugin.getLogger().log(Level.SEVERE, "Unable to start metrics server on " + bind + ":" + port, e);
+            }
+        }
+
+    }
+
+    private void snapshot() {
+        final Metrics metrics = plugin.getMetrics();
+        metrics.sample();
+
+        final List<RollingMetric> list = new ArrayList<>(metrics.getMetrics());
+        final int[] offsets = new int[list.size() + 1];
+        for (int i = 0; i < list.size(); i++) {
+            offsets[i + 1] = offsets[i] + width(list.get(i));
+        }
+
+        final long[] values = new long[offsets[list.size()]];
+        for (int i = 0; i < list.size(); i++) {
+            final RollingMetric metric = list.get(i);
+            final int o = offsets[i];
+            if (metric instanceof Counter) {
+                values[o] = ((Counter) metric).getTotal();
+            } else if (metric instanceof Gauge) {
+                values[o] = ((Gauge) metric).get();
+            } else if (metric instanceof Timer) {
+                final Timer t = (Timer) metric;
+                values[o] = t.getTotalCount();
+                values[o + 1] = t.getTotalNanos();
+                if (metric instanceof Histogram) {
+                    long cumulative = 0;
+                    for (int b = 0; b < Histogram.BUCKETS; b++) {
+                        cumulative += ((Histogram) metric).getTotalBucket(b);
+                        values[o + 2 + b] = cumulative;
+                    }
+                }
+            }
+        }
+
+        snapshot = new Snapshot(list, offsets, values);
+
+        if (!file.isEmpty()) {
+            final File target = new File(plugin.getDataFolder(), file);
+            plugin.getScheduler().runAsync(() -> write(target));
+        }
+    }
+
+    private static int width(RollingMetric metric) {
+        if (metric instanceof Histogram) {
+            return 2 + Histogram.BUCKETS;
+        } else if (metric instanceof Timer) {
+            return 2;
+        } else {
+            return 1;
+        }
+    }
+
+    private void write(File target) {
+        final Snapshot snapshot = this.snapshot;
+        if (snapshot == null) {
+            return;
+        }
+
+        try {
+            final File tmp = new File(target.getParentFile(), target.getName() + ".tmp");
+            Files.write(tmp.toPath(), prometheus());
+            Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            plugin.getLogger().log(Level.WARNING, "Unable to write metrics to " + target, e);
+        }
+    }
+
+    /**
+     * Formats the latest snapshot in the Prometheus text exposition format.
+     *
+     * @return the formatted metrics
+     */
+    private byte[] prometheus() {
+        final Snapshot snapshot = this.snapshot;
+        if (snapshot == null) {
+            return new byte[0];
+        }
+
+        final StringBuilder sb = new StringBuilder(snapshot.values.length * 48);
+        for (int i = 0; i < snapshot.metrics.size(); i++) {
+            final RollingMetric metric = snapshot.metrics.get(i);
+            final String name = "cperms_" + metric.getName().replace('.', '_');
+            final int o = snapshot.offsets[i];
+
+            if (metric instanceof Counter) {
+                sb.append("# TYPE ").append(name).append("_total counter\n");
+                sb.append(name).append("_total ").append(snapshot.values[o]).append('\n');
+            } else if (metric instanceof Gauge) {
+                sb.append("# TYPE ").append(name).append(" gauge\n");
+                sb.append(name).append(' ').append(snapshot.values[o]).append('\n');
+            } else if (metric instanceof Timer) {
+                final boolean histogram = metric instanceof Histogram;
+                sb.append("# TYPE ").append(name).append("_seconds ").append(histogram ? "histogram" : "summary").append('\n');
+                if (histogram) {
+                    for (int b = 0; b < Histogram.BUCKETS - 1; b++) {
+                        sb.append(name).append("_seconds_bucket{le=\"").append(Histogram.upperBound(b) / 1e9).append("\"} ").append(snapshot.values[o + 2 + b]).append('\n');
+                    }
+                    sb.append(name).append("_seconds_bucket{le=\"+Inf\"} ").append(snapshot.values[o]).append('\n');
+                }
+                sb.append(name).append("_seconds_count ").append(snapshot.values[o]).append('\n');
+                sb.append(name).append("_seconds_sum ").append(snapshot.values[o + 1] / 1e9).append('\n');
+            }
+        }
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * A copy of the metric values, taken on the main thread.
+     */
+    private static final class Snapshot {
+        private final List<RollingMetric> metrics;
+        private final int[] offsets;
+        private final long[] values;
+        private final Map<String, Integer> attributes = new HashMap<>();
+
+        private Snapshot(List<RollingMetric> metrics, int[] offsets, long[] values) {
+            this.metrics = metrics;
+            this.offsets = offsets;
+            this.values = values;
+
+            for (int i = 0; i < metrics.size(); i++) {
+                final RollingMetric metric = metrics.get(i);
+                if (metric instanceof Timer) {
+                    attributes.put(metric.getName() + ".count", offsets[i]);
+                    attributes.put(metric.getName() + ".nanos", offsets[i] + 1);
+                } else {
+                    attributes.put(metric.getName(), offsets[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Exposes the latest snapshot as read only JMX attributes.
+     */
+    private final class MetricsBean implements DynamicMBean {
+
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            final Snapshot snapshot = MetricsExporter.this.snapshot;
+            final Integer index = snapshot == null ? null : snapshot.attributes.get(attribute);
+            if (index == null) {
+                throw new AttributeNotFoundException(attribute);
+            }
+            return snapshot.values[index];
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            final AttributeList list = new AttributeList();
+            for (String attribute : attributes) {
+                try {
+                    list.add(new Attribute(attribute, getAttribute(attribute)));
+                } catch (AttributeNotFoundException e) {
+                    // skip
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException("Metrics are read only");
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+            // there are no operations, only attributes
+            throw new ReflectionException(new NoSuchMethodException(actionName), "Unknown operation " + actionName);
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            final Snapshot snapshot = MetricsExporter.this.snapshot;
+            final List<MBeanAttributeInfo> attributes = new ArrayList<>();
+            if (snapshot != null) {
+                for (String name : snapshot.attributes.keySet()) {
+                    attributes.add(new MBeanAttributeInfo(name, "long", name, true, false, false));
+                }
+            }
+            return new MBeanInfo(MetricsExporter.class.getName(), "ConditionalPerms metrics",
+                    attributes.toArray(new MBeanAttributeInfo[0]), null, null, null);
+        }
+    }
+}
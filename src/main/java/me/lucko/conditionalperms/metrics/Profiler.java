@@ -0,0 +1,227 @@
+/*
+ * Copyright (c) 2017 Lucko (Luck) <luck@lucko.me>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+
+package me.lucko.conditionalperms.metrics;
+
+import lombok.RequiredArgsConstructor;
+
+import me.lucko.conditionalperms.ConditionalPerms;
+
+import org.bukkit.command.CommandSender;
+import org.bukkit.entity.Player;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.logging.Level;
+
+/**
+ * Records where evaluation time is spent over a fixed period, broken down by player and by condition and
+ * parameter, then writes a ranked report to the plugin folder.
+ *
+ * <p>The record methods do nothing unless a profile is being taken. Recording whilst profiling is synchronised.</p>
+ */
+@RequiredArgsConstructor
+public class Profiler {
+    private static final RefreshCause[] CAUSES = RefreshCause.values();
+
+    private final ConditionalPerms plugin;
+
+    private volatile boolean profiling = false;
+    private CommandSender reportTo = null;
+    private long startTime = 0;
+
+    private final Map<UUID, PlayerEntry> players = new HashMap<>();
+    private final Map<String, Map<Object, ConditionEntry>> conditions = new HashMap<>();
+
+    public boolean isProfiling() {
+        return profiling;
+    }
+
+    /**
+     * Starts profiling, and writes the report when complete.
+     *
+     * @param sender the sender to report to
+     * @param ticks the number of ticks to profile for
+     */
+    public synchronized void start(CommandSender sender, int ticks) {
+        players.clear();
+        conditions.clear();
+        reportTo = sender;
+        startTime = System.currentTimeMillis();
+        profiling = true;
+        plugin.getScheduler().runLater(this::finish, ticks);
+    }
+
+    public void recordRefresh(Player player, RefreshCause cause, long nanos) {
+        if (!profiling) {
+            return;
+        }
+
+        synchronized (this) {
+            final PlayerEntry entry = players.computeIfAbsent(player.getUniqueId(), u -> new PlayerEntry(player.getName()));
+            entry.refreshes++;
+            entry.nanos += nanos;
+            entry.causes[cause.ordinal()]++;
+        }
+    }
+
+    /**
+     * Records the time taken to check a condition. Callers should check {@link #isProfiling()} first if working
+     * out the name of the condition isn't free.
+     *
+     * @param condition the name of the condition
+     * @param parameter the parameter, or null
+     * @param nanos the time taken
+     */
+    public void recordCondition(String condition, Object parameter, long nanos) {
+        if (!profiling) {
+            return;
+        }
+
+        synchronized (this) {
+            final ConditionEntry entry = conditions.computeIfAbsent(condition, c -> new HashMap<>())
+                    .computeIfAbsent(parameter, p -> new ConditionEntry(condition, p));
+            entry.calls++;
+            entry.nanos += nanos;
+        }
+    }
+
+    private synchronized void finish() {
+        profiling = false;
+
+        final List<PlayerEntry> playerList = new ArrayList<>(players.values());
+        playerList.sort((a, b) -> Long.compare(b.nanos, a.nanos));
+
+        final List<ConditionEntry> conditionList = new ArrayList<>();
+        for (Map<Object, ConditionEntry> byParameter : conditions.values()) {
+            conditionList.addAll(byParameter.values());
+        }
+        conditionList.sort((a, b) -> Long.compare(b.nanos, a.nanos));
+
+        final long[] causes = new long[CAUSES.length];
+        long refreshes = 0;
+        long refreshNanos = 0;
+        for (PlayerEntry e : playerList) {
+            refreshes += e.refreshes;
+            refreshNanos += e.nanos;
+            for (int i = 0; i < causes.length; i++) {
+                causes[i] += e.causes[i];
+            }
+        }
+
+        final List<String> lines = new ArrayList<>();
+        lines.add("ConditionalPerms profile, started " + new Date(startTime) + ", " + (System.currentTimeMillis() - startTime) / 1000 + " seconds");
+        lines.add(String.format("%d refreshes, %.3fms total", refreshes, refreshNanos / 1_000_000.0));
+        lines.add("");
+        lines.add("Refreshes by cause:");
+        for (int i = 0; i < causes.length; i++) {
+            if (causes[i] != 0) {
+                lines.add(String.format("  %-12s %d", CAUSES[i].name().toLowerCase(), causes[i]));
+            }
+        }
+        lines.add("");
+        lines.add("Players, by total refresh time:");
+        for (PlayerEntry e : playerList) {
+            lines.add(String.format("  %-16s %10.3fms %6d refreshes  %s", e.name, e.nanos / 1_000_000.0, e.refreshes, e.formatCauses()));
+        }
+        lines.add("");
+        lines.add("Conditions, by total evaluation time:");
+        for (ConditionEntry e : conditionList) {
+            lines.add(String.format("  %-40s %10.3fms %8d calls %8.2fus avg", e.getName(), e.nanos / 1_000_000.0, e.calls, e.nanos / 1000.0 / e.calls));
+        }
+
+        ConditionalPerms.msg(reportTo, String.format("Profiled &b%d&7 refreshes taking &b%.3fms&7.", refreshes, refreshNanos / 1_000_000.0));
+        for (int i = 0; i < Math.min(3, playerList.size()); i++) {
+            final PlayerEntry e = playerList.get(i);
+            ConditionalPerms.msg(reportTo, String.format("&7- player &b%s&7: &b%.3fms&7, %d refreshes", e.name, e.nanos / 1_000_000.0, e.refreshes));
+        }
+        for (int i = 0; i < Math.min(3, conditionList.size()); i++) {
+            final ConditionEntry e = conditionList.get(i);
+            ConditionalPerms.msg(reportTo, String.format("&7- condition &b%s&7: &b%.3fms&7, %d calls", e.getName(), e.nanos / 1_000_000.0, e.calls));
+        }
+
+        final File file = new File(new File(plugin.getDataFolder(), "profiles"), new SimpleDateFormat("yyyy-MM-dd_HH-mm-ss").format(new Date(startTime)) + ".txt");
+        final CommandSender sender = reportTo;
+        plugin.getScheduler().runAsync(() -> {
+            String result;
+            try {
+                file.getParentFile().mkdirs();
+                try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8))) {
+                    lines.forEach(writer::println);
+                }
+                result = "&7Full report written to &b" + file.getName() + "&7.";
+            } catch (IOException e) {
+                plugin.getLogger().log(Level.SEVERE, "Exception thrown whilst writing profile", e);
+                result = "&7Unable to write the report, see the console for details.";
+            }
+
+            // senders can only be messaged from the main thread
+            final String message = result;
+            plugin.getScheduler().runLater(() -> ConditionalPerms.msg(sender, message), 1L);
+        });
+
+        players.clear();
+        conditions.clear();
+        reportTo = null;
+    }
+
+    @RequiredArgsConstructor
+    private static final class PlayerEntry {
+        private final String name;
+        private final long[] causes = new long[CAUSES.length];
+        private long refreshes = 0;
+        private long nanos = 0;
+
+        private String formatCauses() {
+            final StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < causes.length; i++) {
+                if (causes[i] != 0) {
+                    sb.append(sb.length() == 0 ? "" : ", ").append(CAUSES[i].name().toLowerCase()).append('=').append(causes[i]);
+                }
+            }
+            return sb.toString();
+        }
+    }
+
+    @RequiredArgsConstructor
+    private static final class ConditionEntry {
+        private final String condition;
+        private final Object parameter;
+        private long calls = 0;
+        private long nanos = 0;
+
+        private String getName() {
+            return parameter == null ? condition : condition + "=" + parameter;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2017 Lucko (Luck) <luck@lucko.me>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+
+package me.lucko.conditionalperms.metrics;
+
+/**
+ * A metric which keeps its values in a ring of fixed length time slots, so they can be summed over the last
+ * few minutes without keeping every sample.
+ *
+ * <p>Slots are rotated lazily, whenever the metric is written to or read. Subclasses synchronise every access,
+ * and call {@link #rotate(long)} whilst holding the lock.</p>
+ */
+public abstract class RollingMetric {
+    private final String name;
+    private long currentSlot = Long.MIN_VALUE;
+
+    RollingMetric(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Moves the ring forward to the slot containing the given time, clearing any slots which have expired.
+     *
+     * <p>{@link System#nanoTime()} can be negative, so slots are found with floor division and modulus.</p>
+     *
+     * @param now the current {@link System#nanoTime()}
+     * @return the index of the current slot
+     */
+    final int rotate(long now) {
+        final long slot = Math.floorDiv(now, Metrics.SLOT_NANOS);
+        if (slot != currentSlot) {
+            final long first = currentSlot == Long.MIN_VALUE ? slot : Math.max(currentSlot + 1, slot - Metrics.SLOTS + 1);
+            for (long s = first; s <= slot; s++) {
+                clear((int) Math.floorMod(s, (long) Metrics.SLOTS));
+            }
+            currentSlot = slot;
+        }
+        return (int) Math.floorMod(slot, (long) Metrics.SLOTS);
+    }
+
+    /**
+     * Gets the index of the slot a number of slots before the current one.
+     *
+     * @param current the index of the current slot
+     * @param back how many slots to go back
+     * @return the index
+     */
+    static int before(int current, int back) {
+        return Math.floorMod(current - back, Metrics.SLOTS);
+    }
+
+    abstract void clear(int slot);
+
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2017 Lucko (Luck) <luck@lucko.me>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+
+package me.lucko.conditionalperms.metrics;
+
+/**
+ * Records how long something takes.
+ */
+public class Timer extends RollingMetric {
+    private final long[] counts = new long[Metrics.SLOTS];
+    private final long[] nanos = new long[Metrics.SLOTS];
+    private final long[] max = new long[Metrics.SLOTS];
+    private long totalCount = 0;
+    private long totalNanos = 0;
+
+    Timer(String name) {
+        super(name);
+    }
+
+    /**
+     * Records a single timing.
+     *
+     * @param duration the time taken, in nanoseconds
+     */
+    public synchronized void record(long duration) {
+        final int slot = rotate(System.nanoTime());
+        counts[slot]++;
+        nanos[slot] += duration;
+        if (duration > max[slot]) {
+            max[slot] = duration;
+        }
+        totalCount++;
+        totalNanos += duration;
+        recorded(slot, duration);
+    }
+
+    void recorded(int slot, long duration) {
+        // overridden by Histogram
+    }
+
+    public synchronized long getCount(Metrics.Window window) {
+        return sum(counts, window);
+    }
+
+    public synchronized long getNanos(Metrics.Window window) {
+        return sum(nanos, window);
+    }
+
+    public synchronized long getMax(Metrics.Window window) {
+        final int current = rotate(System.nanoTime());
+        long ret = 0;
+        for (int i = 0; i < window.getSlots(); i++) {
+            ret = Math.max(ret, max[before(current, i)]);
+        }
+        return ret;
+    }
+
+    public synchronized long getTotalCount() {
+        return totalCount;
+    }
+
+    public synchronized long getTotalNanos() {
+        return totalNanos;
+    }
+
+    private long sum(long[] values, Metrics.Window window) {
+        final int current = rotate(System.nanoTime());
+        long sum = 0;
+        for (int i = 0; i < window.getSlots(); i++) {
+            sum += values[before(current, i)];
+        }
+        return sum;
+    }
+
+    @Override
+    void clear(int slot) {
+        counts[slot] = 0;
+        nanos[slot] = 0;
+        max[slot] = 0;
+    }
+}
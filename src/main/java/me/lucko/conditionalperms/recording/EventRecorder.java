@@ -0,0 +1,366 @@
+/*
+ * Copyright (c) 2017 Lucko (Luck) <luck@lucko.me>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+
+package me.lucko.conditionalperms.recording;
+
+import lombok.RequiredArgsConstructor;
+
+import com.sk89q.worldedit.BlockVector2D;
+import com.sk89q.worldguard.protection.regions.ProtectedRegion;
+import com.sk89q.worldguard.protection.regions.RegionType;
+
+import me.lucko.conditionalperms.ConditionalPerms;
+import me.lucko.conditionalperms.events.PlayerEnterCombatEvent;
+import me.lucko.conditionalperms.events.PlayerEnterPlotEvent;
+import me.lucko.conditionalperms.events.PlayerLeavePlotEvent;
+import me.lucko.conditionalperms.hooks.impl.WorldGuardHook;
+import me.lucko.conditionalperms.metrics.RefreshCause;
+import me.lucko.helper.Events;
+import me.lucko.helper.terminable.composite.CompositeTerminable;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.command.CommandSender;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.player.PlayerChangedWorldEvent;
+import org.bukkit.event.player.PlayerMoveEvent;
+import org.bukkit.event.player.PlayerTeleportEvent;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+
+/**
+ * Records the events which drive ConditionalPerms to a file, so they can be read back as a {@link Recording} and
+ * replayed against the plugin offline.
+ *
+ * <p>Records are encoded into a buffer on the main thread, which is handed off once per tick to a separate
+ * thread to be appended to the file. Nothing is listened to unless a recording is in progress.</p>
+ *
+ * <p>Players are recorded along with their location and conditional nodes the first time they appear in the
+ * recording, and worlds along with their WorldGuard regions, if the WorldGuard hook is loaded.</p>
+ */
+@RequiredArgsConstructor
+public class EventRecorder implements Runnable {
+    private final ConditionalPerms plugin;
+
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(8192);
+    private final Map<UUID, Integer> players = new HashMap<>();
+    private final Map<String, Integer> worlds = new HashMap<>();
+
+    private boolean recording = false;
+    private File file = null;
+    private OutputStream out = null;
+    private ExecutorService writer = null;
+    private CompositeTerminable terminable = null;
+
+    private long tick = 0;
+    private long lastWrittenTick = 0;
+    private long records = 0;
+
+    public boolean isRecording() {
+        return recording;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Starts recording to a file.
+     *
+     * @param file the file to write to
+     * @throws IOException if the file could not be opened
+     */
+    public void start(File file) throws IOException {
+        file.getParentFile().mkdirs();
+        this.out = new BufferedOutputStream(new FileOutputStream(file));
+        this.file = file;
+        this.writer = Executors.newSingleThreadExecutor(r -> new Thread(r, "conditionalperms-recorder"));
+        this.players.clear();
+        this.worlds.clear();
+        this.tick = 0;
+        this.lastWrittenTick = 0;
+        this.records = 0;
+
+        buffer.write(RecordType.MAGIC, 0, RecordType.MAGIC.length);
+        buffer.write(RecordType.VERSION);
+
+        terminable = CompositeTerminable.create();
+
+        Events.subscribe(PlayerMoveEvent.class, EventPriority.MONITOR)
+                .filter(e -> !e.isCancelled())
+                .filter(e ->
+                        e.getFrom().getBlockX() != e.getTo().getBlockX() ||
+                                e.getFrom().getBlockZ() != e.getTo().getBlockZ() ||
+                                e.getFrom().getBlockY() != e.getTo().getBlockY() ||
+                                !e.getFrom().getWorld().equals(e.getTo().getWorld()))
+                .handler(e -> recordLocation(RecordType.MOVE, e.getPlayer(), e.getTo()))
+                .bindWith(terminable);
+
+        Events.subscribe(PlayerTeleportEvent.class, EventPriority.MONITOR)
+                .filter(e -> !e.isCancelled())
+                .handler(e -> recordLocation(RecordType.TELEPORT, e.getPlayer(), e.getTo()))
+                .bindWith(terminable);
+
+        Events.subscribe(PlayerChangedWorldEvent.class, EventPriority.MONITOR)
+                .handler(e -> recordLocation(RecordType.WORLD_CHANGE, e.getPlayer(), e.getPlayer().getLocation()))
+                .bindWith(terminable);
+
+        Events.subscribe(PlayerEnterCombatEvent.class, EventPriority.MONITOR)
+                .handler(e -> {
+                    if (e.getVictim() != null) {
+                        recordPlayer(RecordType.COMBAT_TAG, e.getVictim());
+                    }
+                    if (e.getAttacker() != null) {
+                        recordPlayer(RecordType.COMBAT_TAG, e.getAttacker());
+                    }
+                })
+                .bindWith(terminable);
+
+        Events.subscribe(PlayerEnterPlotEvent.class, EventPriority.MONITOR)
+                .handler(e -> recordPlayer(RecordType.PLOT_ENTER, e.getPlayer()))
+                .bindWith(terminable);
+
+        Events.subscribe(PlayerLeavePlotEvent.class, EventPriority.MONITOR)
+                .handler(e -> recordPlayer(RecordType.PLOT_LEAVE, e.getPlayer()))
+                .bindWith(terminable);
+
+        plugin.getScheduler().runRepeating(this, 1L, 1L).bindWith(terminable);
+        terminable.bindWith(plugin);
+        recording = true;
+    }
+
+    /**
+     * Stops recording. The remaining records are written and the file is closed on the writer thread, so this
+     * doesn't wait for the disk. Completion is logged, and reported to the sender if there is one, once the file
+     * has been closed.
+     *
+     * @param sender the sender to report to once the recording is complete, or null
+     * @return a future which completes once the file has been closed
+     */
+    public Future<?> stop(CommandSender sender) {
+        recording = false;
+        terminable.closeAndReportException();
+        flush();
+
+        final OutputStream out = this.out;
+        final File file = this.file;
+        final long records = this.records;
+        final Future<?> closed = writer.submit(() -> {
+            String result;
+            try {
+                out.close();
+                result = "&7Wrote &b" + records + "&7 records to &b" + file.getName() + "&7.";
+                plugin.getLogger().info("Wrote " + records + " records to " + file.getName() + ".");
+            } catch (IOException e) {
+                plugin.getLogger().log(Level.SEVERE, "Exception thrown whilst closing recording", e);
+                result = "&7Unable to finish writing &b" + file.getName() + "&7, see the console for details.";
+            }
+
+            if (sender != null) {
+                // senders can only be messaged from the main thread
+                final String message = result;
+                plugin.getScheduler().runLater(() -> ConditionalPerms.msg(sender, message), 1L);
+            }
+        });
+
+        // the thread exits once the queued writes are done
+        writer.shutdown();
+        writer = null;
+        return closed;
+    }
+
+    public void recordRefresh(Player player, RefreshCause cause) {
+        if (recording) {
+            final int id = player(player);
+            begin(RecordType.REFRESH);
+            writeVarInt(id);
+            writeVarInt(cause.ordinal());
+        }
+    }
+
+    @Override
+    public void run() {
+        tick++;
+        flush();
+    }
+
+    private void flush() {
+        if (buffer.size() == 0) {
+            return;
+        }
+
+        final byte[] chunk = buffer.toByteArray();
+        buffer.reset();
+
+        final OutputStream out = this.out;
+        writer.execute(() -> {
+            try {
+                out.write(chunk);
+            } catch (IOException e) {
+                plugin.getLogger().log(Level.SEVERE, "Exception thrown whilst writing recording", e);
+            }
+        });
+    }
+
+    private void recordLocation(RecordType type, Player player, Location location) {
+        final int id = player(player);
+        final int world = world(location.getWorld());
+        begin(type);
+        writeVarInt(id);
+        writeVarInt(world);
+        writeVarInt(zigzag(location.getBlockX()));
+        writeVarInt(zigzag(location.getBlockY()));
+        writeVarInt(zigzag(location.getBlockZ()));
+    }
+
+    private void recordPlayer(RecordType type, Player player) {
+        final int id = player(player);
+        begin(type);
+        writeVarInt(id);
+    }
+
+    private void begin(RecordType type) {
+        if (tick != lastWrittenTick) {
+            buffer.write(RecordType.TICK.getId());
+            writeVarInt((int) (tick - lastWrittenTick));
+            lastWrittenTick = tick;
+        }
+        buffer.write(type.getId());
+        records++;
+    }
+
+    private int player(Player player) {
+        Integer id = players.get(player.getUniqueId());
+        if (id == null) {
+            id = players.size();
+            players.put(player.getUniqueId(), id);
+
+            final Location location = player.getLocation();
+            final int world = world(location.getWorld());
+            final List<String> nodes = plugin.getSourceNodes(player);
+
+            begin(RecordType.PLAYER);
+            writeVarInt(id);
+            writeLong(player.getUniqueId().getMostSignificantBits());
+            writeLong(player.getUniqueId().getLeastSignificantBits());
+            writeString(player.getName());
+            writeVarInt(world);
+            writeVarInt(zigzag(location.getBlockX()));
+            writeVarInt(zigzag(location.getBlockY()));
+            writeVarInt(zigzag(location.getBlockZ()));
+            writeVarInt(nodes.size());
+            for (String node : nodes) {
+                writeString(node);
+            }
+        }
+        return id;
+    }
+
+    private int world(World world) {
+        Integer id = worlds.get(world.getName());
+        if (id == null) {
+            id = worlds.size();
+            worlds.put(world.getName(), id);
+
+            begin(RecordType.WORLD);
+            writeVarInt(id);
+            writeString(world.getName());
+
+            final WorldGuardHook worldGuard = plugin.getHookManager().get(WorldGuardHook.class);
+            if (worldGuard != null) {
+                for (ProtectedRegion region : worldGuard.getAllRegions(world)) {
+                    recordRegion(id, region);
+                }
+            }
+        }
+        return id;
+    }
+
+    private void recordRegion(int world, ProtectedRegion region) {
+        final boolean cuboid = region.getType() == RegionType.CUBOID;
+        if (!cuboid && region.getType() != RegionType.POLYGON) {
+            // the global region is everywhere, so it has no boundaries to record
+            return;
+        }
+
+        begin(RecordType.REGION);
+        writeVarInt(world);
+        writeString(region.getId());
+        writeVarInt(cuboid ? 0 : 1);
+        writeVarInt(zigzag(region.getMinimumPoint().getBlockY()));
+        writeVarInt(zigzag(region.getMaximumPoint().getBlockY()));
+        if (cuboid) {
+            writeVarInt(zigzag(region.getMinimumPoint().getBlockX()));
+            writeVarInt(zigzag(region.getMinimumPoint().getBlockZ()));
+            writeVarInt(zigzag(region.getMaximumPoint().getBlockX()));
+            writeVarInt(zigzag(region.getMaximumPoint().getBlockZ()));
+            return;
+        }
+
+        final List<BlockVector2D> points = region.getPoints();
+        writeVarInt(points.size());
+        for (BlockVector2D point : points) {
+            writeVarInt(zigzag(point.getBlockX()));
+            writeVarInt(zigzag(point.getBlockZ()));
+        }
+    }
+
+    private void writeVarInt(int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer.write(value);
+    }
+
+    private void writeLong(long value) {
+        for (int i = 56; i >= 0; i -= 8) {
+            buffer.write((int) (value >>> i));
+        }
+    }
+
+    private void writeString(String value) {
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(bytes.length);
+        buffer.write(bytes, 0, bytes.length);
+    }
+
+    private static int zigzag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+}
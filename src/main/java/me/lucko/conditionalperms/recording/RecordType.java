@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2017 Lucko (Luck) <luck@lucko.me>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+
+package me.lucko.conditionalperms.recording;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * The types of record in a recording file.
+ *
+ * <p>A recording starts with the 4 byte magic "CPRM" and a version byte. Each record is then a type byte,
+ * followed by its fields. Ints are written as varints (zigzag encoded for coordinates), and strings as a varint
+ * length followed by UTF-8 bytes. Locations are written as a world followed by the x, y and z of the block.</p>
+ */
+@Getter
+@AllArgsConstructor
+public enum RecordType {
+
+    /**
+     * Marks the start of a new tick. Fields: ticks since the previous tick record.
+     */
+    TICK(0),
+
+    /**
+     * Assigns an id to a player, and records where they were and the conditional nodes they had when they were
+     * first seen. Fields: id, uuid (16 bytes), name, location, number of nodes, nodes.
+     */
+    PLAYER(1),
+
+    /**
+     * Assigns an id to a world. Fields: id, name.
+     */
+    WORLD(2),
+
+    /**
+     * A player moved into a different block. Fields: player, location.
+     */
+    MOVE(3),
+
+    /**
+     * A player changed world. Fields: player, location.
+     */
+    WORLD_CHANGE(4),
+
+    /**
+     * A player was combat tagged. Fields: player.
+     */
+    COMBAT_TAG(5),
+
+    /**
+     * A player entered a plot. Fields: player.
+     */
+    PLOT_ENTER(6),
+
+    /**
+     * A player left a plot. Fields: player.
+     */
+    PLOT_LEAVE(7),
+
+    /**
+     * A player was refreshed. Fields: player, the ordinal of the
+     * {@link me.lucko.conditionalperms.metrics.RefreshCause}.
+     */
+    REFRESH(8),
+
+    /**
+     * A player teleported. Fields: player, location.
+     */
+    TELEPORT(9),
+
+    /**
+     * A WorldGuard region, recorded along with the world it is in. Fields: world, id, shape (0 for a cuboid, 1
+     * for a polygon), minimum y, maximum y, then the minimum and maximum x and z of a cuboid, or the number of
+     * points of a polygon followed by the x and z of each point.
+     */
+    REGION(10);
+
+    static final byte[] MAGIC = {'C', 'P', 'R', 'M'};
+    static final int VERSION = 2;
+
+    private static final RecordType[] BY_ID = values();
+
+    static RecordType getById(int id) {
+        return id >= 0 && id < BY_ID.length ? BY_ID[id] : null;
+    }
+
+    private final int id;
+
+}
@@ -0,0 +1,331 @@
+/*
+ * Copyright (c) 2017 Lucko (Luck) <luck@lucko.me>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+
+package me.lucko.conditionalperms.recording;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import com.google.common.collect.ImmutableList;
+import com.sk89q.worldedit.BlockVector;
+import com.sk89q.worldedit.BlockVector2D;
+import com.sk89q.worldguard.protection.regions.ProtectedCuboidRegion;
+import com.sk89q.worldguard.protection.regions.ProtectedPolygonalRegion;
+import com.sk89q.worldguard.protection.regions.ProtectedRegion;
+
+import me.lucko.conditionalperms.metrics.RefreshCause;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * A recording made by an {@link EventRecorder}, read back from its file.
+ *
+ * <p>The recording is a list of the ticks which contain events, each with its events in the order they were
+ * recorded. The players and regions which were defined along the way are listed separately, so the recording can
+ * be replayed against a server set up with them.</p>
+ */
+@Getter
+@RequiredArgsConstructor(access = AccessLevel.PRIVATE)
+public final class Recording {
+
+    /**
+     * The longest string (a player, world or region name, or a node) accepted when reading a recording.
+     */
+    private static final int MAX_STRING_LENGTH = 1024;
+
+    /**
+     * The players in the recording, indexed by their id.
+     */
+    private final List<RecordedPlayer> players;
+
+    /**
+     * The WorldGuard regions in the worlds in the recording.
+     */
+    private final List<RecordedRegion> regions;
+
+    /**
+     * The ticks in the recording which contain events. The first tick is always included.
+     */
+    private final List<RecordedTick> ticks;
+
+    /**
+     * Gets the number of ticks the recording lasted for.
+     *
+     * @return the number of ticks
+     */
+    public long getDuration() {
+        return ticks.get(ticks.size() - 1).tick + 1;
+    }
+
+    /**
+     * Reads a recording from a file.
+     *
+     * <p>A recording which ends part way through a record (e.g. because the server stopped whilst it was being
+     * written) is read up to that record. Anything else which couldn't have been written by an
+     * {@link EventRecorder} is rejected.</p>
+     *
+     * @param file the file
+     * @return the recording
+     * @throws IOException if the file could not be read or is not a valid recording
+     */
+    public static Recording read(File file) throws IOException {
+        final List<RecordedPlayer> players = new ArrayList<>();
+        final List<RecordedRegion> regions = new ArrayList<>();
+        final List<RecordedTick> ticks = new ArrayList<>();
+        final Map<Integer, String> worlds = new HashMap<>();
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            final byte[] magic = new byte[RecordType.MAGIC.length];
+            try {
+                in.readFully(magic);
+                if (!Arrays.equals(magic, RecordType.MAGIC) || in.readUnsignedByte() != RecordType.VERSION) {
+                    throw new IOException("Not a recording, or recorded with a different version");
+                }
+            } catch (EOFException e) {
+                throw new IOException("Not a recording, or recorded with a different version");
+            }
+
+            long tick = 0;
+            RecordedTick current = new RecordedTick(0);
+            ticks.add(current);
+
+            try {
+                int id;
+                while ((id = in.read()) != -1) {
+                    final RecordType type = RecordType.getById(id);
+                    if (type == null) {
+                        throw new IOException("Unknown record type " + id);
+                    }
+
+                    switch (type) {
+                        case TICK:
+                            final int elapsed = readVarInt(in);
+                            if (elapsed <= 0) {
+                                throw new IOException("Invalid tick record, " + elapsed + " ticks since the previous one");
+                            }
+                            tick += elapsed;
+                            current = new RecordedTick(tick);
+                            ticks.add(current);
+                            break;
+                        case PLAYER:
+                            players.add(readPlayer(in, players.size(), worlds));
+                            break;
+                        case WORLD:
+                            id = readVarInt(in);
+                            worlds.put(id, readString(in));
+                            break;
+                        case REGION:
+                            regions.add(readRegion(in, worlds));
+                            break;
+                        case MOVE:
+                        case WORLD_CHANGE:
+                        case TELEPORT:
+                            current.events.add(new RecordedEvent(type, readPlayerId(in, players), readWorld(in, worlds),
+                                    unzigzag(readVarInt(in)), unzigzag(readVarInt(in)), unzigzag(readVarInt(in)), null));
+                            break;
+                        case REFRESH:
+                            final int player = readPlayerId(in, players);
+                            final int cause = readVarInt(in);
+                            if (cause < 0 || cause >= RefreshCause.values().length) {
+                                throw new IOException("Unknown refresh cause " + cause);
+                            }
+                            current.events.add(new RecordedEvent(type, player, null, 0, 0, 0, RefreshCause.values()[cause]));
+                            break;
+                        default:
+                            current.events.add(new RecordedEvent(type, readPlayerId(in, players), null, 0, 0, 0, null));
+                            break;
+                    }
+                }
+            } catch (EOFException e) {
+                // the server stopped part way through writing a record, the rest of the recording can still be used
+            }
+        }
+
+        return new Recording(ImmutableList.copyOf(players), ImmutableList.copyOf(regions), ImmutableList.copyOf(ticks));
+    }
+
+    private static RecordedPlayer readPlayer(DataInputStream in, int expectedId, Map<Integer, String> worlds) throws IOException {
+        final int id = readVarInt(in);
+        if (id != expectedId) {
+            throw new IOException("Player defined with id " + id + ", expected " + expectedId);
+        }
+
+        final UUID uniqueId = new UUID(in.readLong(), in.readLong());
+        final String name = readString(in);
+        final String world = readWorld(in, worlds);
+        final int x = unzigzag(readVarInt(in));
+        final int y = unzigzag(readVarInt(in));
+        final int z = unzigzag(readVarInt(in));
+
+        final int count = readVarInt(in);
+        if (count < 0) {
+            throw new IOException("Invalid node count " + count);
+        }
+        final List<String> nodes = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            nodes.add(readString(in));
+        }
+        return new RecordedPlayer(id, uniqueId, name, world, x, y, z, ImmutableList.copyOf(nodes));
+    }
+
+    private static RecordedRegion readRegion(DataInputStream in, Map<Integer, String> worlds) throws IOException {
+        final String world = readWorld(in, worlds);
+        final String id = readString(in);
+        final int shape = readVarInt(in);
+        final int minY = unzigzag(readVarInt(in));
+        final int maxY = unzigzag(readVarInt(in));
+
+        switch (shape) {
+            case 0:
+                final int minX = unzigzag(readVarInt(in));
+                final int minZ = unzigzag(readVarInt(in));
+                final int maxX = unzigzag(readVarInt(in));
+                final int maxZ = unzigzag(readVarInt(in));
+                return new RecordedRegion(world, new ProtectedCuboidRegion(id, new BlockVector(minX, minY, minZ), new BlockVector(maxX, maxY, maxZ)));
+            case 1:
+                final int count = readVarInt(in);
+                if (count < 3) {
+                    throw new IOException("Polygon region " + id + " has " + count + " points");
+                }
+                final List<BlockVector2D> points = new ArrayList<>();
+                for (int i = 0; i < count; i++) {
+                    points.add(new BlockVector2D(unzigzag(readVarInt(in)), unzigzag(readVarInt(in))));
+                }
+                return new RecordedRegion(world, new ProtectedPolygonalRegion(id, points, minY, maxY));
+            default:
+                throw new IOException("Region " + id + " has unknown shape " + shape);
+        }
+    }
+
+    private static int readPlayerId(DataInputStream in, List<RecordedPlayer> players) throws IOException {
+        final int id = readVarInt(in);
+        if (id < 0 || id >= players.size()) {
+            throw new IOException("Record refers to player " + id + ", which hasn't been defined");
+        }
+        return id;
+    }
+
+    private static String readWorld(DataInputStream in, Map<Integer, String> worlds) throws IOException {
+        final int id = readVarInt(in);
+        final String world = worlds.get(id);
+        if (world == null) {
+            throw new IOException("Record refers to world " + id + ", which hasn't been defined");
+        }
+        return world;
+    }
+
+    private static int readVarInt(DataInputStream in) throws IOException {
+        int value = 0;
+        int shift = 0;
+        int b;
+        do {
+            if (shift == 35) {
+                throw new IOException("VarInt is longer than 5 bytes");
+            }
+            b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        final int length = readVarInt(in);
+        if (length < 0 || length > MAX_STRING_LENGTH) {
+            throw new IOException("Invalid string length " + length);
+        }
+
+        final byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int unzigzag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * A player, as they were when they were first recorded.
+     */
+    @Getter
+    @RequiredArgsConstructor(access = AccessLevel.PRIVATE)
+    public static final class RecordedPlayer {
+        private final int id;
+        private final UUID uniqueId;
+        private final String name;
+        private final String world;
+        private final int x;
+        private final int y;
+        private final int z;
+
+        /**
+         * The conditional nodes the player had been given.
+         */
+        private final List<String> nodes;
+    }
+
+    @Getter
+    @RequiredArgsConstructor(access = AccessLevel.PRIVATE)
+    public static final class RecordedRegion {
+        private final String world;
+        private final ProtectedRegion region;
+    }
+
+    @Getter
+    public static final class RecordedTick {
+        private final long tick;
+        private final List<RecordedEvent> events = new ArrayList<>();
+
+        private RecordedTick(long tick) {
+            this.tick = tick;
+        }
+    }
+
+    /**
+     * An event in a recording. Which fields are set depends on the type, see {@link RecordType}.
+     */
+    @Getter
+    @RequiredArgsConstructor(access = AccessLevel.PRIVATE)
+    public static final class RecordedEvent {
+        private final RecordType type;
+        private final int player;
+        private final String world;
+        private final int x;
+        private final int y;
+        private final int z;
+        private final RefreshCause cause;
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2017 Lucko (Luck) <luck@lucko.me>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+
+package me.lucko.conditionalperms.scheduler;
+
+import me.lucko.helper.Schedulers;
+import me.lucko.helper.terminable.Terminable;
+
+import org.bukkit.Bukkit;
+import org.bukkit.entity.Player;
+
+/**
+ * Schedules everything on the main thread, using helper's schedulers.
+ */
+class BukkitTaskScheduler implements TaskScheduler {
+
+    @Override
+    public void execute(Player player, Runnable task) {
+        if (Bukkit.isPrimaryThread()) {
+            task.run();
+        } else {
+            Schedulers.sync().run(task);
+        }
+    }
+
+    @Override
+    public void runLater(Player player, Runnable task, Runnable retired, long delay) {
+        Schedulers.sync().runLater(() -> {
+            if (player.isOnline()) {
+                task.run();
+            } else {
+                retired.run();
+            }
+        }, delay);
+    }
+
+    @Override
+    public void runLater(Runnable task, long delay) {
+        Schedulers.sync().runLater(task, delay);
+    }
+
+    @Override
+    public Terminable runRepeating(Runnable task, long delay, long period) {
+        return Schedulers.sync().runRepeating(task, delay, period);
+    }
+
+    @Override
+    public void runAsync(Runnable task) {
+        Schedulers.async().run(task);
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2017 Lucko (Luck) <luck@lucko.me>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+
+package me.lucko.conditionalperms.scheduler;
+
+import me.lucko.helper.terminable.Terminable;
+
+import org.bukkit.entity.Player;
+
+/**
+ * Schedules the plugins tasks.
+ *
+ * <p>Work which touches a player is run with {@link #execute(Player, Runnable)} or
+ * {@link #runLater(Player, Runnable, long)}, so it runs on the thread which owns the player.</p>
+ */
+public interface TaskScheduler {
+
+    /**
+     * Creates the scheduler for the current server.
+     *
+     * @return the scheduler
+     */
+    static TaskScheduler create() {
+        return new BukkitTaskScheduler();
+    }
+
+    /**
+     * Runs a task which touches a player. The task runs immediately if the current thread owns the player,
+     * otherwise it is scheduled to run as soon as possible.
+     *
+     * @param player the player
+     * @param task the task
+     */
+    void execute(Player player, Runnable task);
+
+    /**
+     * Runs a task which touches a player after a delay. The task is dropped if the player logs out first.
+     *
+     * @param player the player
+     * @param task the task
+     * @param delay the delay in ticks
+     */
+    default void runLater(Player player, Runnable task, long delay) {
+        runLater(player, task, () -> {}, delay);
+    }
+
+    /**
+     * Runs a task which touches a player after a delay.
+     *
+     * @param player the player
+     * @param task the task
+     * @param retired the task to run instead if the player logs out first
+     * @param delay the delay in ticks
+     */
+    void runLater(Player player, Runnable task, Runnable retired, long delay);
+
+    /**
+     * Runs a task which doesn't touch any particular player after a delay, on the main thread.
+     *
+     * @param task the task
+     * @param delay the delay in ticks
+     */
+    void runLater(Runnable task, long delay);
+
+    /**
+     * Runs a task which doesn't touch any particular player repeatedly, on the main thread.
+     *
+     * @param task the task
+     * @param delay the delay before the first run, in ticks
+     * @param period the period between runs, in ticks
+     * @return a terminable which cancels the task
+     */
+    Terminable runRepeating(Runnable task, long delay, long period);
+
+    /**
+     * Runs a task off the main thread.
+     *
+     * @param task the task
+     */
+    void runAsync(Runnable task);
+
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) 2017 Lucko (Luck) <luck@lucko.me>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+
+package me.lucko.conditionalperms.trace;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * The types of event which can be traced. Each type has a format, which is only applied when the event is
+ * displayed.
+ */
+@Getter
+@AllArgsConstructor
+public enum TraceType {
+
+    NODES_UNCHANGED("Conditional nodes are unchanged, skipping refresh."),
+    NODES_CHANGED("Conditional nodes have changed."),
+    INDEXED("Indexed %s conditional permissions."),
+    REFRESH("Processing permissions, caused by %s."),
+    NO_ATTACHMENT("Aborting, permission attachment is null."),
+    PROCESS("Processing conditional permission %s."),
+    MISSING_HOOK("Skipping %s, condition requires hook %s to function."),
+    NOT_MET("Conditions required for %s were not met."),
+    APPLY("Applying permission %s --> %s."),
+    VANISH("Vanish state changed to %s."),
+    PLACEHOLDER_RESULT("Placeholder %s returned %s."),
+    PLACEHOLDER_ERROR("Could not parse a result from placeholder %s, with error '%s'.");
+
+    private final String format;
+
+}
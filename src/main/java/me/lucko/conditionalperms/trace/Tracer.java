@@ -0,0 +1,196 @@
+/*
+ * Copyright (c) 2017 Lucko (Luck) <luck@lucko.me>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+
+package me.lucko.conditionalperms.trace;
+
+import lombok.Getter;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.logging.Logger;
+
+/**
+ * Records trace events into a fixed size ring buffer.
+ *
+ * <p>Events only store references to their arguments, and are formatted when they are displayed, so call sites
+ * don't need to build strings. When tracing is disabled, {@link #trace} returns immediately.</p>
+ *
+ * <p>Events can be filtered by player and by condition. An event about a node is kept if any of the conditions
+ * used in the node are in the condition filter. Events which don't relate to a condition are only filtered by
+ * player.</p>
+ */
+public class Tracer {
+    private final Logger logger;
+    private final int size;
+
+    @Getter
+    private volatile boolean enabled = false;
+
+    /**
+     * If events should also be printed to the console as they are recorded.
+     */
+    @Getter
+    private boolean echo = false;
+
+    private final Set<String> players = new ConcurrentSkipListSet<>(String.CASE_INSENSITIVE_ORDER);
+    private final Set<String> conditions = new ConcurrentSkipListSet<>(String.CASE_INSENSITIVE_ORDER);
+
+    private final long[] times;
+    private final TraceType[] types;
+    private final String[] names;
+    private final Object[] first;
+    private final Object[] second;
+    private long count = 0;
+
+    public Tracer(Logger logger, int size) {
+        this.logger = logger;
+        this.size = size;
+        this.times = new long[size];
+        this.types = new TraceType[size];
+        this.names = new String[size];
+        this.first = new Object[size];
+        this.second = new Object[size];
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        if (!enabled) {
+            echo = false;
+        }
+    }
+
+    public void setEcho(boolean echo) {
+        this.echo = echo;
+        if (echo) {
+            enabled = true;
+        }
+    }
+
+    public Set<String> getPlayerFilter() {
+        return players;
+    }
+
+    public Set<String> getConditionFilter() {
+        return conditions;
+    }
+
+    public void trace(TraceType type, String player) {
+        trace(type, player, null, null, null);
+    }
+
+    public void trace(TraceType type, String player, Object first) {
+        trace(type, player, null, first, null);
+    }
+
+    /**
+     * Records an event.
+     *
+     * @param type the type of event
+     * @param player the name of the player the event relates to
+     * @param conditions the names of the conditions the event relates to, or null
+     * @param first the first argument to the format
+     * @param second the second argument to the format
+     */
+    public void trace(TraceType type, String player, Collection<String> conditions, Object first, Object second) {
+        if (enabled) {
+            record(type, player, conditions, first, second);
+        }
+    }
+
+    private synchronized void record(TraceType type, String player, Collection<String> conditions, Object first, Object second) {
+        if (!players.isEmpty() && !players.contains(player)) {
+            return;
+        }
+        if (conditions != null && !this.conditions.isEmpty() && !matchesConditionFilter(conditions)) {
+            return;
+        }
+
+        final int i = (int) (count++ % size);
+        this.times[i] = System.currentTimeMillis();
+        this.types[i] = type;
+        this.names[i] = player;
+        this.first[i] = first;
+        this.second[i] = second;
+
+        if (echo) {
+            logger.info("[TRACE] [" + player + "] " + format(i));
+        }
+    }
+
+    /**
+     * Gets the most recent events recorded for a player, oldest first.
+     *
+     * @param player the name of the player
+     * @param limit the maximum number of events to return
+     * @return the formatted events
+     */
+    public synchronized List<String> dump(String player, int limit) {
+        final SimpleDateFormat time = new SimpleDateFormat("HH:mm:ss.SSS");
+        final List<String> ret = new ArrayList<>();
+        final long oldest = Math.max(0, count - size);
+        for (long n = count - 1; n >= oldest && ret.size() < limit; n--) {
+            final int i = (int) (n % size);
+            if (names[i].equalsIgnoreCase(player)) {
+                ret.add(time.format(new Date(times[i])) + " " + format(i));
+            }
+        }
+        Collections.reverse(ret);
+        return ret;
+    }
+
+    /**
+     * Clears all recorded events.
+     */
+    public synchronized void clear() {
+        for (int i = 0; i < size; i++) {
+            types[i] = null;
+            names[i] = null;
+            first[i] = null;
+            second[i] = null;
+        }
+        count = 0;
+    }
+
+    private boolean matchesConditionFilter(Collection<String> conditions) {
+        for (String condition : conditions) {
+            if (this.conditions.contains(condition)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private String format(int i) {
+        return String.format(types[i].getFormat(), describe(first[i]), describe(second[i]));
+    }
+
+    private static Object describe(Object o) {
+        return o instanceof Class<?> ? ((Class<?>) o).getSimpleName() : o;
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2017 Lucko (Luck) <luck@lucko.me>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+
+package me.lucko.conditionalperms.utils;
+
+import org.bukkit.Location;
+
+import java.util.UUID;
+
+/**
+ * The area around the point of a spatial lookup (e.g. a region query) in which the result can't change.
+ *
+ * <p>Hooks store one of these with each lookup, and skip further lookups until the player leaves it. It is only
+ * used on the thread which owns the player, so isn't synchronised.</p>
+ */
+public final class SafeRadius {
+    private UUID world = null;
+    private double x;
+    private double y;
+    private double z;
+    private double radiusSquared;
+    private boolean horizontal;
+
+    /**
+     * Gets if a location is inside the radius, so a lookup there would give the same result.
+     *
+     * @param location the location
+     * @return true if a lookup can be skipped
+     */
+    public boolean contains(Location location) {
+        if (world == null || !world.equals(location.getWorld().getUID())) {
+            return false;
+        }
+
+        final double dx = location.getX() - x;
+        final double dy = horizontal ? 0 : location.getY() - y;
+        final double dz = location.getZ() - z;
+        return dx * dx + dy * dy + dz * dz < radiusSquared;
+    }
+
+    /**
+     * Sets the radius around a location.
+     *
+     * @param center the location of the lookup
+     * @param radius how far the player can move before the result could change, in blocks
+     * @param horizontal if vertical movement should be ignored
+     */
+    public void set(Location center, double radius, boolean horizontal) {
+        if (radius <= 0) {
+            clear();
+            return;
+        }
+
+        this.world = center.getWorld().getUID();
+        this.x = center.getX();
+        this.y = center.getY();
+        this.z = center.getZ();
+        this.radiusSquared = radius * radius;
+        this.horizontal = horizontal;
+    }
+
+    public void clear() {
+        world = null;
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2017 Lucko (Luck) <luck@lucko.me>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+
+package me.lucko.conditionalperms.utils;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.LongSupplier;
+
+/**
+ * A hashed timer wheel, for keeping lots of wake-ups without a scheduler task for each one.
+ *
+ * <p>Time is split into slots of a fixed resolution, and each wake-up is put in the slot its deadline falls in,
+ * modulo the number of slots. Advancing the wheel only looks at the slots passed since it was last advanced, so
+ * the cost doesn't depend on how far away the other wake-ups are. Wake-ups more than one revolution away just stay
+ * in their slot until their deadline comes round.</p>
+ *
+ * <p>The wheel reads time from a monotonic clock, so wake-ups are given as a delay rather than a wall clock time,
+ * and are unaffected by the system clock being changed.</p>
+ *
+ * <p>Wake-ups can be scheduled from any thread. Tasks are run by whichever thread calls {@link #advance()}.</p>
+ */
+public final class TimerWheel {
+    private final long resolution;
+    private final List<List<Timeout>> slots;
+    private final LongSupplier clock;
+
+    /**
+     * The first slot which hasn't been fully passed, counted from the clock's origin. This slot is visited again
+     * on the next advance, as it can hold wake-ups later on in the slot.
+     */
+    private long current;
+
+    private int size = 0;
+
+    /**
+     * Creates a timer wheel.
+     *
+     * @param resolution the length of each slot, in milliseconds
+     * @param slotCount the number of slots
+     * @param clock a monotonic clock, in milliseconds. The value can be negative.
+     */
+    public TimerWheel(long resolution, int slotCount, LongSupplier clock) {
+        this.resolution = resolution;
+        this.slots = new ArrayList<>(slotCount);
+        for (int i = 0; i < slotCount; i++) {
+            slots.add(new ArrayList<>());
+        }
+        this.clock = clock;
+        this.current = Math.floorDiv(clock.getAsLong(), resolution);
+    }
+
+    /**
+     * Schedules a task to run once a delay has passed.
+     *
+     * @param delay the delay, in milliseconds
+     * @param task the task
+     * @return a handle to cancel the task
+     */
+    public synchronized Timeout schedule(long delay, Runnable task) {
+        final Timeout timeout = new Timeout(clock.getAsLong() + Math.max(0, delay), task);
+        final long slot = Math.max(Math.floorDiv(timeout.deadline, resolution), current);
+        slots.get(index(slot)).add(timeout);
+        size++;
+        return timeout;
+    }
+
+    /**
+     * Moves the wheel forward to the current time, running every task which is due.
+     */
+    public void advance() {
+        final List<Timeout> due = new ArrayList<>();
+        synchronized (this) {
+            final long now = clock.getAsLong();
+            final long target = Math.floorDiv(now, resolution);
+
+            // if more than a revolution has passed, every slot only needs visiting once
+            for (long slot = Math.max(current, target - slots.size() + 1); slot <= target; slot++) {
+                final Iterator<Timeout> it = slots.get(index(slot)).iterator();
+                while (it.hasNext()) {
+                    final Timeout timeout = it.next();
+                    if (timeout.cancelled || timeout.deadline <= now) {
+                        it.remove();
+                        size--;
+                        if (!timeout.cancelled) {
+                            due.add(timeout);
+                        }
+                    }
+                }
+            }
+            current = Math.max(current, target);
+        }
+
+        // run outside the lock, so tasks can schedule their next wake-up
+        for (Timeout timeout : due) {
+            if (!timeout.cancelled) {
+                timeout.task.run();
+            }
+        }
+    }
+
+    /**
+     * Gets the number of scheduled tasks. Cancelled tasks are counted until their slot is next visited.
+     *
+     * @return the number of tasks
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    private int index(long slot) {
+        return (int) Math.floorMod(slot, (long) slots.size());
+    }
+
+    public static final class Timeout {
+        private final long deadline;
+        private final Runnable task;
+        private volatile boolean cancelled = false;
+
+        private Timeout(long deadline, Runnable task) {
+            this.deadline = deadline;
+            this.task = task;
+        }
+
+        public void cancel() {
+            cancelled = true;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2017 Lucko (Luck) <luck@lucko.me>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+
+package me.lucko.conditionalperms;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+import me.lucko.conditionalperms.conditions.AbstractCondition;
+import me.lucko.helper.terminable.TerminableConsumer;
+
+import org.bukkit.entity.Player;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ConditionListenersTest {
+
+    private static final class RecordingCondition extends AbstractCondition<String> {
+        private final List<String> events = new ArrayList<>();
+
+        RecordingCondition() {
+            super(true);
+        }
+
+        @Override
+        public boolean shouldApply(Player player, String parameter) {
+            return false;
+        }
+
+        @Override
+        public void onParameterUsed(String parameter) {
+            events.add("+" + parameter);
+        }
+
+        @Override
+        public void onParameterUnused(String parameter) {
+            events.add("-" + parameter);
+        }
+
+        @Override
+        public void setup(TerminableConsumer consumer) {
+
+        }
+    }
+
+    private final RecordingCondition condition = new RecordingCondition();
+    private final ConditionListeners listeners = new ConditionListeners(null);
+
+    private Map<AbstractCondition<?>, Set<Object>> uses(String... parameters) {
+        return ImmutableMap.of(condition, ImmutableSet.copyOf(parameters));
+    }
+
+    @Test
+    void parametersAreUsedUntilTheLastPlayerStopsUsingThem() {
+        final Map<AbstractCondition<?>, Set<Object>> none = Collections.emptyMap();
+
+        // two players use "a", one of them also uses "b"
+        listeners.updateParameters(none, uses("a"));
+        listeners.updateParameters(none, uses("a", "b"));
+        assertEquals(ImmutableSet.of("+a", "+b"), ImmutableSet.copyOf(condition.events));
+
+        // the second player switches from "b" to "c"
+        listeners.updateParameters(uses("a", "b"), uses("a", "c"));
+        assertEquals(4, condition.events.size());
+        assertEquals(ImmutableSet.of("+c", "-b"), ImmutableSet.copyOf(condition.events.subList(2, 4)));
+
+        // both quit
+        listeners.updateParameters(uses("a"), none);
+        assertEquals(4, condition.events.size());
+        listeners.updateParameters(uses("a", "c"), none);
+        assertEquals(ImmutableSet.of("-a", "-c"), ImmutableSet.copyOf(condition.events.subList(4, 6)));
+    }
+
+    @Test
+    void unchangedParametersAreNotCounted() {
+        listeners.updateParameters(Collections.emptyMap(), uses("a"));
+        listeners.updateParameters(uses("a"), uses("a"));
+        listeners.updateParameters(uses("a"), Collections.emptyMap());
+        assertEquals(ImmutableSet.of("+a", "-a"), ImmutableSet.copyOf(condition.events));
+        assertEquals(2, condition.events.size());
+    }
+}
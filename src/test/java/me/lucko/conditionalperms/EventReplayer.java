@@ -0,0 +1,390 @@
+/*
+ * Copyright (c) 2017 Lucko (Luck) <luck@lucko.me>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.conditionalperms;
+
+import com.sk89q.worldedit.BlockVector;
+import com.sk89q.worldguard.protection.regions.ProtectedRegion;
+
+import me.lucko.conditionalperms.hooks.impl.CombatTagPlusHook;
+import me.lucko.conditionalperms.hooks.impl.WorldGuardHook;
+import me.lucko.conditionalperms.metrics.Counter;
+import me.lucko.conditionalperms.metrics.Metrics;
+import me.lucko.conditionalperms.metrics.RefreshCause;
+import me.lucko.conditionalperms.metrics.Timer;
+import me.lucko.conditionalperms.recording.RecordType;
+import me.lucko.conditionalperms.recording.Recording;
+import me.lucko.conditionalperms.utils.Percentiles;
+
+import net.minelink.ctplus.event.PlayerCombatTagEvent;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Replays a recording made by an {@link me.lucko.conditionalperms.recording.EventRecorder} against the real plugin
+ * on a {@link StubServer}, and reports the tick time ConditionalPerms used for it.
+ *
+ * <p>Each recorded player joins the server with the conditional nodes they had, at the location they were first
+ * recorded at. The recording is then replayed tick by tick: moves, teleports and world changes move the players,
+ * and combat tags fire CombatTagPlus' event, so they go through the movement tracker, the hooks and the condition
+ * listeners, and the refreshes they cause evaluate each players nodes and update their permission attachment, in
+ * the same way as on the recorded server. The WorldGuard hook reads the regions saved in the recording.</p>
+ *
+ * <p>Anything else which caused a refresh, such as a permission change, a gamemode change or a plot change, isn't
+ * in the recording, so the recorded refresh is run instead. Region refreshes are too if the recording has no
+ * regions. The players gamemode, flight and plots aren't recorded, so conditions which read them may not match the
+ * recorded server, and combat tags last for CombatTagPlus' default of {@value #COMBAT_TAG_SECONDS} seconds.</p>
+ *
+ * <p>Run with {@code mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=me.lucko.conditionalperms.EventReplayer -Dexec.args="<recording>"}. The recording is replayed
+ * twice, and only the second replay is reported, so the first can warm up the JVM.</p>
+ */
+public final class EventReplayer {
+    private static final int COMBAT_TAG_SECONDS = 15;
+
+    private final Recording recording;
+    private final StubServer server = new StubServer();
+    private final Map<String, List<ProtectedRegion>> regions = new HashMap<>();
+
+    // the causes of refresh which are replayed from events, rather than run as recorded
+    private final Set<RefreshCause> replayedCauses = EnumSet.of(RefreshCause.WORLD, RefreshCause.COMBAT);
+
+    // the tick each tagged player's combat tag runs out
+    private final Map<UUID, Long> combatTags = new HashMap<>();
+
+    private Stubs.MutablePlayer[] players;
+
+    EventReplayer(Recording recording) {
+        this.recording = recording;
+        for (Recording.RecordedRegion region : recording.getRegions()) {
+            regions.computeIfAbsent(region.getWorld(), world -> new ArrayList<>()).add(region.getRegion());
+        }
+        if (!regions.isEmpty()) {
+            replayedCauses.add(RefreshCause.REGION);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("Usage: EventReplayer <recording>");
+            System.exit(1);
+        }
+
+        final Recording recording = Recording.read(new File(args[0]));
+        new EventReplayer(recording).run();
+        System.out.println(new EventReplayer(recording).run().format());
+    }
+
+    /**
+     * Replays the recording.
+     *
+     * @return the results
+     */
+    Report run() {
+        final ConditionalPerms plugin = server.getPlugin();
+        if (!regions.isEmpty()) {
+            plugin.getHookManager().register(WorldGuardHook.class, p -> new WorldGuardHook(p, new RecordedRegions()));
+        }
+        plugin.getHookManager().register(CombatTagPlusHook.class, p -> new CombatTagPlusHook(p, this::isTagged));
+
+        server.enable();
+        try {
+            return replay(plugin);
+        } finally {
+            server.disable();
+        }
+    }
+
+    private Report replay(ConditionalPerms plugin) {
+        players = new Stubs.MutablePlayer[recording.getPlayers().size()];
+        for (Recording.RecordedPlayer recorded : recording.getPlayers()) {
+            final Stubs.MutablePlayer player = new Stubs.MutablePlayer(recorded.getName(),
+                    location(recorded.getWorld(), recorded.getX(), recorded.getY(), recorded.getZ()));
+            for (String node : recorded.getNodes()) {
+                player.getPermissions().put(node, true);
+            }
+            players[recorded.getId()] = player;
+            server.join(player);
+        }
+
+        // let the join refreshes finish before measuring
+        for (int i = 0; i < 20; i++) {
+            server.tick();
+        }
+
+        final Metrics metrics = plugin.getMetrics();
+        final Counter[] refreshCounters = new Counter[RefreshCause.values().length];
+        for (RefreshCause cause : RefreshCause.values()) {
+            refreshCounters[cause.ordinal()] = metrics.counter("refreshes." + cause.name().toLowerCase());
+        }
+        final Timer moves = metrics.timer("hook.worldguard.move");
+        final Counter skipped = metrics.counter("hook.worldguard.skipped");
+        final Counter searches = metrics.counter("hook.worldguard.searches");
+        final Counter recalculations = metrics.counter("attachment.recalculations");
+
+        final long[] causesBefore = totals(refreshCounters);
+        final long movesBefore = moves.getTotalCount();
+        final long skippedBefore = skipped.getTotal();
+        final long searchesBefore = searches.getTotal();
+        final long recalculationsBefore = recalculations.getTotal();
+
+        final int duration = (int) recording.getDuration();
+        final long[] nanos = new long[duration];
+        final int[] events = new int[duration];
+        final int[] refreshes = new int[duration];
+        final long[] recordedCauses = new long[RefreshCause.values().length];
+
+        int tick = 0;
+        for (Recording.RecordedTick recorded : recording.getTicks()) {
+            // ticks without events still run the plugins tasks, e.g. delayed refreshes
+            for (; tick <= recorded.getTick(); tick++) {
+                final List<Recording.RecordedEvent> replayed = tick == recorded.getTick() ? recorded.getEvents() : Collections.emptyList();
+                final long refreshesBefore = sum(totals(refreshCounters));
+                nanos[tick] = tick(replayed);
+                events[tick] = replayed.size();
+                refreshes[tick] = (int) (sum(totals(refreshCounters)) - refreshesBefore);
+            }
+
+            for (Recording.RecordedEvent event : recorded.getEvents()) {
+                if (event.getType() == RecordType.REFRESH) {
+                    recordedCauses[event.getCause().ordinal()]++;
+                }
+            }
+        }
+
+        final long[] causes = totals(refreshCounters);
+        for (int i = 0; i < causes.length; i++) {
+            causes[i] -= causesBefore[i];
+        }
+        return new Report(players.length, nanos, events, refreshes, causes, recordedCauses, moves.getTotalCount() - movesBefore,
+                skipped.getTotal() - skippedBefore, searches.getTotal() - searchesBefore, recalculations.getTotal() - recalculationsBefore);
+    }
+
+    /**
+     * Replays the events in a tick, then runs the plugins tasks.
+     *
+     * @param events the events
+     * @return the time spent in the plugin
+     */
+    private long tick(List<Recording.RecordedEvent> events) {
+        final long start = System.nanoTime();
+        for (Recording.RecordedEvent event : events) {
+            replay(event);
+        }
+        server.tick();
+        return System.nanoTime() - start;
+    }
+
+    private void replay(Recording.RecordedEvent event) {
+        final Stubs.MutablePlayer player = players[event.getPlayer()];
+        switch (event.getType()) {
+            case MOVE:
+                final Location to = location(event.getWorld(), event.getX(), event.getY(), event.getZ());
+                // players who went through a portal changed world without a recorded teleport
+                if (to.getWorld().equals(player.getLocation().getWorld())) {
+                    server.move(player, to);
+                } else {
+                    server.teleport(player, to);
+                }
+                break;
+            case TELEPORT:
+                server.teleport(player, location(event.getWorld(), event.getX(), event.getY(), event.getZ()));
+                break;
+            case WORLD_CHANGE:
+                // usually the player has already been moved by the teleport which changed their world
+                if (!player.getLocation().getWorld().getName().equals(event.getWorld())) {
+                    server.teleport(player, location(event.getWorld(), event.getX(), event.getY(), event.getZ()));
+                }
+                break;
+            case COMBAT_TAG:
+                tag(player);
+                break;
+            case REFRESH:
+                if (!replayedCauses.contains(event.getCause())) {
+                    server.getPlugin().refreshPlayer(player.getPlayer(), event.getCause());
+                }
+                break;
+            default:
+                // plot changes are replayed through the refreshes they caused
+                break;
+        }
+    }
+
+    private Location location(String world, int x, int y, int z) {
+        return new Location(server.world(world), x + 0.5, y, z + 0.5);
+    }
+
+    /**
+     * Tags a player in the same way as CombatTagPlus, which calls the event before tagging them.
+     */
+    private void tag(Stubs.MutablePlayer player) {
+        final PlayerCombatTagEvent event = new PlayerCombatTagEvent(player.getPlayer(), null, COMBAT_TAG_SECONDS);
+        server.callEvent(event);
+        if (!event.isCancelled()) {
+            combatTags.put(player.getUniqueId(), server.getCurrentTick() + event.getTagDuration() * 20L);
+        }
+    }
+
+    private boolean isTagged(UUID uniqueId) {
+        final Long until = combatTags.get(uniqueId);
+        return until != null && until > server.getCurrentTick();
+    }
+
+    /**
+     * Looks up the regions saved in the recording, instead of WorldGuard.
+     */
+    private final class RecordedRegions implements WorldGuardHook.RegionSource {
+
+        @Override
+        public Collection<ProtectedRegion> getApplicableRegions(Location location) {
+            final List<ProtectedRegion> inWorld = regions.get(location.getWorld().getName());
+            if (inWorld == null) {
+                return Collections.emptySet();
+            }
+
+            final BlockVector point = new BlockVector(location.getBlockX(), location.getBlockY(), location.getBlockZ());
+            final List<ProtectedRegion> ret = new ArrayList<>();
+            for (ProtectedRegion region : inWorld) {
+                if (region.contains(point)) {
+                    ret.add(region);
+                }
+            }
+            return ret;
+        }
+
+        @Override
+        public Collection<ProtectedRegion> getApplicableRegions(World world, ProtectedRegion area) {
+            final List<ProtectedRegion> inWorld = regions.get(world.getName());
+            if (inWorld == null) {
+                return Collections.emptySet();
+            }
+
+            final List<ProtectedRegion> ret = new ArrayList<>();
+            for (ProtectedRegion region : inWorld) {
+                if (region.getMinimumPoint().getBlockX() <= area.getMaximumPoint().getBlockX() &&
+                        region.getMaximumPoint().getBlockX() >= area.getMinimumPoint().getBlockX() &&
+                        region.getMinimumPoint().getBlockY() <= area.getMaximumPoint().getBlockY() &&
+                        region.getMaximumPoint().getBlockY() >= area.getMinimumPoint().getBlockY() &&
+                        region.getMinimumPoint().getBlockZ() <= area.getMaximumPoint().getBlockZ() &&
+                        region.getMaximumPoint().getBlockZ() >= area.getMinimumPoint().getBlockZ()) {
+                    ret.add(region);
+                }
+            }
+            return ret;
+        }
+    }
+
+    private static long[] totals(Counter[] counters) {
+        final long[] ret = new long[counters.length];
+        for (int i = 0; i < counters.length; i++) {
+            ret[i] = counters[i].getTotal();
+        }
+        return ret;
+    }
+
+    private static long sum(long[] values) {
+        long ret = 0;
+        for (long value : values) {
+            ret += value;
+        }
+        return ret;
+    }
+
+    /**
+     * The results of a replay, taken from the plugins metrics.
+     */
+    static final class Report {
+        final int players;
+        final long[] nanos;
+        final int[] events;
+        final int[] refreshes;
+        final long[] causes;
+        final long[] recordedCauses;
+        final long lookups;
+        final long skipped;
+        final long searches;
+        final long changes;
+
+        Report(int players, long[] nanos, int[] events, int[] refreshes, long[] causes, long[] recordedCauses, long lookups, long skipped, long searches, long changes) {
+            this.players = players;
+            this.nanos = nanos;
+            this.events = events;
+            this.refreshes = refreshes;
+            this.causes = causes;
+            this.recordedCauses = recordedCauses;
+            this.lookups = lookups;
+            this.skipped = skipped;
+            this.searches = searches;
+            this.changes = changes;
+        }
+
+        long refreshes(RefreshCause cause) {
+            return causes[cause.ordinal()];
+        }
+
+        long recordedRefreshes(RefreshCause cause) {
+            return recordedCauses[cause.ordinal()];
+        }
+
+        String format() {
+            final long[] sortedNanos = nanos.clone();
+            Arrays.sort(sortedNanos);
+
+            int slowest = 0;
+            for (int tick = 0; tick < nanos.length; tick++) {
+                if (nanos[tick] > nanos[slowest]) {
+                    slowest = tick;
+                }
+            }
+
+            final StringBuilder sb = new StringBuilder();
+            sb.append(String.format("%d players over %d ticks, %d events%n", players, nanos.length, Arrays.stream(events).sum()));
+            sb.append(String.format("tick time: p50 %.3fms, p95 %.3fms, p99 %.3fms, max %.3fms%n",
+                    Percentiles.millis(sortedNanos, 0.5), Percentiles.millis(sortedNanos, 0.95),
+                    Percentiles.millis(sortedNanos, 0.99), Percentiles.millis(sortedNanos, 1)));
+            sb.append(String.format("slowest tick: %d, with %d events and %d refreshes%n", slowest, events[slowest], refreshes[slowest]));
+            sb.append(String.format("refreshes, replayed (recorded):%n"));
+            for (RefreshCause cause : RefreshCause.values()) {
+                if (refreshes(cause) != 0 || recordedRefreshes(cause) != 0) {
+                    sb.append(String.format("  %s: %d (%d)%n", cause.name().toLowerCase(), refreshes(cause), recordedRefreshes(cause)));
+                }
+            }
+            sb.append(String.format("region lookups: %d, skipped by safe radius: %d, boundary searches: %d%n", lookups, skipped, searches));
+            sb.append(String.format("attachment changes: %d", changes));
+            return sb.toString();
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2017 Lucko (Luck) <luck@lucko.me>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.conditionalperms;
+
+import me.lucko.conditionalperms.metrics.RefreshCause;
+import me.lucko.conditionalperms.recording.Recording;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class EventReplayerTest {
+
+    @TempDir
+    File directory;
+
+    @Test
+    void replaysARecordedSimulation() throws IOException {
+        final File file = new File(directory, "simulation.cpr");
+        final LoadSimulation.Report simulated = new LoadSimulation(100, 400, 3).record(file).run();
+
+        final Recording recording = Recording.read(file);
+        assertEquals(100, recording.getPlayers().size());
+        assertTrue(recording.getRegions().size() > 0);
+
+        final EventReplayer.Report replayed = new EventReplayer(recording).run();
+
+        // the same players take the same paths through the same regions, so change regions and worlds as often
+        for (RefreshCause cause : new RefreshCause[]{RefreshCause.REGION, RefreshCause.WORLD}) {
+            assertTrue(replayed.refreshes(cause) > 0, replayed::format);
+            assertEquals(simulated.refreshes(cause), replayed.recordedRefreshes(cause), cause.name());
+            assertEquals(replayed.recordedRefreshes(cause), replayed.refreshes(cause), cause.name());
+        }
+
+        // tags last longer than in the simulation, but are still refreshed for
+        assertTrue(replayed.refreshes(RefreshCause.COMBAT) > 0, replayed::format);
+        assertTrue(replayed.changes > 0);
+    }
+}
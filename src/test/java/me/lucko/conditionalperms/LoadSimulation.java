@@ -0,0 +1,453 @@
+/*
+ * Copyright (c) 2017 Lucko (Luck) <luck@lucko.me>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.conditionalperms;
+
+import com.sk89q.worldedit.BlockVector;
+import com.sk89q.worldguard.protection.regions.ProtectedCuboidRegion;
+import com.sk89q.worldguard.protection.regions.ProtectedRegion;
+
+import me.lucko.conditionalperms.hooks.impl.CombatTagPlusHook;
+import me.lucko.conditionalperms.hooks.impl.WorldGuardHook;
+import me.lucko.conditionalperms.metrics.Counter;
+import me.lucko.conditionalperms.metrics.Metrics;
+import me.lucko.conditionalperms.metrics.RefreshCause;
+import me.lucko.conditionalperms.metrics.Timer;
+import me.lucko.conditionalperms.utils.Percentiles;
+
+import net.minelink.ctplus.event.PlayerCombatTagEvent;
+
+import org.bukkit.GameMode;
+import org.bukkit.Location;
+import org.bukkit.World;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * A headless simulation of players walking through regions, fighting and changing worlds, which reports the tick
+ * time ConditionalPerms uses for them.
+ *
+ * <p>The real plugin runs on a {@link StubServer}. Its WorldGuard hook reads a grid of square regions instead of
+ * WorldGuard, and its CombatTagPlus hook reads the combat tags given out by the simulation. Each tick, the
+ * simulated players move, and the server fires the events Bukkit and CombatTagPlus would, then runs the plugins
+ * tasks. So moves go through the movement tracker and the WorldGuard hook, conditions schedule refreshes from
+ * their listeners, and refreshes evaluate each players nodes and update their permission attachment, in the same
+ * way as on a real server.</p>
+ *
+ * <p>Everything except moving the simulated players is timed. Events and tasks are dispatched more cheaply than by
+ * a real server, and the region lookups are cheaper than WorldGuard's, so the results are a lower bound.</p>
+ *
+ * <p>Run with {@code mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=me.lucko.conditionalperms.LoadSimulation -Dexec.args="[players] [ticks]"}.</p>
+ */
+public final class LoadSimulation {
+    private static final int REGION_SIZE = 32;
+    private static final int AREA = 1024;
+    private static final int NODE_POOL = 200;
+    private static final int NODES_PER_PLAYER = 20;
+    private static final double WALK_SPEED = 0.22;
+    private static final double COMBAT_CHANCE = 0.002;
+    private static final double WORLD_CHANGE_CHANCE = 0.0005;
+    private static final int COMBAT_SECONDS = 10;
+
+    private final int playerCount;
+    private final int ticks;
+    private final Random random;
+
+    private final StubServer server = new StubServer();
+    private final World[] worlds = {server.world("world"), server.world("world_nether")};
+    private final ProtectedRegion[][] regions = new ProtectedRegion[AREA / REGION_SIZE][AREA / REGION_SIZE];
+
+    // the tick each tagged player's combat tag runs out
+    private final Map<UUID, Long> combatTags = new HashMap<>();
+
+    private SimulatedPlayer[] players;
+
+    // where to record the measured ticks to, or null
+    private File recording = null;
+
+    LoadSimulation(int playerCount, int ticks, long seed) {
+        this.playerCount = playerCount;
+        this.ticks = ticks;
+        this.random = new Random(seed);
+
+        for (int gx = 0; gx < regions.length; gx++) {
+            for (int gz = 0; gz < regions.length; gz++) {
+                // regions are in a checkerboard pattern
+                if (((gx + gz) & 1) == 0) {
+                    regions[gx][gz] = new ProtectedCuboidRegion("r_" + gx + "_" + gz,
+                            new BlockVector(gx * REGION_SIZE, 0, gz * REGION_SIZE),
+                            new BlockVector(gx * REGION_SIZE + REGION_SIZE - 1, 255, gz * REGION_SIZE + REGION_SIZE - 1));
+                }
+            }
+        }
+    }
+
+    /**
+     * Records the events in the measured ticks of the simulation with the plugins
+     * {@link me.lucko.conditionalperms.recording.EventRecorder}.
+     *
+     * @param file the file to record to
+     * @return this simulation
+     */
+    LoadSimulation record(File file) {
+        this.recording = file;
+        return this;
+    }
+
+    public static void main(String[] args) {
+        final int players = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+        final int ticks = args.length > 1 ? Integer.parseInt(args[1]) : 1200;
+        System.out.println(new LoadSimulation(players, ticks, 0).run().format());
+    }
+
+    /**
+     * Runs the simulation. A quarter as many ticks again are run first, and not measured, to warm up.
+     *
+     * @return the results
+     */
+    Report run() {
+        final ConditionalPerms plugin = server.getPlugin();
+        plugin.getHookManager().register(WorldGuardHook.class, p -> new WorldGuardHook(p, new GridRegions()));
+        plugin.getHookManager().register(CombatTagPlusHook.class, p -> new CombatTagPlusHook(p, this::isTagged));
+
+        server.enable();
+        try {
+            return simulate(plugin);
+        } finally {
+            server.disable();
+        }
+    }
+
+    private Report simulate(ConditionalPerms plugin) {
+        final Metrics metrics = plugin.getMetrics();
+        final List<String> pool = generateNodes();
+        players = new SimulatedPlayer[playerCount];
+        for (int i = 0; i < playerCount; i++) {
+            final Location location = new Location(worlds[0], random.nextDouble() * AREA, 64, random.nextDouble() * AREA);
+            final SimulatedPlayer player = new SimulatedPlayer(new Stubs.MutablePlayer("player" + i, location), random.nextDouble() * Math.PI * 2);
+            for (int j = 0; j < NODES_PER_PLAYER; j++) {
+                player.stub.getPermissions().put(pool.get(random.nextInt(pool.size())), true);
+            }
+            players[i] = player;
+            server.join(player.stub);
+        }
+
+        for (int tick = 0; tick < ticks / 4; tick++) {
+            tick();
+        }
+
+        final Counter[] refreshCounters = new Counter[RefreshCause.values().length];
+        for (RefreshCause cause : RefreshCause.values()) {
+            refreshCounters[cause.ordinal()] = metrics.counter("refreshes." + cause.name().toLowerCase());
+        }
+        final Timer moves = metrics.timer("hook.worldguard.move");
+        final Counter skipped = metrics.counter("hook.worldguard.skipped");
+        final Counter searches = metrics.counter("hook.worldguard.searches");
+        final Counter recalculations = metrics.counter("attachment.recalculations");
+
+        final long[] causesBefore = totals(refreshCounters);
+        final long movesBefore = moves.getTotalCount();
+        final long skippedBefore = skipped.getTotal();
+        final long searchesBefore = searches.getTotal();
+        final long recalculationsBefore = recalculations.getTotal();
+
+        if (recording != null) {
+            try {
+                plugin.getRecorder().start(recording);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        final long[] nanos = new long[ticks];
+        final long[] allocated = new long[ticks];
+        final int[] refreshes = new int[ticks];
+        for (int tick = 0; tick < ticks; tick++) {
+            final long refreshesBefore = sum(totals(refreshCounters));
+            final long allocatedBefore = allocatedBytes();
+            nanos[tick] = tick();
+            allocated[tick] = allocatedBefore == -1 ? -1 : allocatedBytes() - allocatedBefore;
+            refreshes[tick] = (int) (sum(totals(refreshCounters)) - refreshesBefore);
+        }
+
+        if (recording != null) {
+            try {
+                plugin.getRecorder().stop(null).get();
+            } catch (InterruptedException | ExecutionException e) {
+                throw new IllegalStateException("Unable to finish recording", e);
+            }
+        }
+
+        final long[] causes = totals(refreshCounters);
+        for (int i = 0; i < causes.length; i++) {
+            causes[i] -= causesBefore[i];
+        }
+        return new Report(playerCount, nanos, allocated, refreshes, causes, moves.getTotalCount() - movesBefore,
+                skipped.getTotal() - skippedBefore, searches.getTotal() - searchesBefore, recalculations.getTotal() - recalculationsBefore);
+    }
+
+    /**
+     * Moves the simulated players, then fires the events for their moves, combat tags and world changes, and runs
+     * the plugins tasks.
+     *
+     * @return the time spent in the plugin
+     */
+    private long tick() {
+        final List<Runnable> events = new ArrayList<>();
+        for (SimulatedPlayer player : players) {
+            final Location to = walk(player);
+            if (random.nextDouble() < WORLD_CHANGE_CHANCE) {
+                final Location other = new Location(otherWorld(to.getWorld()), to.getX(), to.getY(), to.getZ());
+                events.add(() -> server.teleport(player.stub, other));
+            } else {
+                events.add(() -> server.move(player.stub, to));
+            }
+
+            if (random.nextDouble() < COMBAT_CHANCE) {
+                final SimulatedPlayer other = players[random.nextInt(players.length)];
+                events.add(() -> tag(player, other));
+            }
+        }
+
+        final long start = System.nanoTime();
+        for (Runnable event : events) {
+            event.run();
+        }
+        server.tick();
+        return System.nanoTime() - start;
+    }
+
+    private Location walk(SimulatedPlayer player) {
+        player.heading += (random.nextDouble() - 0.5) * 0.3;
+        final Location location = player.stub.getLocation();
+        double x = location.getX() + Math.cos(player.heading) * WALK_SPEED;
+        double z = location.getZ() + Math.sin(player.heading) * WALK_SPEED;
+        if (x < 0 || x >= AREA || z < 0 || z >= AREA) {
+            player.heading += Math.PI;
+            x = Math.min(Math.max(x, 0), AREA - 1);
+            z = Math.min(Math.max(z, 0), AREA - 1);
+        }
+        return new Location(location.getWorld(), x, location.getY(), z);
+    }
+
+    private World otherWorld(World world) {
+        return world == worlds[0] ? worlds[1] : worlds[0];
+    }
+
+    /**
+     * Tags two players in the same way as CombatTagPlus, which calls the event before tagging them.
+     */
+    private void tag(SimulatedPlayer victim, SimulatedPlayer attacker) {
+        final PlayerCombatTagEvent event = new PlayerCombatTagEvent(victim.stub.getPlayer(), attacker.stub.getPlayer(), COMBAT_SECONDS);
+        server.callEvent(event);
+        if (event.isCancelled()) {
+            return;
+        }
+
+        final long until = server.getCurrentTick() + event.getTagDuration() * 20L;
+        combatTags.put(victim.stub.getUniqueId(), until);
+        combatTags.put(attacker.stub.getUniqueId(), until);
+    }
+
+    private boolean isTagged(UUID uniqueId) {
+        final Long until = combatTags.get(uniqueId);
+        return until != null && until > server.getCurrentTick();
+    }
+
+    /**
+     * Looks up regions in the grid, instead of WorldGuard. Regions are in every world.
+     */
+    private final class GridRegions implements WorldGuardHook.RegionSource {
+
+        @Override
+        public Collection<ProtectedRegion> getApplicableRegions(Location location) {
+            final int gx = Math.floorDiv(location.getBlockX(), REGION_SIZE);
+            final int gz = Math.floorDiv(location.getBlockZ(), REGION_SIZE);
+            if (gx < 0 || gz < 0 || gx >= regions.length || gz >= regions.length || regions[gx][gz] == null) {
+                return Collections.emptySet();
+            }
+            return Collections.singleton(regions[gx][gz]);
+        }
+
+        @Override
+        public Collection<ProtectedRegion> getApplicableRegions(World world, ProtectedRegion area) {
+            final List<ProtectedRegion> ret = new ArrayList<>();
+            final int minX = Math.max(0, Math.floorDiv(area.getMinimumPoint().getBlockX(), REGION_SIZE));
+            final int minZ = Math.max(0, Math.floorDiv(area.getMinimumPoint().getBlockZ(), REGION_SIZE));
+            final int maxX = Math.min(regions.length - 1, Math.floorDiv(area.getMaximumPoint().getBlockX(), REGION_SIZE));
+            final int maxZ = Math.min(regions.length - 1, Math.floorDiv(area.getMaximumPoint().getBlockZ(), REGION_SIZE));
+            for (int gx = minX; gx <= maxX; gx++) {
+                for (int gz = minZ; gz <= maxZ; gz++) {
+                    if (regions[gx][gz] != null) {
+                        ret.add(regions[gx][gz]);
+                    }
+                }
+            }
+            return ret;
+        }
+    }
+
+    private List<String> generateNodes() {
+        final int cells = AREA / REGION_SIZE;
+        final List<String> conditions = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            final int gx = random.nextInt(cells / 2) * 2;
+            final int gz = random.nextInt(cells / 2) * 2;
+            conditions.add("in_region=r_" + gx + "_" + gz);
+        }
+        conditions.add("in_combat");
+        conditions.add("in_world=world");
+        conditions.add("in_world=world_nether");
+        conditions.add("in_gamemode=" + GameMode.CREATIVE.name().toLowerCase());
+        conditions.add("is_flying");
+
+        final List<String> nodes = new ArrayList<>(NODE_POOL);
+        for (int i = 0; i < NODE_POOL; i++) {
+            final StringBuilder sb = new StringBuilder();
+            final int depth = 1 + random.nextInt(3);
+            for (int j = 0; j < depth; j++) {
+                sb.append("cperms.");
+                if (random.nextInt(5) == 0) {
+                    sb.append('!');
+                }
+                sb.append(conditions.get(random.nextInt(conditions.size()))).append('.');
+            }
+            nodes.add(sb.append("simulation.").append(i).toString());
+        }
+        return nodes;
+    }
+
+    private static long[] totals(Counter[] counters) {
+        final long[] ret = new long[counters.length];
+        for (int i = 0; i < counters.length; i++) {
+            ret[i] = counters[i].getTotal();
+        }
+        return ret;
+    }
+
+    private static long sum(long[] values) {
+        long ret = 0;
+        for (long value : values) {
+            ret += value;
+        }
+        return ret;
+    }
+
+    /**
+     * Gets the total number of bytes allocated by the current thread.
+     *
+     * @return the number of bytes, or -1 if not supported by the JVM
+     */
+    private static long allocatedBytes() {
+        final ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    private static final class SimulatedPlayer {
+        private final Stubs.MutablePlayer stub;
+        private double heading;
+
+        private SimulatedPlayer(Stubs.MutablePlayer stub, double heading) {
+            this.stub = stub;
+            this.heading = heading;
+        }
+    }
+
+    /**
+     * The results of a simulation, taken from the plugins metrics.
+     */
+    static final class Report {
+        final int players;
+        final long[] nanos;
+        final long[] allocated;
+        final int[] refreshes;
+        final long[] causes;
+        final long lookups;
+        final long skipped;
+        final long searches;
+        final long changes;
+
+        Report(int players, long[] nanos, long[] allocated, int[] refreshes, long[] causes, long lookups, long skipped, long searches, long changes) {
+            this.players = players;
+            this.nanos = nanos;
+            this.allocated = allocated;
+            this.refreshes = refreshes;
+            this.causes = causes;
+            this.lookups = lookups;
+            this.skipped = skipped;
+            this.searches = searches;
+            this.changes = changes;
+        }
+
+        long refreshes(RefreshCause cause) {
+            return causes[cause.ordinal()];
+        }
+
+        String format() {
+            final long[] sortedNanos = nanos.clone();
+            Arrays.sort(sortedNanos);
+            final long[] sortedAllocated = allocated.clone();
+            Arrays.sort(sortedAllocated);
+            final int[] sortedRefreshes = refreshes.clone();
+            Arrays.sort(sortedRefreshes);
+
+            final StringBuilder sb = new StringBuilder();
+            sb.append(String.format("%d players over %d ticks%n", players, nanos.length));
+            sb.append(String.format("tick time: p50 %.3fms, p95 %.3fms, p99 %.3fms, max %.3fms%n",
+                    Percentiles.millis(sortedNanos, 0.5), Percentiles.millis(sortedNanos, 0.95),
+                    Percentiles.millis(sortedNanos, 0.99), Percentiles.millis(sortedNanos, 1)));
+            sb.append(String.format("refreshes per tick: p50 %d, p99 %d, max %d%n",
+                    sortedRefreshes[sortedRefreshes.length / 2], sortedRefreshes[(int) Math.ceil(sortedRefreshes.length * 0.99) - 1],
+                    sortedRefreshes[sortedRefreshes.length - 1]));
+            for (RefreshCause cause : RefreshCause.values()) {
+                if (refreshes(cause) != 0) {
+                    sb.append(String.format("  %s: %d%n", cause.name().toLowerCase(), refreshes(cause)));
+                }
+            }
+            if (sortedAllocated[0] != -1) {
+                sb.append(String.format("allocated per tick: p50 %,d bytes, p99 %,d bytes%n",
+                        sortedAllocated[sortedAllocated.length / 2], sortedAllocated[(int) Math.ceil(sortedAllocated.length * 0.99) - 1]));
+            }
+            sb.append(String.format("region lookups: %d, skipped by safe radius: %d, boundary searches: %d%n", lookups, skipped, searches));
+            sb.append(String.format("attachment changes: %d", changes));
+            return sb.toString();
+        }
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2017 Lucko (Luck) <luck@lucko.me>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+
+package me.lucko.conditionalperms;
+
+import me.lucko.conditionalperms.metrics.RefreshCause;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LoadSimulationTest {
+
+    @Test
+    void drivesEveryWorkload() {
+        final LoadSimulation.Report report = new LoadSimulation(200, 400, 1).run();
+
+        assertTrue(report.refreshes(RefreshCause.REGION) > 0);
+        assertTrue(report.refreshes(RefreshCause.COMBAT) > 0);
+        assertTrue(report.refreshes(RefreshCause.WORLD) > 0);
+        assertTrue(report.changes > 0);
+
+        // most moves between blocks should stay inside the last lookups safe radius
+        assertTrue(report.skipped > report.lookups, report::format);
+    }
+
+    @Test
+    void isDeterministic() {
+        final LoadSimulation.Report first = new LoadSimulation(50, 200, 7).run();
+        final LoadSimulation.Report second = new LoadSimulation(50, 200, 7).run();
+
+        assertEquals(first.lookups, second.lookups);
+        assertEquals(first.skipped, second.skipped);
+        assertEquals(first.searches, second.searches);
+        assertEquals(first.changes, second.changes);
+        for (RefreshCause cause : RefreshCause.values()) {
+            assertEquals(first.refreshes(cause), second.refreshes(cause), cause.name());
+        }
+    }
+}
@@ -0,0 +1,276 @@
+/*
+ * Copyright (c) 2017 Lucko (Luck) <luck@lucko.me>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+
+package me.lucko.conditionalperms;
+
+import lombok.RequiredArgsConstructor;
+
+import me.lucko.conditionalperms.conditions.AbstractCondition;
+import me.lucko.conditionalperms.hooks.AbstractHook;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.BiPredicate;
+import java.util.function.Predicate;
+
+/**
+ * A deliberately simple interpreter for conditional nodes, written separately from {@link NodeCompiler} and
+ * {@link NodeEvaluator} so the two can be checked against each other.
+ *
+ * <p>It works directly on the node strings: expressions are converted to postfix with the shunting-yard
+ * algorithm and every condition is evaluated, without any reordering or short circuiting. Chained nodes are
+ * handled by repeating passes over all known nodes until nothing new is applied. Only the condition names and
+ * their parameter parsing are shared with the plugin.</p>
+ */
+@RequiredArgsConstructor
+final class NaiveEvaluator {
+
+    /**
+     * Gets the (un-negated) state of a condition, by lower case name and parsed parameter.
+     */
+    private final BiPredicate<String, Object> state;
+    private final Predicate<Class<? extends AbstractHook>> hooked;
+
+    Set<String> evaluate(Collection<String> sources) {
+        final Set<String> known = new LinkedHashSet<>(sources);
+        final Set<String> applied = new HashSet<>();
+
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (String node : new ArrayList<>(known)) {
+                final String toApply = interpret(node);
+                if (toApply != null && applied.add(toApply)) {
+                    changed = true;
+                    if (toApply.startsWith("cperms.")) {
+                        known.add(toApply);
+                    }
+                }
+            }
+        }
+        return applied;
+    }
+
+    /**
+     * Gets the permission a node applies, or null if it doesn't apply (because a condition isn't met, it is
+     * invalid, or it needs a hook which isn't present).
+     */
+    private String interpret(String node) {
+        final List<String> parts = new ArrayList<>();
+        for (String part : node.split("\\.")) {
+            if (!part.trim().isEmpty()) {
+                parts.add(part.trim());
+            }
+        }
+        if (parts.size() < 3) {
+            return null;
+        }
+
+        final String condition = parts.get(1);
+        final Set<Class<? extends AbstractHook>> hooks = new HashSet<>();
+        final Boolean met;
+        try {
+            met = condition.matches(".*[()&|].*")
+                    ? expression(condition, hooks)
+                    : atom(condition, hooks);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+
+        for (Class<? extends AbstractHook> hook : hooks) {
+            if (!hooked.test(hook)) {
+                return null;
+            }
+        }
+        return met ? String.join(".", parts.subList(2, parts.size())) : null;
+    }
+
+    private boolean atom(String text, Set<Class<? extends AbstractHook>> hooks) {
+        boolean negated = false;
+        if (text.startsWith("!")) {
+            negated = true;
+            text = text.substring(1);
+        }
+
+        String name = text;
+        String parameter = null;
+        final int equals = text.indexOf('=');
+        if (equals != -1) {
+            name = text.substring(0, equals).trim();
+            // repeated '='s after the name are ignored, e.g. in_world==world is in_world=world
+            int start = equals + 1;
+            while (start < text.length() && text.charAt(start) == '=') {
+                start++;
+            }
+            parameter = text.substring(start).trim();
+            if (parameter.isEmpty()) {
+                parameter = null;
+            }
+        }
+
+        final Condition condition = Condition.getByName(name);
+        if (condition == null) {
+            throw new IllegalArgumentException("unknown condition " + name);
+        }
+        final AbstractCondition<?> c = condition.getCondition();
+        if (c.isParameterNeeded() && parameter == null) {
+            throw new IllegalArgumentException("missing parameter");
+        }
+        if (c.isHookNeeded()) {
+            hooks.add(c.getNeededHook());
+        }
+        return state.test(name.toLowerCase(), c.parseParameter(parameter)) != negated;
+    }
+
+    private boolean expression(String text, Set<Class<? extends AbstractHook>> hooks) {
+        // tokenise. operators are single characters, anything else up to the next bracket, & or | is a condition
+        final List<String> tokens = new ArrayList<>();
+        int i = 0;
+        while (i < text.length()) {
+            final char c = text.charAt(i);
+            if ("()&|!".indexOf(c) != -1) {
+                tokens.add(String.valueOf(c));
+                i++;
+            } else {
+                int j = i;
+                while (j < text.length() && "()&|".indexOf(text.charAt(j)) == -1) {
+                    j++;
+                }
+                tokens.add(text.substring(i, j));
+                i = j;
+            }
+        }
+
+        // check each token appears where it's allowed
+        boolean expectOperand = true;
+        int depth = 0;
+        for (String token : tokens) {
+            if (expectOperand) {
+                if (token.equals("(")) {
+                    depth++;
+                } else if (token.equals("!")) {
+                    continue;
+                } else if (token.length() == 1 && "&|)".contains(token)) {
+                    throw new IllegalArgumentException("expected a condition");
+                } else {
+                    expectOperand = false;
+                }
+            } else {
+                if (token.equals(")")) {
+                    if (--depth < 0) {
+                        throw new IllegalArgumentException("unbalanced brackets");
+                    }
+                } else if (token.equals("&") || token.equals("|")) {
+                    expectOperand = true;
+                } else {
+                    throw new IllegalArgumentException("expected an operator");
+                }
+            }
+        }
+        if (expectOperand || depth != 0) {
+            throw new IllegalArgumentException("incomplete expression");
+        }
+
+        // shunting-yard to postfix. ! binds tightest, then &, then |
+        final List<String> output = new ArrayList<>();
+        final Deque<String> operators = new ArrayDeque<>();
+        for (String token : tokens) {
+            switch (token) {
+                case "(":
+                case "!":
+                    operators.push(token);
+                    break;
+                case ")":
+                    while (!operators.peek().equals("(")) {
+                        output.add(operators.pop());
+                    }
+                    operators.pop();
+                    popNegations(operators, output);
+                    break;
+                case "&":
+                case "|":
+                    while (!operators.isEmpty() && !operators.peek().equals("(") && precedence(operators.peek()) >= precedence(token)) {
+                        output.add(operators.pop());
+                    }
+                    operators.push(token);
+                    break;
+                default:
+                    output.add(token);
+                    popNegations(operators, output);
+                    break;
+            }
+        }
+        while (!operators.isEmpty()) {
+            output.add(operators.pop());
+        }
+
+        // evaluate every condition, then the operators
+        final Deque<Boolean> stack = new ArrayDeque<>();
+        for (String token : output) {
+            switch (token) {
+                case "!":
+                    stack.push(!stack.pop());
+                    break;
+                case "&": {
+                    final boolean b = stack.pop();
+                    final boolean a = stack.pop();
+                    stack.push(a && b);
+                    break;
+                }
+                case "|": {
+                    final boolean b = stack.pop();
+                    final boolean a = stack.pop();
+                    stack.push(a || b);
+                    break;
+                }
+                default:
+                    stack.push(atom(token, hooks));
+                    break;
+            }
+        }
+        return stack.pop();
+    }
+
+    private static void popNegations(Deque<String> operators, List<String> output) {
+        while (!operators.isEmpty() && operators.peek().equals("!")) {
+            output.add(operators.pop());
+        }
+    }
+
+    private static int precedence(String operator) {
+        switch (operator) {
+            case "!":
+                return 3;
+            case "&":
+                return 2;
+            default:
+                return 1;
+        }
+    }
+}
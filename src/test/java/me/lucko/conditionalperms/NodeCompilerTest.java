@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2017 Lucko (Luck) <luck@lucko.me>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+
+package me.lucko.conditionalperms;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.function.Predicate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class NodeCompilerTest {
+
+    /**
+     * Evaluates the condition part of a node for every combination of the given conditions, and returns the results
+     * as a string of 0s and 1s, e.g. "0001" for a&b over [a, b].
+     */
+    private static String truthTable(String condition, String... conditions) {
+        final ConditionalNode node = NodeCompiler.parse("cperms." + condition + ".test");
+        final StringBuilder sb = new StringBuilder();
+        for (int mask = 0; mask < 1 << conditions.length; mask++) {
+            final int m = mask;
+            final Predicate<Expression.Leaf<?>> test = leaf -> {
+                final String name = leaf.getType().name().toLowerCase();
+                for (int i = 0; i < conditions.length; i++) {
+                    if (conditions[i].equals(name)) {
+                        return ((m >>> i & 1) == 1) != leaf.isNegated();
+                    }
+                }
+                throw new AssertionError("unexpected condition " + name);
+            };
+            sb.append(node.test(test) ? '1' : '0');
+        }
+        return sb.toString();
+    }
+
+    private static final String[] ABC = {"is_flying", "is_vanished", "in_combat"};
+
+    @Test
+    void parsesSingleConditions() {
+        final ConditionalNode node = NodeCompiler.parse("cperms.!in_world=World_Nether.essentials.fly");
+        assertEquals("essentials.fly", node.getToApply());
+        assertEquals("01", truthTable("is_flying", "is_flying"));
+        assertEquals("10", truthTable("!is_flying", "is_flying"));
+        assertEquals("10", truthTable("(!is_flying)", "is_flying"));
+    }
+
+    @Test
+    void andBindsTighterThanOr() {
+        // a|b&c == a|(b&c), not (a|b)&c
+        final String expected = truthTable("(is_flying|(is_vanished&in_combat))", ABC);
+        assertEquals(expected, truthTable("(is_flying|is_vanished&in_combat)", ABC));
+        assertEquals(expected, truthTable("(is_vanished&in_combat|is_flying)", ABC));
+        // bits are is_flying, is_vanished, in_combat from the least significant
+        assertEquals("01010111", expected);
+        assertEquals("00000111", truthTable("((is_flying|is_vanished)&in_combat)", ABC));
+    }
+
+    @Test
+    void negatesNestedGroups() {
+        assertEquals(truthTable("(!is_flying|!is_vanished)", ABC), truthTable("!(is_flying&is_vanished)", ABC));
+        assertEquals(truthTable("(!is_flying&!is_vanished)", ABC), truthTable("(!(is_flying|is_vanished))", ABC));
+        // !(a&!(b|c)) == !a|b|c
+        assertEquals(truthTable("(!is_flying|is_vanished|in_combat)", ABC), truthTable("!(is_flying&!(is_vanished|in_combat))", ABC));
+        assertEquals(truthTable("(is_flying)", ABC), truthTable("(!!is_flying)", ABC));
+        assertEquals(truthTable("(is_flying&is_vanished)", ABC), truthTable("(!!!(!is_flying|!is_vanished))", ABC));
+    }
+
+    @Test
+    void parsesExpressionsWithoutOuterBrackets() {
+        // any condition with brackets or operators is an expression, not just ones starting with ( or !(
+        assertEquals(truthTable("(is_flying|is_vanished)", ABC), truthTable("!!(is_flying|is_vanished)", ABC));
+        assertEquals(truthTable("(is_flying|is_vanished)", ABC), truthTable("is_flying|is_vanished", ABC));
+        assertEquals(truthTable("(!is_flying&is_vanished)", ABC), truthTable("!is_flying&is_vanished", ABC));
+
+        assertEquals("x", NodeCompiler.parse("cperms.!!(in_world=a|is_flying).x").getToApply());
+        assertEquals("0111", truthTable("!!(in_world=a|is_flying)", "in_world", "is_flying"));
+        assertEquals("1000", truthTable("!(in_world=a|is_flying)", "in_world", "is_flying"));
+    }
+
+    @Test
+    void rejectsMalformedExpressions() {
+        final String[] malformed = {
+                "(is_flying&)", "(is_flying", "is_flying)", "()", "(is_flying))", "(&is_flying)", "(is_flying|)",
+                "(is_flying&&is_vanished)", "(is_flying)is_vanished", "(is_flying)(is_vanished)", "(!)", "!(",
+                "(is_flying&not_a_condition)", "(in_world)", "(in_gamemode=banana|is_flying)"
+        };
+        for (String condition : malformed) {
+            assertThrows(IllegalArgumentException.class, () -> NodeCompiler.parse("cperms." + condition + ".test"), condition);
+        }
+    }
+
+    @Test
+    void rejectsInvalidNodes() {
+        assertThrows(IllegalArgumentException.class, () -> NodeCompiler.parse("cperms.is_flying"));
+        assertThrows(IllegalArgumentException.class, () -> NodeCompiler.parse("cperms.not_a_condition.test"));
+        assertThrows(IllegalArgumentException.class, () -> NodeCompiler.parse("cperms.in_world.test"));
+        assertThrows(IllegalArgumentException.class, () -> NodeCompiler.parse("cperms.in_gamemode=banana.test"));
+    }
+
+    @Test
+    void cachesInvalidNodesWithoutSideEffects() {
+        final NodeCompiler compiler = new NodeCompiler(null, false);
+        assertNull(compiler.compile("cperms.(is_flying&.test"));
+        assertNull(compiler.compile("cperms.(is_flying&.test"));
+        assertEquals("test", compiler.compile("cperms.(is_flying&is_vanished).test").getToApply());
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright (c) 2017 Lucko (Luck) <luck@lucko.me>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+
+package me.lucko.conditionalperms;
+
+import me.lucko.conditionalperms.hooks.AbstractHook;
+import me.lucko.conditionalperms.hooks.impl.CombatTagPlusHook;
+import me.lucko.conditionalperms.hooks.impl.WorldGuardHook;
+import me.lucko.conditionalperms.trace.Tracer;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.BiPredicate;
+import java.util.function.Predicate;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ * Checks {@link NodeCompiler} and {@link NodeEvaluator} against the {@link NaiveEvaluator}, for randomly generated
+ * sets of nodes, condition states and hooks. The first difference found is shrunk down to the smallest set of nodes
+ * which still shows it.
+ */
+class NodeEvaluatorFuzzTest {
+    private static final long SEED = 0x5eed_c0de_2017L;
+    private static final int NODE_SETS = 3000;
+    private static final int STATES_PER_NODE_SET = 8;
+
+    /**
+     * The conditions used when generating nodes. Includes some which are invalid, or depend on a hook.
+     */
+    private static final String[] CONDITIONS = {
+            "in_world=world", "in_world=World_Nether", "in_gamemode=creative", "in_gamemode=SURVIVAL",
+            "is_flying", "is_vanished", "in_region=spawn", "in_combat",
+            "in_world", "in_world=", "in_gamemode=banana", "not_a_condition"
+    };
+    private static final String[] TARGETS = {"fuzz.a", "fuzz.b", "fuzz.c", "fuzz.d.e", "fuzz.*"};
+    private static final List<Class<? extends AbstractHook>> HOOKS = new ArrayList<>();
+    static {
+        HOOKS.add(WorldGuardHook.class);
+        HOOKS.add(CombatTagPlusHook.class);
+    }
+
+    private final NodeCompiler compiler = new NodeCompiler(null, false);
+    private final Tracer tracer = new Tracer(Logger.getLogger("NodeEvaluatorFuzzTest"), 16);
+
+    @Test
+    void matchesNaiveEvaluator() {
+        final Random random = new Random(SEED);
+        for (int i = 0; i < NODE_SETS; i++) {
+            final List<String> nodes = generate(random);
+
+            for (int j = 0; j < STATES_PER_NODE_SET; j++) {
+                final long stateSeed = random.nextLong();
+                if (!fails(nodes, stateSeed)) {
+                    continue;
+                }
+
+                final List<String> shrunk = shrink(nodes, stateSeed);
+                fail("Difference with node set " + i + ", state seed " + stateSeed + ", nodes " + shrunk +
+                        ": expected " + naive(shrunk, stateSeed) + " but was " + compiled(shrunk, stateSeed));
+            }
+        }
+    }
+
+    private static List<String> generate(Random random) {
+        final List<String> nodes = new ArrayList<>();
+        final int count = 1 + random.nextInt(12);
+        for (int i = 0; i < count; i++) {
+            // reuse an existing node as the target sometimes, to get shared chains and duplicates
+            String node = !nodes.isEmpty() && random.nextInt(4) == 0 ? nodes.get(random.nextInt(nodes.size())) : TARGETS[random.nextInt(TARGETS.length)];
+
+            final int depth = 1 + random.nextInt(3);
+            for (int j = 0; j < depth; j++) {
+                final String condition = random.nextInt(3) == 0 ? "(" + expression(random, 3) + ")" : CONDITIONS[random.nextInt(CONDITIONS.length)];
+                node = "cperms." + (random.nextInt(3) == 0 ? "!" : "") + mangle(random, condition) + "." + node;
+            }
+            nodes.add(node);
+        }
+        return nodes;
+    }
+
+    private static String expression(Random random, int depth) {
+        final StringBuilder sb = new StringBuilder();
+        final int terms = 1 + random.nextInt(3);
+        for (int i = 0; i < terms; i++) {
+            if (i > 0) {
+                sb.append(random.nextBoolean() ? '&' : '|');
+            }
+            for (int n = random.nextInt(4) == 0 ? 1 + random.nextInt(2) : 0; n > 0; n--) {
+                sb.append('!');
+            }
+            if (depth > 0 && random.nextInt(3) == 0) {
+                sb.append('(').append(expression(random, depth - 1)).append(')');
+            } else {
+                sb.append(CONDITIONS[random.nextInt(8)]);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Sometimes breaks a condition, by dropping, duplicating or inserting a character, to check malformed nodes
+     * are rejected in the same way.
+     */
+    private static String mangle(Random random, String condition) {
+        if (random.nextInt(10) != 0 || condition.isEmpty()) {
+            return condition;
+        }
+        final int at = random.nextInt(condition.length());
+        switch (random.nextInt(3)) {
+            case 0:
+                return condition.substring(0, at) + condition.substring(at + 1);
+            case 1:
+                return condition.substring(0, at + 1) + condition.substring(at);
+            default:
+                return condition.substring(0, at) + "()&|!".charAt(random.nextInt(5)) + condition.substring(at);
+        }
+    }
+
+    private List<String> shrink(List<String> nodes, long stateSeed) {
+        List<String> current = nodes;
+        boolean shrunk = true;
+        while (shrunk) {
+            shrunk = false;
+            for (int i = 0; i < current.size(); i++) {
+                final List<String> candidate = new ArrayList<>(current);
+                candidate.remove(i);
+                if (fails(candidate, stateSeed)) {
+                    current = candidate;
+                    shrunk = true;
+                    break;
+                }
+            }
+        }
+        return current;
+    }
+
+    private boolean fails(List<String> nodes, long stateSeed) {
+        return !naive(nodes, stateSeed).equals(compiled(nodes, stateSeed));
+    }
+
+    private Set<String> naive(List<String> nodes, long stateSeed) {
+        return new NaiveEvaluator(state(stateSeed), hooks(stateSeed)).evaluate(nodes);
+    }
+
+    private Set<String> compiled(List<String> nodes, long stateSeed) {
+        final List<ConditionalNode> compiled = new ArrayList<>();
+        for (String permission : new LinkedHashSet<>(nodes)) {
+            final ConditionalNode node = compiler.compile(permission);
+            if (node != null) {
+                compiled.add(node);
+            }
+        }
+
+        final BiPredicate<String, Object> state = state(stateSeed);
+        final NodeEvaluator evaluator = new NodeEvaluator(compiler, () -> tracer, hooks(stateSeed));
+        return new HashSet<>(evaluator.evaluate("fuzz", compiled, null,
+                leaf -> state.test(leaf.getType().name().toLowerCase(), leaf.getParameter()) != leaf.isNegated()));
+    }
+
+    /**
+     * Gets a random condition state. The outcome for each condition and parameter only depends on the seed, so both
+     * evaluators see the same state regardless of the order they check nodes in.
+     */
+    private static BiPredicate<String, Object> state(long seed) {
+        return (condition, parameter) -> {
+            long h = seed ^ (condition + "=" + String.valueOf(parameter).toLowerCase()).hashCode();
+            h = (h ^ (h >>> 33)) * 0xff51afd7ed558ccdL;
+            h = (h ^ (h >>> 33)) * 0xc4ceb9fe1a85ec53L;
+            return ((h ^ (h >>> 33)) & 1) == 0;
+        };
+    }
+
+    private static Predicate<Class<? extends AbstractHook>> hooks(long seed) {
+        final Set<Class<? extends AbstractHook>> hooked = new HashSet<>();
+        for (int i = 0; i < HOOKS.size(); i++) {
+            if ((seed >>> i & 1) == 0) {
+                hooked.add(HOOKS.get(i));
+            }
+        }
+        return hooked::contains;
+    }
+}
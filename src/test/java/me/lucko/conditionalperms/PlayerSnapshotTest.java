@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2017 Lucko (Luck) <luck@lucko.me>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+
+package me.lucko.conditionalperms;
+
+import me.lucko.conditionalperms.conditions.bukkit.InGamemode;
+import me.lucko.conditionalperms.conditions.bukkit.InWorld;
+import me.lucko.conditionalperms.conditions.bukkit.IsFlying;
+import me.lucko.conditionalperms.conditions.time.InWorldTime;
+
+import org.bukkit.GameMode;
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PlayerSnapshotTest {
+
+    /**
+     * Set once the snapshot has been taken, after which the live player and world must not be read.
+     */
+    private final AtomicBoolean taken = new AtomicBoolean(false);
+
+    private <T> T stub(Class<T> type, Object... answers) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+            if (taken.get()) {
+                throw new AssertionError(type.getSimpleName() + "." + method.getName() + " read after the snapshot was taken");
+            }
+            for (int i = 0; i < answers.length; i += 2) {
+                if (answers[i].equals(method.getName())) {
+                    return answers[i + 1];
+                }
+            }
+            throw new UnsupportedOperationException(method.getName());
+        }));
+    }
+
+    private PlayerSnapshot snapshot() {
+        final World world = stub(World.class, "getName", "PvP", "getTime", 14000L);
+        final Player player = stub(Player.class, "getWorld", world, "getGameMode", GameMode.CREATIVE, "isFlying", true);
+        final PlayerSnapshot snapshot = PlayerSnapshot.of(player);
+        taken.set(true);
+        return snapshot;
+    }
+
+    @Test
+    void threadSafeConditionsOnlyReadTheSnapshot() {
+        final PlayerSnapshot snapshot = snapshot();
+
+        final InWorld inWorld = new InWorld();
+        assertTrue(inWorld.shouldApply(snapshot, inWorld.parseParameter("pvp")));
+        assertFalse(inWorld.shouldApply(snapshot, inWorld.parseParameter("world")));
+
+        final InGamemode inGamemode = new InGamemode();
+        assertTrue(inGamemode.shouldApply(snapshot, inGamemode.parseParameter("creative")));
+        assertFalse(inGamemode.shouldApply(snapshot, inGamemode.parseParameter("survival")));
+
+        assertTrue(new IsFlying().shouldApply(snapshot, (Void) null));
+
+        final InWorldTime inWorldTime = new InWorldTime();
+        assertTrue(inWorldTime.shouldApply(snapshot, inWorldTime.parseParameter("13000-23000")));
+        assertFalse(inWorldTime.shouldApply(snapshot, inWorldTime.parseParameter("0-12000")));
+    }
+}
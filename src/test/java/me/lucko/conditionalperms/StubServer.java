@@ -0,0 +1,465 @@
+/*
+ * Copyright (c) 2017 Lucko (Luck) <luck@lucko.me>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.conditionalperms;
+
+import lombok.Getter;
+
+import me.lucko.conditionalperms.scheduler.TaskScheduler;
+import me.lucko.helper.internal.LoaderUtils;
+import me.lucko.helper.plugin.HelperPlugin;
+import me.lucko.helper.terminable.Terminable;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.Server;
+import org.bukkit.World;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.entity.Player;
+import org.bukkit.event.Event;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.HandlerList;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerChangedWorldEvent;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerLoginEvent;
+import org.bukkit.event.player.PlayerMoveEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.event.player.PlayerTeleportEvent;
+import org.bukkit.plugin.EventExecutor;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.plugin.PluginDescriptionFile;
+import org.bukkit.plugin.PluginManager;
+import org.bukkit.plugin.RegisteredListener;
+
+import java.io.File;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.UUID;
+import java.util.concurrent.ForkJoinPool;
+import java.util.logging.Logger;
+
+/**
+ * A headless server which runs the real plugin, for the load simulation, the event replayer and the benchmarks.
+ *
+ * <p>The plugin is started with the same {@link ConditionalPerms} as on a real server, with a stand-in for
+ * {@link ConditionalPermsBootstrap}. Events are dispatched to the listeners registered through helper in the same
+ * way as Bukkit's plugin manager, and the plugins tasks run when {@link #tick()} is called, on the thread which
+ * enabled the server. Hooks aren't created from their plugins, so a hook is only available if it has been
+ * registered with the plugins {@link me.lucko.conditionalperms.hooks.HookManager} before the server is enabled.</p>
+ *
+ * <p>Bukkit and helper only allow one server and one plugin per JVM, so only one stub server can be enabled at a
+ * time. Anything which isn't stubbed throws {@link UnsupportedOperationException}.</p>
+ */
+final class StubServer implements TaskScheduler {
+    private static final Logger LOGGER = Logger.getLogger("StubServer");
+    private static final Server SERVER = proxy(Server.class, (proxy, method, args) -> current().handleServer(method.getName(), args));
+    private static final PluginManager PLUGIN_MANAGER = proxy(PluginManager.class, (proxy, method, args) -> current().handlePluginManager(method.getName(), args));
+    private static final HelperPlugin BOOTSTRAP = proxy(HelperPlugin.class, (proxy, method, args) -> handleBootstrap(proxy, method.getName(), args));
+
+    private static StubServer current = null;
+
+    @Getter
+    private final YamlConfiguration config = new YamlConfiguration();
+
+    private final Map<String, World> worlds = new LinkedHashMap<>();
+    private final Map<UUID, Stubs.MutablePlayer> players = new LinkedHashMap<>();
+    private final PriorityQueue<Task> tasks = new PriorityQueue<>();
+
+    @Getter
+    private final ConditionalPerms plugin = new ConditionalPerms(BOOTSTRAP, this);
+
+    @Getter
+    private long currentTick = 0;
+    private long sequence = 0;
+    private Thread mainThread = null;
+    private boolean enabled = false;
+
+    private static StubServer current() {
+        final StubServer server = current;
+        if (server == null) {
+            throw new IllegalStateException("No stub server is enabled");
+        }
+        return server;
+    }
+
+    /**
+     * Gets a world, creating it if it doesn't exist.
+     *
+     * @param name the name of the world
+     * @return the world
+     */
+    World world(String name) {
+        return worlds.computeIfAbsent(name, Stubs::world);
+    }
+
+    /**
+     * Enables the plugin. The current thread becomes the main thread.
+     */
+    void enable() {
+        synchronized (StubServer.class) {
+            if (current != null) {
+                throw new IllegalStateException("Another stub server is enabled");
+            }
+            current = this;
+            if (Bukkit.getServer() == null) {
+                Bukkit.setServer(SERVER);
+            }
+            bindHelper();
+        }
+
+        mainThread = Thread.currentThread();
+        enabled = true;
+        plugin.enable();
+    }
+
+    /**
+     * Disables the plugin, and unregisters its listeners.
+     */
+    void disable() {
+        try {
+            plugin.disable();
+        } finally {
+            enabled = false;
+            HandlerList.unregisterAll(BOOTSTRAP);
+            synchronized (StubServer.class) {
+                current = null;
+            }
+        }
+    }
+
+    /**
+     * helper registers listeners for the plugin which loaded its classes, which it finds through the plugin class
+     * loader. There isn't one here, so the plugin it found is set directly.
+     */
+    private static void bindHelper() {
+        try {
+            for (Field field : LoaderUtils.class.getDeclaredFields()) {
+                if (Modifier.isStatic(field.getModifiers()) && field.getType().isInstance(BOOTSTRAP)) {
+                    field.setAccessible(true);
+                    field.set(null, BOOTSTRAP);
+                }
+            }
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Unable to bind helper to the stub plugin", e);
+        }
+    }
+
+    /**
+     * Logs a player in, and has them join if the login is allowed.
+     *
+     * @param player the player
+     * @return true if they joined
+     */
+    boolean join(Stubs.MutablePlayer player) {
+        final PlayerLoginEvent login = new PlayerLoginEvent(player.getPlayer(), "localhost", InetAddress.getLoopbackAddress());
+        callEvent(login);
+        if (login.getResult() != PlayerLoginEvent.Result.ALLOWED) {
+            return false;
+        }
+
+        player.setOnline(true);
+        players.put(player.getUniqueId(), player);
+        callEvent(new PlayerJoinEvent(player.getPlayer(), null));
+        return true;
+    }
+
+    void quit(Stubs.MutablePlayer player) {
+        callEvent(new PlayerQuitEvent(player.getPlayer(), null));
+        players.remove(player.getUniqueId());
+        player.setOnline(false);
+    }
+
+    /**
+     * Moves a player within their world, if the move event isn't cancelled.
+     *
+     * @param player the player
+     * @param to where to move them
+     */
+    void move(Stubs.MutablePlayer player, Location to) {
+        final PlayerMoveEvent event = new PlayerMoveEvent(player.getPlayer(), player.getLocation(), to);
+        callEvent(event);
+        if (!event.isCancelled()) {
+            player.setLocation(event.getTo());
+        }
+    }
+
+    /**
+     * Teleports a player, possibly to another world, if the teleport event isn't cancelled.
+     *
+     * @param player the player
+     * @param to where to teleport them
+     */
+    void teleport(Stubs.MutablePlayer player, Location to) {
+        final Location from = player.getLocation();
+        final PlayerTeleportEvent event = new PlayerTeleportEvent(player.getPlayer(), from, to);
+        callEvent(event);
+        if (event.isCancelled()) {
+            return;
+        }
+
+        player.setLocation(event.getTo());
+        if (!from.getWorld().equals(event.getTo().getWorld())) {
+            callEvent(new PlayerChangedWorldEvent(player.getPlayer(), from.getWorld()));
+        }
+    }
+
+    /**
+     * Calls an event, in the same way as Bukkit's plugin manager. Exceptions thrown by listeners are rethrown,
+     * rather than logged.
+     *
+     * @param event the event
+     */
+    void callEvent(Event event) {
+        if (!event.isAsynchronous() && Thread.currentThread() != mainThread) {
+            throw new IllegalStateException(event.getEventName() + " may only be triggered synchronously.");
+        }
+
+        for (RegisteredListener listener : event.getHandlers().getRegisteredListeners()) {
+            if (!listener.getPlugin().isEnabled()) {
+                continue;
+            }
+
+            try {
+                listener.callEvent(event);
+            } catch (Exception e) {
+                throw new IllegalStateException("Could not pass event " + event.getEventName() + " to " + listener.getPlugin().getName(), e);
+            }
+        }
+    }
+
+    /**
+     * Runs the tasks which are due on the next tick.
+     */
+    void tick() {
+        final long tick = ++currentTick;
+        while (true) {
+            final Task task;
+            synchronized (tasks) {
+                if (tasks.isEmpty() || tasks.peek().due > tick) {
+                    break;
+                }
+                task = tasks.poll();
+            }
+
+            if (task.cancelled) {
+                continue;
+            }
+            if (task.period > 0) {
+                schedule(task.task, task.period, task.period, task);
+            }
+            task.task.run();
+        }
+    }
+
+    @Override
+    public void execute(Player player, Runnable task) {
+        if (Thread.currentThread() == mainThread) {
+            task.run();
+        } else {
+            runLater(task, 0L);
+        }
+    }
+
+    @Override
+    public void runLater(Player player, Runnable task, Runnable retired, long delay) {
+        runLater(() -> {
+            if (player.isOnline()) {
+                task.run();
+            } else {
+                retired.run();
+            }
+        }, delay);
+    }
+
+    @Override
+    public void runLater(Runnable task, long delay) {
+        schedule(task, delay, 0L, null);
+    }
+
+    @Override
+    public Terminable runRepeating(Runnable task, long delay, long period) {
+        final Task scheduled = schedule(task, delay, Math.max(1L, period), null);
+        return () -> scheduled.cancelled = true;
+    }
+
+    @Override
+    public void runAsync(Runnable task) {
+        ForkJoinPool.commonPool().execute(task);
+    }
+
+    private Task schedule(Runnable task, long delay, long period, Task previous) {
+        synchronized (tasks) {
+            // like Bukkit, tasks run on the next tick at the earliest
+            final Task scheduled = previous != null ? previous : new Task(task, period);
+            scheduled.due = currentTick + Math.max(1L, delay);
+            scheduled.sequence = sequence++;
+            tasks.add(scheduled);
+            return scheduled;
+        }
+    }
+
+    private Object handleServer(String method, Object[] args) {
+        switch (method) {
+            case "getName":
+                return "StubServer";
+            case "getVersion":
+            case "getBukkitVersion":
+                return "stub";
+            case "getLogger":
+                return LOGGER;
+            case "getPluginManager":
+                return PLUGIN_MANAGER;
+            case "isPrimaryThread":
+                return Thread.currentThread() == mainThread;
+            case "getOnlinePlayers":
+                final List<Player> online = new ArrayList<>();
+                for (Stubs.MutablePlayer player : players.values()) {
+                    online.add(player.getPlayer());
+                }
+                return Collections.unmodifiableList(online);
+            case "getPlayer":
+                if (args[0] instanceof UUID) {
+                    final Stubs.MutablePlayer player = players.get(args[0]);
+                    return player == null ? null : player.getPlayer();
+                }
+                // fall through, names are matched exactly
+            case "getPlayerExact":
+                for (Stubs.MutablePlayer player : players.values()) {
+                    if (player.getName().equalsIgnoreCase((String) args[0])) {
+                        return player.getPlayer();
+                    }
+                }
+                return null;
+            case "getWorlds":
+                return new ArrayList<>(worlds.values());
+            case "getWorld":
+                if (args[0] instanceof UUID) {
+                    for (World world : worlds.values()) {
+                        if (world.getUID().equals(args[0])) {
+                            return world;
+                        }
+                    }
+                    return null;
+                }
+                return worlds.get(args[0]);
+            case "toString":
+                return "StubServer";
+            default:
+                throw new UnsupportedOperationException(method);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Object handlePluginManager(String method, Object[] args) {
+        switch (method) {
+            case "registerEvent":
+                final Class<? extends Event> event = (Class<? extends Event>) args[0];
+                getHandlerList(event).register(new RegisteredListener((Listener) args[1], (EventExecutor) args[3],
+                        (EventPriority) args[2], (Plugin) args[4], (Boolean) args[5]));
+                return null;
+            case "callEvent":
+                callEvent((Event) args[0]);
+                return null;
+            case "isPluginEnabled":
+                return false;
+            case "getPlugin":
+                return null;
+            case "getPlugins":
+                return new Plugin[]{BOOTSTRAP};
+            case "toString":
+                return "StubPluginManager";
+            default:
+                throw new UnsupportedOperationException(method);
+        }
+    }
+
+    private static Object handleBootstrap(Object proxy, String method, Object[] args) {
+        switch (method) {
+            case "getName":
+            case "toString":
+                return "ConditionalPerms";
+            case "getLogger":
+                return Logger.getLogger("ConditionalPerms");
+            case "getServer":
+                return SERVER;
+            case "isEnabled":
+                return current != null && current.enabled;
+            case "getConfig":
+                return current().config;
+            case "saveDefaultConfig":
+                return null;
+            case "getDataFolder":
+                return new File(System.getProperty("java.io.tmpdir"), "conditionalperms-stub");
+            case "getDescription":
+                return new PluginDescriptionFile("ConditionalPerms", "stub", ConditionalPermsBootstrap.class.getName());
+            case "equals":
+                return proxy == args[0];
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            default:
+                throw new UnsupportedOperationException(method);
+        }
+    }
+
+    /**
+     * Finds the handler list for an event in the same way as Bukkit, through its static getHandlerList method.
+     */
+    private static HandlerList getHandlerList(Class<? extends Event> event) {
+        try {
+            return (HandlerList) event.getMethod("getHandlerList").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalArgumentException("Unable to find handler list for event " + event.getName(), e);
+        }
+    }
+
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, handler));
+    }
+
+    private static final class Task implements Comparable<Task> {
+        private final Runnable task;
+        private final long period;
+        private long due;
+        private long sequence;
+        private volatile boolean cancelled = false;
+
+        private Task(Runnable task, long period) {
+            this.task = task;
+            this.period = period;
+        }
+
+        @Override
+        public int compareTo(Task other) {
+            return due != other.due ? Long.compare(due, other.due) : Long.compare(sequence, other.sequence);
+        }
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright (c) 2017 Lucko (Luck) <luck@lucko.me>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+
+package me.lucko.conditionalperms;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import me.lucko.conditionalperms.scheduler.TaskScheduler;
+import me.lucko.helper.terminable.Terminable;
+
+import org.bukkit.GameMode;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+import org.bukkit.permissions.PermissionAttachment;
+import org.bukkit.permissions.PermissionAttachmentInfo;
+import org.bukkit.plugin.Plugin;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Stand-ins for the Bukkit objects the plugin reads, so evaluation and movement handling can be driven without a
+ * server. Used by the tests, the load harness and the benchmarks under {@code src/jmh}.
+ *
+ * <p>Every call on a stub goes through a {@link Proxy}, which adds a small constant cost compared to a real server.
+ * Anything which isn't stubbed throws {@link UnsupportedOperationException}.</p>
+ */
+final class Stubs {
+    private Stubs() {}
+
+    /**
+     * Creates a world.
+     *
+     * @param name the name of the world
+     * @return the world
+     */
+    static World world(String name) {
+        final UUID uid = UUID.nameUUIDFromBytes(name.getBytes());
+        return (World) Proxy.newProxyInstance(World.class.getClassLoader(), new Class<?>[]{World.class}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getName":
+                case "toString":
+                    return name;
+                case "getUID":
+                    return uid;
+                case "getTime":
+                    return 6000L;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                default:
+                    throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    /**
+     * Creates a scheduler which runs tasks for players straight away, as if every task was called on the thread
+     * which owns the player.
+     *
+     * @return the scheduler
+     */
+    static TaskScheduler directScheduler() {
+        return new TaskScheduler() {
+            @Override
+            public void execute(Player player, Runnable task) {
+                task.run();
+            }
+
+            @Override
+            public void runLater(Player player, Runnable task, Runnable retired, long delay) {
+                throw new UnsupportedOperationException("runLater");
+            }
+
+            @Override
+            public void runLater(Runnable task, long delay) {
+                throw new UnsupportedOperationException("runLater");
+            }
+
+            @Override
+            public Terminable runRepeating(Runnable task, long delay, long period) {
+                throw new UnsupportedOperationException("runRepeating");
+            }
+
+            @Override
+            public void runAsync(Runnable task) {
+                task.run();
+            }
+        };
+    }
+
+    /**
+     * A player whose location, gamemode and flight can be changed.
+     *
+     * <p>Permissions work like Bukkit's: the player has the permissions in {@link #getPermissions()}, overridden
+     * by any set in attachments.</p>
+     */
+    @Getter
+    @Setter
+    static final class MutablePlayer {
+        private final String name;
+        private final UUID uniqueId;
+        private final Player player;
+        private Location location;
+        private GameMode gameMode = GameMode.SURVIVAL;
+        private boolean flying = false;
+        private boolean online = true;
+        private final Map<String, Boolean> permissions = new LinkedHashMap<>();
+        private final List<PermissionAttachment> attachments = new ArrayList<>();
+
+        MutablePlayer(String name, Location location) {
+            this.name = name;
+            this.uniqueId = UUID.nameUUIDFromBytes(("OfflinePlayer:" + name).getBytes());
+            this.location = location;
+            this.player = (Player) Proxy.newProxyInstance(Player.class.getClassLoader(), new Class<?>[]{Player.class}, (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "getName":
+                    case "toString":
+                        return this.name;
+                    case "getUniqueId":
+                        return uniqueId;
+                    case "getWorld":
+                        return this.location.getWorld();
+                    case "getLocation":
+                        return this.location.clone();
+                    case "getGameMode":
+                        return gameMode;
+                    case "isFlying":
+                        return flying;
+                    case "isOnline":
+                        return online;
+                    case "addAttachment":
+                        if (args.length != 1) {
+                            throw new UnsupportedOperationException(method.getName());
+                        }
+                        final PermissionAttachment attachment = new PermissionAttachment((Plugin) args[0], (Player) proxy);
+                        attachments.add(attachment);
+                        return attachment;
+                    case "removeAttachment":
+                        if (!attachments.remove(args[0])) {
+                            throw new IllegalArgumentException("Given attachment is not part of Permissible object " + proxy);
+                        }
+                        return null;
+                    case "recalculatePermissions":
+                        return null;
+                    case "getEffectivePermissions":
+                        return new HashSet<>(getEffectivePermissions((Player) proxy).values());
+                    case "hasPermission":
+                        final PermissionAttachmentInfo info = getEffectivePermissions((Player) proxy).get(((String) args[0]).toLowerCase());
+                        return info != null && info.getValue();
+                    case "isOp":
+                        return false;
+                    case "equals":
+                        return proxy == args[0];
+                    case "hashCode":
+                        return uniqueId.hashCode();
+                    default:
+                        throw new UnsupportedOperationException(method.getName());
+                }
+            });
+        }
+
+        private Map<String, PermissionAttachmentInfo> getEffectivePermissions(Player player) {
+            final Map<String, PermissionAttachmentInfo> ret = new LinkedHashMap<>();
+            permissions.forEach((permission, value) -> ret.put(permission.toLowerCase(), new PermissionAttachmentInfo(player, permission.toLowerCase(), null, value)));
+            for (PermissionAttachment attachment : attachments) {
+                attachment.getPermissions().forEach((permission, value) -> ret.put(permission, new PermissionAttachmentInfo(player, permission, attachment, value)));
+            }
+            return ret;
+        }
+    }
+}
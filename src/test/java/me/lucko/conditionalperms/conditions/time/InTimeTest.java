@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2017 Lucko (Luck) <luck@lucko.me>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+
+package me.lucko.conditionalperms.conditions.time;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class InTimeTest {
+    private final InTime condition = new InTime();
+
+    private static long at(int day, int hour, int minute) {
+        // a monday in a month without daylight saving changes
+        return ZonedDateTime.of(2024, 7, day, hour, minute, 0, 0, ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    @Test
+    void parsesWindows() {
+        final InTime.Window window = condition.parseParameter("18:00-23:30");
+        assertEquals(LocalTime.of(18, 0), window.getStart());
+        assertEquals(LocalTime.of(23, 30), window.getEnd());
+
+        assertEquals(LocalTime.of(9, 5), condition.parseParameter("9:05-10:00").getStart());
+        assertEquals(LocalTime.MIDNIGHT, condition.parseParameter("18:00-24:00").getEnd());
+    }
+
+    @Test
+    void rejectsInvalidWindows() {
+        assertThrows(IllegalArgumentException.class, () -> condition.parseParameter("18:00"));
+        assertThrows(IllegalArgumentException.class, () -> condition.parseParameter("18:00-25:00"));
+        assertThrows(IllegalArgumentException.class, () -> condition.parseParameter("6pm-11pm"));
+        assertThrows(IllegalArgumentException.class, () -> condition.parseParameter("10:00-10:00"));
+        assertThrows(IllegalArgumentException.class, () -> condition.parseParameter("18:00-"));
+    }
+
+    @Test
+    void windowIncludesStartAndExcludesEnd() {
+        final InTime.Window window = condition.parseParameter("18:00-23:00");
+        assertFalse(condition.isOpen(window, 0, at(1, 17, 59)));
+        assertTrue(condition.isOpen(window, 0, at(1, 18, 0)));
+        assertTrue(condition.isOpen(window, 0, at(1, 22, 59)));
+        assertFalse(condition.isOpen(window, 0, at(1, 23, 0)));
+    }
+
+    @Test
+    void windowsWrapOverMidnight() {
+        final InTime.Window window = condition.parseParameter("22:00-02:00");
+        assertTrue(condition.isOpen(window, 0, at(1, 23, 0)));
+        assertTrue(condition.isOpen(window, 0, at(2, 1, 59)));
+        assertFalse(condition.isOpen(window, 0, at(2, 2, 0)));
+        assertFalse(condition.isOpen(window, 0, at(2, 12, 0)));
+    }
+
+    @Test
+    void nextCheckIsTheNextStartOrEnd() {
+        final InTime.Window window = condition.parseParameter("18:00-23:00");
+        assertEquals(at(1, 18, 0), condition.getNextCheck(window, at(1, 12, 0)));
+        assertEquals(at(1, 23, 0), condition.getNextCheck(window, at(1, 18, 0)));
+        assertEquals(at(2, 18, 0), condition.getNextCheck(window, at(1, 23, 0)));
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2017 Lucko (Luck) <luck@lucko.me>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+package me.lucko.conditionalperms.conditions.time;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class InWorldTimeTest {
+    private final InWorldTime condition = new InWorldTime();
+
+    @Test
+    void parsesWindows() {
+        final InWorldTime.Window window = condition.parseParameter("13000-23000");
+        assertEquals(13000, window.getStart());
+        assertEquals(23000, window.getEnd());
+    }
+
+    @Test
+    void wholeDayIsAlwaysOpen() {
+        final InWorldTime.Window window = condition.parseParameter("0-24000");
+        assertTrue(condition.isOpen(window, 0, 0));
+        assertTrue(condition.isOpen(window, 12000, 0));
+        assertTrue(condition.isOpen(window, 23999, 0));
+    }
+
+    @Test
+    void endOfDayClosesAtMidnight() {
+        final InWorldTime.Window window = condition.parseParameter("18000-24000");
+        assertFalse(condition.isOpen(window, 17999, 0));
+        assertTrue(condition.isOpen(window, 23999, 0));
+        assertFalse(condition.isOpen(window, 0, 0));
+    }
+
+    @Test
+    void windowsWrapOverTheEndOfTheDay() {
+        final InWorldTime.Window window = condition.parseParameter("23000-1000");
+        assertTrue(condition.isOpen(window, 23500, 0));
+        assertTrue(condition.isOpen(window, 500, 0));
+        assertFalse(condition.isOpen(window, 1000, 0));
+        assertFalse(condition.isOpen(window, 12000, 0));
+    }
+
+    @Test
+    void rejectsInvalidWindows() {
+        assertThrows(IllegalArgumentException.class, () -> condition.parseParameter("13000"));
+        assertThrows(IllegalArgumentException.class, () -> condition.parseParameter("0-24001"));
+        assertThrows(IllegalArgumentException.class, () -> condition.parseParameter("-1-100"));
+        assertThrows(IllegalArgumentException.class, () -> condition.parseParameter("day-night"));
+        assertThrows(IllegalArgumentException.class, () -> condition.parseParameter("6000-6000"));
+        assertThrows(IllegalArgumentException.class, () -> condition.parseParameter("24000-0"));
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2017 Lucko (Luck) <luck@lucko.me>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+
+package me.lucko.conditionalperms.conditions.time;
+
+import com.google.common.collect.Sets;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.DayOfWeek;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.EnumSet;
+import java.util.Set;
+
+import static java.time.DayOfWeek.FRIDAY;
+import static java.time.DayOfWeek.MONDAY;
+import static java.time.DayOfWeek.SATURDAY;
+import static java.time.DayOfWeek.SUNDAY;
+import static java.time.DayOfWeek.WEDNESDAY;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OnDayTest {
+    private final OnDay condition = new OnDay();
+
+    private static long at(int day, int hour) {
+        // 2024-07-01 is a monday
+        return ZonedDateTime.of(2024, 7, day, hour, 0, 0, 0, ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    @Test
+    void parsesDaysAndRanges() {
+        assertEquals(EnumSet.range(MONDAY, FRIDAY), condition.parseParameter("mon-fri"));
+        assertEquals(EnumSet.of(SATURDAY, SUNDAY), condition.parseParameter("sat,sun"));
+        assertEquals(EnumSet.of(WEDNESDAY), condition.parseParameter("Wednesday"));
+        assertEquals(EnumSet.of(MONDAY, WEDNESDAY, FRIDAY, SATURDAY), condition.parseParameter("mon,wed,fri-sat"));
+    }
+
+    @Test
+    void rangesWrapOverTheEndOfTheWeek() {
+        assertEquals(EnumSet.of(FRIDAY, SATURDAY, SUNDAY, MONDAY), condition.parseParameter("fri-mon"));
+        assertEquals(EnumSet.allOf(DayOfWeek.class), condition.parseParameter("tue-mon"));
+    }
+
+    @Test
+    void rejectsInvalidDays() {
+        assertThrows(IllegalArgumentException.class, () -> condition.parseParameter("mo"));
+        assertThrows(IllegalArgumentException.class, () -> condition.parseParameter("funday"));
+        assertThrows(IllegalArgumentException.class, () -> condition.parseParameter("mon-"));
+        assertThrows(IllegalArgumentException.class, () -> condition.parseParameter("mon,,fri"));
+    }
+
+    @Test
+    void checksTheCurrentDay() {
+        final Set<DayOfWeek> weekend = Sets.immutableEnumSet(SATURDAY, SUNDAY);
+        assertFalse(condition.isOpen(weekend, 0, at(5, 23)));
+        assertTrue(condition.isOpen(weekend, 0, at(6, 0)));
+        assertTrue(condition.isOpen(weekend, 0, at(7, 23)));
+        assertFalse(condition.isOpen(weekend, 0, at(8, 0)));
+    }
+
+    @Test
+    void nextCheckIsTheNextMidnightWhereTheResultChanges() {
+        final Set<DayOfWeek> weekdays = condition.parseParameter("mon-fri");
+        assertEquals(at(6, 0), condition.getNextCheck(weekdays, at(1, 12)));
+        assertEquals(at(8, 0), condition.getNextCheck(weekdays, at(6, 12)));
+
+        // every day, so the result never changes, and the next check is a week away
+        final Set<DayOfWeek> always = condition.parseParameter("mon-sun");
+        assertEquals(at(8, 0), condition.getNextCheck(always, at(1, 12)));
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2017 Lucko (Luck) <luck@lucko.me>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+
+package me.lucko.conditionalperms.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RollingMetricTest {
+
+    /**
+     * Counts into the current slot, and sums the slots still in the ring.
+     */
+    private static final class TestMetric extends RollingMetric {
+        private final long[] counts = new long[Metrics.SLOTS];
+
+        TestMetric() {
+            super("test");
+        }
+
+        void add(long now) {
+            counts[rotate(now)]++;
+        }
+
+        long sum(long now) {
+            rotate(now);
+            return Arrays.stream(counts).sum();
+        }
+
+        @Override
+        void clear(int slot) {
+            counts[slot] = 0;
+        }
+    }
+
+    @Test
+    void slotIndexIsInRangeForNegativeTimes() {
+        final TestMetric metric = new TestMetric();
+        for (long now = -3 * Metrics.SLOTS * Metrics.SLOT_NANOS; now < Metrics.SLOTS * Metrics.SLOT_NANOS; now += Metrics.SLOT_NANOS / 3) {
+            final int slot = metric.rotate(now);
+            assertTrue(slot >= 0 && slot < Metrics.SLOTS, "slot " + slot + " at " + now);
+        }
+    }
+
+    @Test
+    void crossingZeroKeepsRecentValues() {
+        final TestMetric metric = new TestMetric();
+        metric.add(-2 * Metrics.SLOT_NANOS);
+        metric.add(-1);
+        metric.add(0);
+        metric.add(Metrics.SLOT_NANOS);
+        assertEquals(4, metric.sum(Metrics.SLOT_NANOS));
+    }
+
+    @Test
+    void negativeTimesShareASlotOnlyWithinOneSlotLength() {
+        final TestMetric metric = new TestMetric();
+        assertEquals(Metrics.SLOTS - 1, metric.rotate(-1));
+        assertEquals(Metrics.SLOTS - 1, metric.rotate(-Metrics.SLOT_NANOS));
+        assertEquals(Metrics.SLOTS - 2, metric.rotate(-Metrics.SLOT_NANOS - 1));
+    }
+
+    @Test
+    void expiredSlotsAreCleared() {
+        final TestMetric metric = new TestMetric();
+        final long start = Long.MIN_VALUE / 2;
+        metric.add(start);
+        metric.add(start + Metrics.SLOT_NANOS);
+        assertEquals(2, metric.sum(start + (Metrics.SLOTS - 1) * Metrics.SLOT_NANOS));
+        assertEquals(1, metric.sum(start + Metrics.SLOTS * Metrics.SLOT_NANOS));
+        assertEquals(0, metric.sum(start + 10 * Metrics.SLOTS * Metrics.SLOT_NANOS));
+    }
+
+    @Test
+    void beforeWrapsAround() {
+        assertEquals(Metrics.SLOTS - 1, RollingMetric.before(0, 1));
+        assertEquals(0, RollingMetric.before(5, 5));
+    }
+}
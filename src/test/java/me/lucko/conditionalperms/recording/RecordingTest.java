@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2017 Lucko (Luck) <luck@lucko.me>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+
+package me.lucko.conditionalperms.recording;
+
+import com.sk89q.worldguard.protection.regions.ProtectedRegion;
+import com.sk89q.worldguard.protection.regions.RegionType;
+
+import me.lucko.conditionalperms.metrics.RefreshCause;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class RecordingTest {
+
+    @TempDir
+    File directory;
+
+    /**
+     * A recording header, followed by the given bytes. Ints are written as single byte varints.
+     */
+    private File recording(int... bytes) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(RecordType.MAGIC);
+        out.write(RecordType.VERSION);
+        for (int b : bytes) {
+            out.write(b);
+        }
+        return write(out.toByteArray());
+    }
+
+    private File write(byte[] bytes) throws IOException {
+        final File file = new File(directory, "test.cpr");
+        Files.write(file.toPath(), bytes);
+        return file;
+    }
+
+    private static int[] concat(int[]... parts) {
+        int length = 0;
+        for (int[] part : parts) {
+            length += part.length;
+        }
+        final int[] ret = new int[length];
+        int i = 0;
+        for (int[] part : parts) {
+            System.arraycopy(part, 0, ret, i, part.length);
+            i += part.length;
+        }
+        return ret;
+    }
+
+    // world 0, named "w"
+    private static final int[] WORLD = {RecordType.WORLD.getId(), 0, 1, 'w'};
+    // player 0, uuid 0, named "a", at 0, 64, 0 in world 0, with the node "cperms.x.y"
+    private static final int[] PLAYER = {RecordType.PLAYER.getId(), 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 1, 'a',
+            0, 0, 128, 1, 0, 1, 10, 'c', 'p', 'e', 'r', 'm', 's', '.', 'x', '.', 'y'};
+    // player 0 moves to 0, 64, 0 in world 0
+    private static final int[] MOVE = {RecordType.MOVE.getId(), 0, 0, 0, 128, 1, 0};
+
+    @Test
+    void readsRecordings() throws IOException {
+        final Recording recording = Recording.read(recording(concat(WORLD, PLAYER, MOVE)));
+        assertEquals(1, recording.getTicks().size());
+        assertEquals(1, recording.getTicks().get(0).getEvents().size());
+        assertEquals(RecordType.MOVE, recording.getTicks().get(0).getEvents().get(0).getType());
+        assertEquals(64, recording.getTicks().get(0).getEvents().get(0).getY());
+
+        final Recording.RecordedPlayer player = recording.getPlayers().get(0);
+        assertEquals("a", player.getName());
+        assertEquals("w", player.getWorld());
+        assertEquals(64, player.getY());
+        assertEquals(Collections.singletonList("cperms.x.y"), player.getNodes());
+
+        final Recording ticks = Recording.read(recording(concat(WORLD, PLAYER, MOVE, new int[]{RecordType.TICK.getId(), 1}, MOVE, new int[]{RecordType.TICK.getId(), 5}, MOVE)));
+        assertEquals(3, ticks.getTicks().size());
+        assertEquals(7, ticks.getDuration());
+    }
+
+    @Test
+    void readsRefreshCauses() throws IOException {
+        final Recording recording = Recording.read(recording(concat(WORLD, PLAYER, new int[]{RecordType.REFRESH.getId(), 0, RefreshCause.REGION.ordinal()})));
+        assertEquals(RefreshCause.REGION, recording.getTicks().get(0).getEvents().get(0).getCause());
+    }
+
+    @Test
+    void readsRegions() throws IOException {
+        final Recording recording = Recording.read(recording(concat(WORLD,
+                // a cuboid from -1, 0, -1 to 1, 64, 1
+                new int[]{RecordType.REGION.getId(), 0, 1, 'c', 0, 0, 128, 1, 1, 1, 2, 2},
+                // a triangle from 0, 10 to 20, 30 (zigzag encoded as 20, 40, 60)
+                new int[]{RecordType.REGION.getId(), 0, 1, 'p', 1, 20, 60, 3, 0, 0, 40, 0, 0, 40})));
+
+        assertEquals(2, recording.getRegions().size());
+        final ProtectedRegion cuboid = recording.getRegions().get(0).getRegion();
+        assertEquals("c", cuboid.getId());
+        assertEquals(RegionType.CUBOID, cuboid.getType());
+        assertEquals(-1, cuboid.getMinimumPoint().getBlockX());
+        assertEquals(64, cuboid.getMaximumPoint().getBlockY());
+
+        final ProtectedRegion polygon = recording.getRegions().get(1).getRegion();
+        assertEquals(RegionType.POLYGON, polygon.getType());
+        assertEquals(3, polygon.getPoints().size());
+        assertEquals(10, polygon.getMinimumPoint().getBlockY());
+        assertEquals(30, polygon.getMaximumPoint().getBlockY());
+    }
+
+    @Test
+    void readsRecordingsCutOffPartWayThroughARecord() throws IOException {
+        assertEquals(2, Recording.read(recording(concat(WORLD, PLAYER, MOVE, new int[]{RecordType.TICK.getId(), 1, RecordType.MOVE.getId(), 0, 0}))).getTicks().size());
+        assertEquals(1, Recording.read(recording(concat(WORLD, new int[]{RecordType.PLAYER.getId(), 0, 0, 0}))).getTicks().size());
+    }
+
+    @Test
+    void rejectsCorruptRecordings() throws IOException {
+        assertThrows(IOException.class, () -> Recording.read(write(new byte[0])));
+        assertThrows(IOException.class, () -> Recording.read(write("CPR".getBytes(StandardCharsets.UTF_8))));
+        assertThrows(IOException.class, () -> Recording.read(write("not a recording".getBytes(StandardCharsets.UTF_8))));
+
+        // unknown record type
+        assertThrows(IOException.class, () -> Recording.read(recording(100)));
+        // negative and huge string lengths
+        assertThrows(IOException.class, () -> Recording.read(recording(RecordType.WORLD.getId(), 0, 0xFF, 0xFF, 0xFF, 0xFF, 0x0F)));
+        assertThrows(IOException.class, () -> Recording.read(recording(RecordType.WORLD.getId(), 0, 0xFF, 0xFF, 0xFF, 0xFF, 0x07)));
+        // varints longer than 5 bytes
+        assertThrows(IOException.class, () -> Recording.read(recording(RecordType.TICK.getId(), 0x80, 0x80, 0x80, 0x80, 0x80, 0x01)));
+        // ticks which don't advance
+        assertThrows(IOException.class, () -> Recording.read(recording(RecordType.TICK.getId(), 0)));
+        // players out of order
+        assertThrows(IOException.class, () -> Recording.read(recording(concat(WORLD, PLAYER, PLAYER))));
+        // records referring to a world or a player which hasn't been defined
+        assertThrows(IOException.class, () -> Recording.read(recording(PLAYER)));
+        assertThrows(IOException.class, () -> Recording.read(recording(concat(WORLD, MOVE))));
+        assertThrows(IOException.class, () -> Recording.read(recording(concat(WORLD, PLAYER, new int[]{RecordType.MOVE.getId(), 0, 3, 0, 0, 0}))));
+        assertThrows(IOException.class, () -> Recording.read(recording(concat(WORLD, PLAYER, new int[]{RecordType.WORLD_CHANGE.getId(), 0, 3, 0, 0, 0}))));
+        assertThrows(IOException.class, () -> Recording.read(recording(RecordType.REFRESH.getId(), 0, 0)));
+        // unknown refresh causes
+        assertThrows(IOException.class, () -> Recording.read(recording(concat(WORLD, PLAYER, new int[]{RecordType.REFRESH.getId(), 0, 100}))));
+        // regions with an unknown shape, or too few points
+        assertThrows(IOException.class, () -> Recording.read(recording(concat(WORLD, new int[]{RecordType.REGION.getId(), 0, 1, 'r', 5, 0, 0}))));
+        assertThrows(IOException.class, () -> Recording.read(recording(concat(WORLD, new int[]{RecordType.REGION.getId(), 0, 1, 'r', 1, 0, 0, 2, 0, 0, 2, 2}))));
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2017 Lucko (Luck) <luck@lucko.me>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+
+package me.lucko.conditionalperms.trace;
+
+import com.google.common.collect.ImmutableSet;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TracerTest {
+    private final Tracer tracer = new Tracer(Logger.getLogger("TracerTest"), 16);
+
+    @BeforeEach
+    void enable() {
+        tracer.setEnabled(true);
+    }
+
+    @Test
+    void nothingIsRecordedWhenDisabled() {
+        tracer.setEnabled(false);
+        tracer.trace(TraceType.REFRESH, "Notch", "test");
+        assertTrue(tracer.dump("Notch", 10).isEmpty());
+    }
+
+    @Test
+    void conditionFilterMatchesAnyConditionOfAnExpression() {
+        tracer.getConditionFilter().add("in_world");
+
+        tracer.trace(TraceType.APPLY, "Notch", ImmutableSet.of("IN_WORLD", "IN_GAMEMODE"), "cperms.in_world=pvp&in_gamemode=creative.a", "a");
+        tracer.trace(TraceType.APPLY, "Notch", ImmutableSet.of("IN_GAMEMODE", "IS_FLYING"), "cperms.in_gamemode=creative|is_flying.b", "b");
+        tracer.trace(TraceType.APPLY, "Notch", ImmutableSet.of("IN_WORLD"), "cperms.in_world=pvp.c", "c");
+
+        assertEquals(2, tracer.dump("Notch", 10).size());
+    }
+
+    @Test
+    void eventsWithoutConditionsIgnoreTheConditionFilter() {
+        tracer.getConditionFilter().add("in_world");
+        tracer.trace(TraceType.REFRESH, "Notch", "test");
+        assertEquals(1, tracer.dump("Notch", 10).size());
+    }
+
+    @Test
+    void playerFilterAppliesToAllEvents() {
+        tracer.getPlayerFilter().add("notch");
+        tracer.trace(TraceType.REFRESH, "Notch", "test");
+        tracer.trace(TraceType.REFRESH, "jeb_", "test");
+
+        assertEquals(1, tracer.dump("Notch", 10).size());
+        assertTrue(tracer.dump("jeb_", 10).isEmpty());
+    }
+
+    @Test
+    void keepsOnlyTheMostRecentEvents() {
+        for (int i = 0; i < 40; i++) {
+            tracer.trace(TraceType.INDEXED, "Notch", i);
+        }
+        assertEquals(16, tracer.dump("Notch", 100).size());
+        assertEquals(5, tracer.dump("Notch", 5).size());
+    }
+}
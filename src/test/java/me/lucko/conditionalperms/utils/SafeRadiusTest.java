@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2017 Lucko (Luck) <luck@lucko.me>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+
+package me.lucko.conditionalperms.utils;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SafeRadiusTest {
+    private final World world = world();
+    private final World other = world();
+
+    private static World world() {
+        final UUID uid = UUID.randomUUID();
+        return (World) Proxy.newProxyInstance(World.class.getClassLoader(), new Class<?>[]{World.class}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getUID":
+                    return uid;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                default:
+                    throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    private Location at(double x, double y, double z) {
+        return new Location(world, x, y, z);
+    }
+
+    @Test
+    void emptyContainsNothing() {
+        final SafeRadius radius = new SafeRadius();
+        assertFalse(radius.contains(at(0, 0, 0)));
+    }
+
+    @Test
+    void containsStrictlyInsideRadius() {
+        final SafeRadius radius = new SafeRadius();
+        radius.set(at(10, 64, 10), 5, false);
+
+        assertTrue(radius.contains(at(10, 64, 10)));
+        assertTrue(radius.contains(at(14.9, 64, 10)));
+        assertTrue(radius.contains(at(13, 67, 10)));
+        assertFalse(radius.contains(at(15, 64, 10)));
+        assertFalse(radius.contains(at(10, 64, 4.9)));
+        assertFalse(radius.contains(at(14, 68, 10)));
+    }
+
+    @Test
+    void horizontalIgnoresHeight() {
+        final SafeRadius radius = new SafeRadius();
+        radius.set(at(0, 64, 0), 3, true);
+
+        assertTrue(radius.contains(at(0, 0, 0)));
+        assertTrue(radius.contains(at(2, 255, 2)));
+        assertFalse(radius.contains(at(3, 64, 0)));
+    }
+
+    @Test
+    void otherWorldIsOutside() {
+        final SafeRadius radius = new SafeRadius();
+        radius.set(at(0, 64, 0), Double.MAX_VALUE, true);
+
+        assertTrue(radius.contains(at(1e7, 64, -1e7)));
+        assertFalse(radius.contains(new Location(other, 0, 64, 0)));
+    }
+
+    @Test
+    void zeroOrNegativeRadiusClears() {
+        final SafeRadius radius = new SafeRadius();
+        radius.set(at(0, 64, 0), 10, false);
+        radius.set(at(0, 64, 0), 0, false);
+        assertFalse(radius.contains(at(0, 64, 0)));
+
+        radius.set(at(0, 64, 0), 10, false);
+        radius.set(at(0, 64, 0), -1, false);
+        assertFalse(radius.contains(at(0, 64, 0)));
+    }
+
+    @Test
+    void clearEmpties() {
+        final SafeRadius radius = new SafeRadius();
+        radius.set(at(0, 64, 0), 10, false);
+        radius.clear();
+        assertFalse(radius.contains(at(0, 64, 0)));
+    }
+}
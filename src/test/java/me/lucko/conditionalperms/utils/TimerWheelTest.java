@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2017 Lucko (Luck) <luck@lucko.me>
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in all
+ *  copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ *  SOFTWARE.
+ */
+
+
+package me.lucko.conditionalperms.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TimerWheelTest {
+    private static final long RESOLUTION = 50;
+    private static final int SLOTS = 16;
+
+    private final AtomicLong clock = new AtomicLong();
+    private final List<String> fired = new ArrayList<>();
+
+    private TimerWheel wheel(long start) {
+        clock.set(start);
+        return new TimerWheel(RESOLUTION, SLOTS, clock::get);
+    }
+
+    private void advanceTo(TimerWheel wheel, long time) {
+        clock.set(time);
+        wheel.advance();
+    }
+
+    @Test
+    void firesWhenDeadlineIsReached() {
+        final TimerWheel wheel = wheel(0);
+        wheel.schedule(120, () -> fired.add("a"));
+
+        advanceTo(wheel, 100);
+        assertTrue(fired.isEmpty());
+        advanceTo(wheel, 119);
+        assertTrue(fired.isEmpty());
+        advanceTo(wheel, 120);
+        assertEquals(1, fired.size());
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    void laterDeadlineInTheVisitedSlotIsNotSkippedForARevolution() {
+        final TimerWheel wheel = wheel(0);
+        // both fall in slot 2, which is visited at 110, before the second is due
+        wheel.schedule(105, () -> fired.add("a"));
+        wheel.schedule(140, () -> fired.add("b"));
+
+        advanceTo(wheel, 110);
+        assertEquals(1, fired.size());
+        advanceTo(wheel, 150);
+        assertEquals(2, fired.size());
+    }
+
+    @Test
+    void deadlinesMoreThanARevolutionAwayWaitForTheirRound() {
+        final TimerWheel wheel = wheel(0);
+        final long delay = RESOLUTION * SLOTS * 3 + 10;
+        wheel.schedule(delay, () -> fired.add("a"));
+
+        for (long t = 0; t < delay; t += RESOLUTION) {
+            advanceTo(wheel, t);
+        }
+        assertTrue(fired.isEmpty());
+        advanceTo(wheel, delay);
+        assertEquals(1, fired.size());
+    }
+
+    @Test
+    void largeJumpsFireEverythingDue() {
+        final TimerWheel wheel = wheel(0);
+        for (int i = 0; i < 100; i++) {
+            wheel.schedule(i * 37, () -> fired.add("x"));
+        }
+        advanceTo(wheel, 100 * 37);
+        assertEquals(100, fired.size());
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    void worksWithNegativeClockValues() {
+        final TimerWheel wheel = wheel(-10_000);
+        wheel.schedule(9_990, () -> fired.add("a"));
+        wheel.schedule(10_020, () -> fired.add("b"));
+
+        for (long t = -10_000; t < -10; t += RESOLUTION) {
+            advanceTo(wheel, t);
+        }
+        assertTrue(fired.isEmpty());
+        advanceTo(wheel, -10);
+        assertEquals(1, fired.size());
+        advanceTo(wheel, 20);
+        assertEquals(2, fired.size());
+    }
+
+    @Test
+    void cancelledTasksDoNotRun() {
+        final TimerWheel wheel = wheel(0);
+        final TimerWheel.Timeout timeout = wheel.schedule(60, () -> fired.add("a"));
+        timeout.cancel();
+        advanceTo(wheel, 1000);
+        assertTrue(fired.isEmpty());
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    void tasksCanRescheduleThemselves() {
+        final TimerWheel wheel = wheel(0);
+        final Runnable[] task = new Runnable[1];
+        task[0] = () -> {
+            fired.add("tick");
+            wheel.schedule(RESOLUTION, task[0]);
+        };
+        wheel.schedule(RESOLUTION, task[0]);
+
+        for (long t = RESOLUTION; t <= RESOLUTION * 10; t += RESOLUTION) {
+            advanceTo(wheel, t);
+        }
+        assertEquals(10, fired.size());
+        assertEquals(1, wheel.size());
+    }
+
+    @Test
+    void everyDeadlineFiresWithinOneAdvanceOfBeingDue() {
+        final TimerWheel wheel = wheel(0);
+        final long[] firedAt = new long[500];
+        for (int i = 0; i < firedAt.length; i++) {
+            final int n = i;
+            // spread over several revolutions, at every offset within a slot
+            wheel.schedule(i * 7L, () -> firedAt[n] = clock.get());
+        }
+
+        for (long t = 0; t <= firedAt.length * 7L + RESOLUTION; t += RESOLUTION) {
+            advanceTo(wheel, t);
+        }
+        for (int i = 0; i < firedAt.length; i++) {
+            assertTrue(firedAt[i] >= i * 7L && firedAt[i] < i * 7L + RESOLUTION, "deadline " + i * 7L + " fired at " + firedAt[i]);
+        }
+    }
+}